@@ -0,0 +1,89 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+/**
+ * A snapshot of the amounts of items that are free in the warehouse,
+ * i.e. neither borrowed nor reserved for a shift that is queued. The
+ * Chief Of Staff takes one per distribution pass and debits it as it
+ * hands shifts out, so that it doesn't hand out more than the stock.
+ */
+public class AvailabilityView
+{
+	private int[] 	available;	 /* Indexed by item id */
+	private boolean outstanding; /* True if items are out and will
+								    be returned later */
+	
+	/**
+	 * Constructs a new view in which no item is checked.
+	 * @param numOfIds The number of item ids known so far.
+	 */
+	public AvailabilityView(int numOfIds)
+	{
+		this.available = new int[numOfIds];
+		for (int i = 0; i < numOfIds; ++i)
+			this.available[i] = Integer.MAX_VALUE;
+		this.outstanding = false;
+	}
+	
+	/**
+	 * Records the free amount of an item.
+	 * @param id The id of the item.
+	 * @param free The amount that is free.
+	 * @param out True if some of the item is borrowed or reserved.
+	 */
+	public void put(int id, int free, boolean out)
+	{
+		if (id < this.available.length)
+			this.available[id] = free;
+		if (out)
+			this.outstanding = true;
+	}
+	
+	/**
+	 * A shift that can't be satisfied should be deferred only if items
+	 * are out; otherwise no return will ever satisfy it and it might as
+	 * well wait at the warehouse.
+	 * @return True if some items are borrowed or reserved.
+	 */
+	public boolean hasOutstanding()
+	{
+		return this.outstanding;
+	}
+	
+	/**
+	 * 
+	 * @param mission A mission.
+	 * @return True if all the items of the mission are free in the
+	 * needed amounts. Items that the warehouse doesn't know of are
+	 * not checked.
+	 */
+	public boolean canSatisfy(Mission mission)
+	{
+		for (int i = 0; i < mission.numOfItems(); ++i) {
+			int id = mission.getItemId(i);
+			if ((id < this.available.length)
+				    && (this.available[id] < mission.getItemAmount(i)))
+				return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Debits the items of a mission from the view.
+	 * @param mission A mission.
+	 */
+	public void take(Mission mission)
+	{
+		for (int i = 0; i < mission.numOfItems(); ++i) {
+			int id = mission.getItemId(i);
+			if ((id < this.available.length)
+				    && (this.available[id] != Integer.MAX_VALUE))
+				this.available[id] = Math.max(0, this.available[id]
+											       - mission.getItemAmount(i));
+		}
+		this.outstanding = true;
+	}
+}
@@ -4,19 +4,142 @@
 
 
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class Board
 {
-	private ArrayList<Mission>	missions;
-	private ChiefOfStaff 		cof;
+	private volatile int 			 numOfMissions; /* Written last */
+	private HashMap<String, Integer> byName;	 /* Ids by name */
+	private MissionColumns 			 columns;	 /* Row i is mission i */
+	private CopyOnWriteArrayList<Sergeant> sergeants; /* Indexed by Sgt. id */
+	private ChiefOfStaff 			 cof;
+	private final Context 			 context;
+	private Shards 					 shards;	 /* null if this is the only
+													board */
+	/* The prerequisites of mission i are the ids preIds[preOffsets[i]]
+	   to preIds[preOffsets[i+1]-1] (compressed sparse rows). The buffers
+	   of a scenario file are views of its read-only mapping, and are
+	   copied to the heap only when missions are added */
+	private IntBuffer 				 preOffsets;
+	private IntBuffer 				 preIds;
+	private int 					 numOfPreIds;
+	private int 					 numOfRows;	 /* Missions whose rows are
+													in the CSR arrays */
+	/* The names of missions that were loaded from a scenario file are
+	   read from the file. Their dependents are kept in CSR arrays as well */
+	private ScenarioFile 			 scenario;
+	private int 					 numOfLoaded;
+	private IntBuffer 				 depOffsets;
+	private IntBuffer 				 depIds;
+	private boolean 				 namesIndexed;
+	/* The names of the missions that were added, from id numOfLoaded on */
+	private volatile String[] 		 names;
+	/* The dependents of the missions that were added are linked lists:
+	   the first edge of mission i is depHeads[i], and the edge after edge
+	   e is depNext[e], until -1. Edge e leads to mission depTargets[e] */
+	private int[] 					 depHeads;
+	private int[] 					 depNext;
+	private int[] 					 depTargets;
+	private int 					 numOfDepEdges;
+	/* Aggregates, kept up to date on every change of a mission */
+	private int[] 					 statusCounts; /* Indexed by ordinal */
+	private volatile long 			 remainingHours;
+	private long[] 					 skillBacklog; /* Remaining hours by
+													  skill id */
 	
 	/**
-	 * Constructs a new board with empty missions list.
+	 * Constructs a new board with empty missions list, which keeps
+	 * the missions on the heap.
+	 * @param context_ The context of the simulation.
 	 */
-	public Board()
+	public Board(Context context_)
 	{
-		this.missions = new ArrayList<Mission>(0);
+		this(context_, new HeapMissionColumns(16));
+	}
+	
+	/**
+	 * Constructs a new board with empty missions list, which keeps
+	 * the missions in the given columns.
+	 * @param context_ The context of the simulation.
+	 * @param columns_ Empty mission columns, e.g. OffHeapMissionColumns.
+	 */
+	public Board(Context context_, MissionColumns columns_)
+	{
+		this.context = context_;
+		this.numOfMissions = 0;
+		this.byName = new HashMap<String, Integer>();
+		this.columns = columns_;
+		this.sergeants = new CopyOnWriteArrayList<Sergeant>();
+		this.preOffsets = IntBuffer.allocate(16);
+		this.preOffsets.put(0, 0);
+		this.preIds = IntBuffer.allocate(16);
+		this.numOfPreIds = 0;
+		this.numOfRows = 0;
+		this.scenario = null;
+		this.numOfLoaded = 0;
+		this.depOffsets = null;
+		this.depIds = null;
+		this.namesIndexed = true;
+		this.names = new String[16];
+		this.depHeads = new int[0];
+		this.depNext = new int[16];
+		this.depTargets = new int[16];
+		this.numOfDepEdges = 0;
+		this.shards = null;
+		this.statusCounts = new int[Status.values().length];
+		this.remainingHours = 0;
+		this.skillBacklog = new long[0];
+	}
+	
+	/**
+	 * Takes the missions of a scenario file, whose rows are already in
+	 * the columns of this board. Their names are read from the file when
+	 * they are first used. Must be called before any mission is added.
+	 * @param n Number of missions in the file.
+	 * @param scenario_ The scenario file.
+	 * @param preOffsets_ Prerequisites offsets, n+1 ints.
+	 * @param preIds_ Prerequisites ids.
+	 * @param depOffsets_ Dependents offsets, n+1 ints.
+	 * @param depIds_ Dependents ids.
+	 */
+	public synchronized void adoptRows(int n, ScenarioFile scenario_,
+									   IntBuffer preOffsets_, IntBuffer preIds_,
+									   IntBuffer depOffsets_, IntBuffer depIds_)
+	{
+		this.scenario = scenario_;
+		this.numOfLoaded = n;
+		this.preOffsets = preOffsets_;
+		this.preIds = preIds_;
+		this.numOfPreIds = preOffsets_.get(n);
+		this.numOfRows = n;
+		this.depOffsets = depOffsets_;
+		this.depIds = depIds_;
+		this.namesIndexed = (n == 0);
+		this.numOfMissions = n;
+		for (int i = 0; i < n; ++i)
+			this.countRow(i, 1);
+	}
+	
+	/**
+	 * 
+	 * @return The context of the simulation.
+	 */
+	public Context getContext()
+	{
+		return this.context;
+	}
+	
+	/**
+	 * 
+	 * @return The columns in which the missions are kept.
+	 */
+	public MissionColumns getColumns()
+	{
+		return this.columns;
 	}
 		
 	/**
@@ -26,17 +149,53 @@ public class Board
 	 *   object will be returned.
 	 * @return The mission object that corresponds missionName. 
 	 */
-	public Mission findMission(String missionName)
+	public synchronized Mission findMission(String missionName)
 	{
-		for (Mission m : this.missions)
-			if (m.getName().equals(missionName))
-				return m;
-		
-		return null;
+		if (!this.namesIndexed) {
+			for (int i = 0; i < this.numOfLoaded; ++i)
+				this.byName.put(this.scenario.missionName(i), i);
+			this.namesIndexed = true;
+		}
+		Integer id = this.byName.get(missionName);
+		return (id == null) ? null : this.getMission(id);
+	}
+	
+	/**
+	 * Gets a mission id and returns a view of the mission. The view is
+	 * created on every call, and is equal to the other views of the
+	 * mission.
+	 * @param id The id of a mission on this board.
+	 * @return The mission object whose id is `id`.
+	 */
+	public Mission getMission(int id)
+	{
+		return new Mission(this, this.columns, id);
+	}
+	
+	/**
+	 * 
+	 * @param id The id of a mission on this board.
+	 * @return The name of the mission.
+	 */
+	public String missionName(int id)
+	{
+		if (id < this.numOfLoaded)
+			return this.scenario.missionName(id);
+		return this.names[id - this.numOfLoaded];
+	}
+	
+	/**
+	 * 
+	 * @return The number of missions on the board.
+	 */
+	public int numOfMissions()
+	{
+		return this.numOfMissions;
 	}
 	
 	/**
-	 * Takes a Mission object and adds it to the board.
+	 * Takes a Mission object and adds it to the board. Its prerequisites
+	 * must already be on the board.
 	 * @param mission The mission object to be added to the board.
 	 */
 	public void addMission(Mission mission)
@@ -45,8 +204,189 @@ public class Board
 			System.err.println("WARNING: Tried to add a null mission.");
 			return;
 		}
-		this.missions.add(mission);
-		this.cof.wakeUp();
+		ArrayList<Mission> list = new ArrayList<Mission>(1);
+		list.add(mission);
+		this.addMissions(list);
+	}
+	
+	/**
+	 * Adds several missions to the board and wakes the COF once. A
+	 * mission may have prerequisites among the other missions of the list.
+	 * @param missions_ The missions to be added to the board.
+	 */
+	public void addMissions(ArrayList<Mission> missions_)
+	{
+		synchronized (this) {
+			/* Give ids first, so that prerequisites within the
+			   list can be referred to */
+			for (Mission m : missions_) {
+				String name = m.getName();
+				int id = m.moveTo(this, this.columns);
+				int slot = id - this.numOfLoaded;
+				if (slot >= this.names.length) {
+					String[] grown = new String[Math.max(slot + 1, 2*this.names.length)];
+					System.arraycopy(this.names, 0, grown, 0, this.names.length);
+					grown[slot] = name;
+					this.names = grown;
+				} else {
+					this.names[slot] = name;
+				}
+				this.numOfMissions = id + 1;
+				this.byName.put(name, id);
+				this.countRow(id, 1);
+			}
+			for (Mission m : missions_)
+				this.appendPreMissions(m);
+		}
+		if (this.cof != null)
+			this.cof.wakeUp();
+	}
+	
+	/* Moves the prerequisites of `m` that aren't done to the end of the
+	 * CSR arrays, and lengthens their critical paths. Missions are done
+	 * under the lock of the board, so none is done meanwhile */
+	private void appendPreMissions(Mission m)
+	{
+		ArrayList<Mission> pres = m.takePreMissions();
+		int id = m.getId();
+		
+		if (id + 2 > this.preOffsets.capacity())
+			this.preOffsets = grow(this.preOffsets, id + 2);
+		if (this.numOfPreIds + pres.size() > this.preIds.capacity())
+			this.preIds = grow(this.preIds, this.numOfPreIds + pres.size());
+		
+		/* Missions are appended in id order */
+		for (Mission pre : pres) {
+			this.preIds.put(this.numOfPreIds++, pre.getId());
+			this.addDependent(pre.getId(), id);
+			this.raiseCriticalPath(pre, m.getCriticalPath());
+		}
+		this.preOffsets.put(id + 1, this.numOfPreIds);
+		this.numOfRows = id + 1;
+	}
+	
+	/* Records that mission `dependent` has mission `pre` as a prerequisite */
+	private void addDependent(int pre, int dependent)
+	{
+		if (pre >= this.depHeads.length) {
+			int old = this.depHeads.length;
+			this.depHeads = grow(this.depHeads, Math.max(16, pre + 1));
+			Arrays.fill(this.depHeads, old, this.depHeads.length, -1);
+		}
+		if (this.numOfDepEdges == this.depTargets.length) {
+			this.depNext = grow(this.depNext, this.numOfDepEdges + 1);
+			this.depTargets = grow(this.depTargets, this.numOfDepEdges + 1);
+		}
+		this.depTargets[this.numOfDepEdges] = dependent;
+		this.depNext[this.numOfDepEdges] = this.depHeads[pre];
+		this.depHeads[pre] = this.numOfDepEdges++;
+	}
+	
+	/* Lengthens the critical path of `m` to cover a dependent whose
+	 * critical path is `dependentPath`, and propagates the change to
+	 * the prerequisites of `m`. Chains of missions may be long, so the
+	 * missions to raise are kept on a stack rather than recursed into */
+	private void raiseCriticalPath(Mission m, int dependentPath)
+	{
+		MissionColumns c = this.columns;
+		int[] ids = new int[16];
+		int[] paths = new int[16];	/* Critical paths of the dependents */
+		int size = 0;
+		
+		ids[size] = m.getId();
+		paths[size++] = dependentPath;
+		while (size > 0) {
+			int id = ids[--size];
+			int path = c.get(MissionColumns.TIME_LEFT, id) + paths[size];
+			if ((Mission.statusOf(c, id) == Status.DONE)
+			        || (path <= c.get(MissionColumns.CRITICAL_PATH, id)))
+				continue;
+			c.set(MissionColumns.CRITICAL_PATH, id, path);
+			
+			/* The prerequisites may not have been appended yet, in which
+			   case they are raised when they are */
+			if (id >= this.numOfRows)
+				continue;
+			int from = this.preOffsets.get(id);
+			int to = this.preOffsets.get(id + 1);
+			if (size + to - from > ids.length) {
+				ids = grow(ids, size + to - from);
+				paths = grow(paths, size + to - from);
+			}
+			for (int i = from; i < to; ++i) {
+				ids[size] = this.preIds.get(i);
+				paths[size++] = path;
+			}
+		}
+	}
+	
+	/* Adds row `row` to the aggregates if `sign` is 1, or takes it out
+	 * of them if `sign` is -1 */
+	private void countRow(int row, int sign)
+	{
+		Status status = Mission.statusOf(this.columns, row);
+		int skill = this.columns.get(MissionColumns.SKILL, row);
+		int left = (status == Status.DONE) ? 0
+				: Math.max(0, this.columns.get(MissionColumns.TIME_LEFT, row));
+		
+		if (skill >= this.skillBacklog.length) {
+			long[] grown = new long[Math.max(skill + 1, 2*this.skillBacklog.length)];
+			System.arraycopy(this.skillBacklog, 0, grown, 0, this.skillBacklog.length);
+			this.skillBacklog = grown;
+		}
+		this.statusCounts[status.ordinal()] += sign;
+		this.remainingHours += sign*left;
+		this.skillBacklog[skill] += sign*left;
+	}
+	
+	/**
+	 * 
+	 * @param status A status.
+	 * @return The number of missions whose status is `status`.
+	 */
+	public synchronized int countMissions(Status status)
+	{
+		return this.statusCounts[status.ordinal()];
+	}
+	
+	/**
+	 * 
+	 * @return The hours of work left on all the missions.
+	 */
+	public long hoursLeft()
+	{
+		return this.remainingHours;
+	}
+	
+	/**
+	 * 
+	 * @param skillId The id of a skill.
+	 * @return The hours of work left on the missions that need the skill.
+	 */
+	public synchronized long hoursLeftFor(int skillId)
+	{
+		if ((skillId < 0) || (skillId >= this.skillBacklog.length))
+			return 0;
+		return this.skillBacklog[skillId];
+	}
+	
+	/* Returns `arr` grown to hold at least `min` elements */
+	private static int[] grow(int[] arr, int min)
+	{
+		int[] grown = new int[Math.max(min, 2*arr.length)];
+		System.arraycopy(arr, 0, grown, 0, arr.length);
+		return grown;
+	}
+	
+	/* Returns a copy of `buf` on the heap, of at least `min` ints */
+	private static IntBuffer grow(IntBuffer buf, int min)
+	{
+		IntBuffer grown = IntBuffer.allocate(Math.max(min, 2*buf.capacity()));
+		IntBuffer src = buf.duplicate();
+		src.clear();
+		grown.put(src);
+		grown.clear();
+		return grown;
 	}
 
 	/**
@@ -57,12 +397,15 @@ public class Board
 	public ArrayList<Mission> exportMissions()
 	{	
 		ArrayList<Mission> suitables = new ArrayList<Mission>(0);
+		MissionColumns c = this.columns;
+		int rows = this.numOfMissions;
 		
-		for (Mission m : this.missions) {
-			if ((!m.hasPrerequisites())
-			        && (!m.isInMissionHolder())
-			        && (m.getStatus() == Status.FRESH)) {
-				suitables.add(m);
+		/* Scan the columns, and touch only the missions that fit */
+		for (int i = 0; i < rows; ++i) {
+			if ((c.get(MissionColumns.PENDING_PRES, i) == 0)
+			        && (c.get(MissionColumns.IN_MISSION_HOLDER, i) == 0)
+			        && (Mission.statusOf(c, i) == Status.FRESH)) {
+				suitables.add(this.getMission(i));
 			}
 		}
 		
@@ -84,33 +427,88 @@ public class Board
 			System.err.println("ERROR: Trying to modify a null mission.");
 			return;
 		}
+		this.countRow(mission.getId(), -1);
 		mission.updateTime(time);
+		this.countRow(mission.getId(), 1);
 		
 		if (mission.getStatus() == Status.DONE) {
-			Run.logger.fine("Sgt. " + mission.getSgt().getName()
+			this.context.missionDone();
+			if (this.context.hasSubscribers())
+				this.context.publish(Event.missionDone(mission, mission.getSgt()));
+			this.context.log("Sgt. " + mission.getSgt().getName()
 							    + ": Mission " + mission.getName() + " DONE.");
 			deleteFromDependencies(mission);
 			this.cof.deleteFromMissionHolder(mission);
 		}
 		if (areAllComplete()) {
-			this.cof.cancel();
-			System.out.println("All objectives have been achieved.\n" 
-							       + "Enter 'stop' for terminating execution.\n");
-			Run.logger.fine("All objectives have been achieved.");
+			/* The COF is kept up, for missions that are added later */
+			if ((this.shards != null) && (!this.shards.boardComplete())) {
+				this.shards.wakeUp();
+				return;
+			}
+			this.context.allDone();
 			return;
 		}
 		this.notifyAll();
-		this.cof.wakeUp();
+		/* The items of the shift are back in the shared warehouse, where
+		   missions of the other boards may have been waiting for them */
+		if (this.shards != null)
+			this.shards.wakeUp();
+		else
+			this.cof.wakeUp();
 	}
 	
 	/* Deletes `mission` from all the missions that depend on it */
 	private void deleteFromDependencies(final Mission mission)
 	{
-		/* Run through the mission list, and for every mission,
-		   let `mission` delete itself from that mission's pre-
-		   missions list (if it's there) */
-		for (Mission m : this.missions)
-			mission.deleteFromPreMissions(m);
+		int id = mission.getId();
+		
+		if (id < this.depHeads.length)
+			for (int e = this.depHeads[id]; e >= 0; e = this.depNext[e])
+				this.getMission(this.depTargets[e]).preMissionDone();
+		if (id < this.numOfLoaded)
+			for (int i = this.depOffsets.get(id); i < this.depOffsets.get(id + 1); ++i)
+				this.getMission(this.depIds.get(i)).preMissionDone();
+	}
+	
+	/**
+	 * Gets the prerequisites of a mission that haven't been completed yet.
+	 * @param mission A mission on this board.
+	 * @return The prerequisites, or null if there are none.
+	 */
+	public synchronized ArrayList<Mission> getPreMissions(Mission mission)
+	{
+		ArrayList<Mission> pres = new ArrayList<Mission>(0);
+		int id = mission.getId();
+		
+		if (id >= this.numOfRows)
+			return null;
+		for (int i = this.preOffsets.get(id); i < this.preOffsets.get(id + 1); ++i) {
+			Mission pre = this.getMission(this.preIds.get(i));
+			if (pre.getStatus() != Status.DONE)
+				pres.add(pre);
+		}
+		
+		if (pres.isEmpty())
+			return null;
+		
+		return pres;
+	}
+	
+	/**
+	 * 
+	 * @param id The id of a mission on this board.
+	 * @return The ids of all the prerequisites of the mission.
+	 */
+	public synchronized int[] getPreIds(int id)
+	{
+		if (id >= this.numOfRows)
+			return new int[0];
+		int[] ids = new int[this.preOffsets.get(id + 1) - this.preOffsets.get(id)];
+		IntBuffer src = this.preIds.duplicate();
+		src.position(this.preOffsets.get(id));
+		src.get(ids);
+		return ids;
 	}
 	
 	/**
@@ -118,24 +516,9 @@ public class Board
 	 */
 	public void printCompleteMissions()
 	{
-		int cnt = 0;
-		if (this.missions == null) {
-			System.out.println("Missions list is empty.\n");
-			return;
-		}
-		System.out.println("--COMPLETE MISSIONS--\n");
-		for (Mission m : this.missions) {
-			if (m.getStatus() == Status.DONE) {
-				System.out.println("Mission:\t" + m.getName()
-								       + "\n" + "Completed by Sgt.\t"
-						               + m.getSgt().getName() + "\n");
-				++cnt;
-			}
-		}
-		if (cnt > 0)
-			System.out.printf("Total: %d\n", cnt);
-		else
-			System.out.println("\tNONE.\n");
+		StringBuilder out = new StringBuilder();
+		this.renderCompleteMissions(new Query(), out);
+		System.out.print(out);
 	}
 	
 	/**
@@ -145,44 +528,194 @@ public class Board
 	 */
 	public void printIncompleteMissions()
 	{
-		int cnt = 0;
-		if (this.missions == null) {
-			System.out.println("Missions list is empty.\n");
-			return;
+		StringBuilder out = new StringBuilder();
+		this.renderIncompleteMissions(new Query(), out);
+		System.out.print(out);
+	}
+	
+	/**
+	 * Appends a page of the complete missions and their assigned Sgt.
+	 * The missions are rendered as they were at a single moment.
+	 * @param q The filter and the page.
+	 * @param out The buffer the report is appended to.
+	 */
+	public void renderCompleteMissions(Query q, StringBuilder out)
+	{
+		out.append("--COMPLETE MISSIONS--\n\n");
+		q.renderTotal(out, this.renderCompleteMissions(q, 0, out));
+	}
+	
+	/**
+	 * Appends the complete missions that are on the page, without a
+	 * header and a total, as part of a report on several boards.
+	 * @param q The filter and the page.
+	 * @param before Number of matching missions on the previous boards.
+	 * @param out The buffer the report is appended to.
+	 * @return Number of matching missions on this board.
+	 */
+	public int renderCompleteMissions(Query q, int before, StringBuilder out)
+	{
+		Page page = this.pageOf(q, before, true);
+		
+		for (int i = 0; i < page.size; ++i)
+			out.append("Mission:\t").append(this.missionName(page.rows[i]))
+			   .append("\nCompleted by Sgt.\t")
+			   .append(this.getSergeant(page.sgts[i]).getName())
+			   .append("\n\n");
+		return page.total;
+	}
+	
+	/**
+	 * Appends a page of the incomplete missions, their remaining times
+	 * for completion, and pre-required missions that haven't been
+	 * completed yet. The missions are rendered as they were at a single
+	 * moment.
+	 * @param q The filter and the page.
+	 * @param out The buffer the report is appended to.
+	 */
+	public void renderIncompleteMissions(Query q, StringBuilder out)
+	{
+		out.append("--INCOMPLETE MISSIONS--\n\n");
+		q.renderTotal(out, this.renderIncompleteMissions(q, 0, out));
+	}
+	
+	/**
+	 * Appends the incomplete missions that are on the page, without a
+	 * header and a total, as part of a report on several boards.
+	 * @param q The filter and the page.
+	 * @param before Number of matching missions on the previous boards.
+	 * @param out The buffer the report is appended to.
+	 * @return Number of matching missions on this board.
+	 */
+	public int renderIncompleteMissions(Query q, int before, StringBuilder out)
+	{
+		Page page = this.pageOf(q, before, false);
+		
+		for (int i = 0; i < page.size; ++i) {
+			out.append("Mission:\t").append(this.missionName(page.rows[i]))
+			   .append("\nTime Left:\t").append(page.times[i])
+			   .append("\nPrerequisites:\n");
+			if (page.preOffsets[i] == page.preOffsets[i + 1])
+				out.append("\tNONE\n");
+			for (int j = page.preOffsets[i]; j < page.preOffsets[i + 1]; ++j)
+				out.append('\t').append(this.missionName(page.pres[j]))
+				   .append('\n');
+			out.append('\n');
 		}
-		System.out.println("--INCOMPLETE MISSIONS--\n");
-		for (Mission m : this.missions) {
-			if (m.getStatus() != Status.DONE) {
-				System.out.println("Mission:\t" + m.getName()
-								       + "\n" + "Time Left:\t" + m.timeLeft()
-								       + "\n" + "Prerequisites:");
-				if (m.getPreMissions() == null)
-					System.out.println("\tNONE");
-				else
-					for (Mission n : m.getPreMissions())
-						System.out.println("\t" + n.getName());
-				++cnt;
+		return page.total;
+	}
+	
+	/* Copies what the reports need of the complete missions (if `done`)
+	 * or the incomplete ones that match `q` and are on its page, and
+	 * counts all the missions that match. Only the copying is done under
+	 * the lock; the report is rendered from the copy */
+	private synchronized Page pageOf(Query q, int before, boolean done)
+	{
+		int sgtId = this.sgtIdOf(q);
+		int skillId = this.skillIdOf(q);
+		Page page = new Page();
+		
+		for (int i = 0; i < this.numOfMissions; ++i) {
+			if (((Mission.statusOf(this.columns, i) == Status.DONE) != done)
+			        || (!this.matches(q, i, sgtId, skillId)))
+				continue;
+			/* Only the missions on the page are copied */
+			if (q.inPage(before + page.total)) {
+				page.add(i, this.columns.get(MissionColumns.SGT, i),
+						 this.columns.get(MissionColumns.TIME_LEFT, i));
+				if ((!done) && (i < this.numOfRows))
+					for (int j = this.preOffsets.get(i); j < this.preOffsets.get(i + 1); ++j)
+						if (Mission.statusOf(this.columns, this.preIds.get(j)) != Status.DONE)
+							page.addPre(this.preIds.get(j));
 			}
-			System.out.println();
+			++page.total;
 		}
-		if (cnt > 0)
-			System.out.printf("Total: %d\n", cnt);
-		else
-			System.out.println("\tNONE.\n");
+		return page;
+	}
+	
+	/* Returns true if row `row` matches the filter of `q`, where `sgtId`
+	 * and `skillId` are the ids of its Sgt. and skill */
+	private boolean matches(Query q, int row, int sgtId, int skillId)
+	{
+		if (!q.matchesStatus(Mission.statusOf(this.columns, row)))
+			return false;
+		if ((q.getSgt() != null)
+		        && (this.columns.get(MissionColumns.SGT, row) != sgtId))
+			return false;
+		if ((q.getSkill() != null)
+		        && (this.columns.get(MissionColumns.SKILL, row) != skillId))
+			return false;
+		return true;
+	}
+	
+	/* Returns the id of the Sgt. of `q`, or -2 if there is no such Sgt.
+	 * (-1 is the Sgt. of missions that weren't handed yet) */
+	private int sgtIdOf(Query q)
+	{
+		if (q.getSgt() != null)
+			for (Sergeant s : this.sergeants)
+				if (s.getName().equals(q.getSgt()))
+					return s.getId();
+		return -2;
+	}
+	
+	/* Returns the id of the skill of `q`, or -1 if there is no such skill */
+	private int skillIdOf(Query q)
+	{
+		if (q.getSkill() == null)
+			return -1;
+		return this.context.getSkills().lookup(q.getSkill());
 	}
-
 
 	/**
-	 * 
+	 * Answered from the aggregates, in constant time.
 	 * @return true if all missions are complete and false otherwise.
 	 */
 	private boolean areAllComplete()
 	{
-		for (Mission m : this.missions)
-			if (m.getStatus() != Status.DONE)
-				return false;
-		
-		return true;
+		return this.remainingHours == 0;
+	}
+	
+	/**
+	 * Gives a sergeant an id by which missions refer to it.
+	 * @param sgt The sergeant.
+	 * @return The id of the sergeant.
+	 */
+	public synchronized int registerSergeant(Sergeant sgt)
+	{
+		this.sergeants.add(sgt);
+		return this.sergeants.size() - 1;
+	}
+	
+	/**
+	 * 
+	 * @param id The id of a sergeant.
+	 * @return The sergeant whose id is `id`.
+	 */
+	public Sergeant getSergeant(int id)
+	{
+		return this.sergeants.get(id);
+	}
+	
+	/**
+	 * Wakes up the COF of this board, or all the COFs if this board is
+	 * one of several shards, since they share the warehouse.
+	 */
+	public void wakeUp()
+	{
+		if (this.shards != null)
+			this.shards.wakeUp();
+		else
+			this.cof.wakeUp();
+	}
+	
+	/**
+	 * Makes this board one of several shards.
+	 * @param shards_ The shards.
+	 */
+	public void setShards(Shards shards_)
+	{
+		this.shards = shards_;
 	}
 	
 	/**
@@ -194,6 +727,32 @@ public class Board
 		this.cof = cof_;
 	}
 	
+	/**
+	 * Gets the missions that are assigned to each of some sergeants,
+	 * scanning the board once.
+	 * @param sgts The sergeants.
+	 * @return For every sergeant in `sgts`, its assigned missions.
+	 */
+	public synchronized ArrayList<ArrayList<Mission>> getSgtsMissions(
+			ArrayList<Sergeant> sgts)
+	{
+		ArrayList<ArrayList<Mission>> lists =
+				new ArrayList<ArrayList<Mission>>(sgts.size());
+		int[] index = new int[this.sergeants.size()];
+		
+		Arrays.fill(index, -1);
+		for (int i = 0; i < sgts.size(); ++i) {
+			index[sgts.get(i).getId()] = i;
+			lists.add(new ArrayList<Mission>(0));
+		}
+		for (int i = 0; i < this.numOfMissions; ++i) {
+			int sgtId = this.columns.get(MissionColumns.SGT, i);
+			if ((sgtId >= 0) && (sgtId < index.length) && (index[sgtId] >= 0))
+				lists.get(index[sgtId]).add(this.getMission(i));
+		}
+		return lists;
+	}
+	
 	/**
 	 * Gets the missions that are assigned to Sergeant `sgt`.
 	 * @param sgt The sergeant whose assigned missions we want to return.
@@ -203,13 +762,66 @@ public class Board
 	{
 		ArrayList<Mission> sgtsMissions = new ArrayList<Mission>(0);
 		
-		for (Mission m : this.missions)
-			if ((m.getSgt() != null) && (m.getSgt() == sgt)) 
-				sgtsMissions.add(m);
+		for (int i = 0; i < this.numOfMissions; ++i)
+			if (this.columns.get(MissionColumns.SGT, i) == sgt.getId()) 
+				sgtsMissions.add(this.getMission(i));
 		
 		if (sgtsMissions.isEmpty())
 			return null;
 		
 		return sgtsMissions;
 	}
+	
+	
+	/* Nested classes */
+	
+	/*
+	 * A copy of the missions on the page of a report
+	 */
+	static class Page
+	{
+		int   total;		/* Missions that match, on the page or not */
+		int   size;			/* Missions on the page */
+		int[] rows;
+		int[] sgts;
+		int[] times;
+		/* The prerequisites of mission i on the page that weren't
+		   completed are pres[preOffsets[i]] to pres[preOffsets[i+1]-1] */
+		int[] preOffsets;
+		int[] pres;
+		
+		Page() {
+			this.total = 0;
+			this.size = 0;
+			this.rows = new int[16];
+			this.sgts = new int[16];
+			this.times = new int[16];
+			this.preOffsets = new int[17];
+			this.pres = new int[16];
+		}
+		
+		/* Adds the mission in row `row` to the page */
+		void add(int row, int sgt, int time) {
+			if (this.size == this.rows.length) {
+				this.rows = Arrays.copyOf(this.rows, this.size * 2);
+				this.sgts = Arrays.copyOf(this.sgts, this.size * 2);
+				this.times = Arrays.copyOf(this.times, this.size * 2);
+				this.preOffsets = Arrays.copyOf(this.preOffsets, this.size * 2 + 1);
+			}
+			this.rows[this.size] = row;
+			this.sgts[this.size] = sgt;
+			this.times[this.size] = time;
+			++this.size;
+			this.preOffsets[this.size] = this.preOffsets[this.size - 1];
+		}
+		
+		/* Adds a prerequisite to the mission that was added last */
+		void addPre(int pre) {
+			int n = this.preOffsets[this.size];
+			if (n == this.pres.length)
+				this.pres = Arrays.copyOf(this.pres, n * 2);
+			this.pres[n] = pre;
+			this.preOffsets[this.size] = n + 1;
+		}
+	}
 }
@@ -0,0 +1,139 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Answers "how many more units of which item would cut the makespan the
+ * most". The current scenario is captured in a Simulator, and run once as
+ * it is and once for every item with 1, 2, ... extra units of it. The
+ * runs go in parallel, as the model is shared and never changed.
+ */
+public class CapacityPlanner
+{
+	private final Simulator 	base;
+	private final int 			maxExtra;
+	private Simulator.Result 	baseline;
+	private ArrayList<Integer> 	itemIds;
+	private Simulator.Result[][] results; /* By item, and extra units - 1 */
+
+	/**
+	 * Constructs a planner.
+	 * @param base_ The model of the current scenario.
+	 * @param maxExtra_ The most extra units of an item to try.
+	 */
+	public CapacityPlanner(Simulator base_, int maxExtra_)
+	{
+		this.base = base_;
+		this.maxExtra = Math.max(1, maxExtra_);
+		this.baseline = null;
+		this.itemIds = base_.getItemIds();
+		this.results = new Simulator.Result[this.itemIds.size()][this.maxExtra];
+	}
+
+	/**
+	 * Runs the model and its variants.
+	 * @param pool The pool they run on.
+	 */
+	public void plan(ForkJoinPool pool)
+	{
+		Simulator[] sims = new Simulator[1 + this.itemIds.size() * this.maxExtra];
+		int k = 0;
+
+		sims[k++] = this.base;
+		for (int itemId : this.itemIds)
+			for (int extra = 1; extra <= this.maxExtra; ++extra)
+				sims[k++] = this.base.withExtra(itemId, extra);
+
+		Simulator.Result[] done = Sweep.runAll(pool, sims);
+		this.baseline = done[0];
+		k = 1;
+		for (int i = 0; i < this.itemIds.size(); ++i)
+			for (int extra = 0; extra < this.maxExtra; ++extra)
+				this.results[i][extra] = done[k++];
+	}
+
+	/**
+	 * Appends the makespan and the throughput of every run, the change
+	 * of the makespan per extra unit of every item, and the item that
+	 * helps the most. As in Sweep, a run that leaves fewer missions
+	 * never done is better, and among those, the one with the shorter
+	 * makespan is.
+	 * @param out The buffer the plan is appended to.
+	 */
+	public void render(StringBuilder out)
+	{
+		out.append("--CAPACITY PLAN--\n\n")
+		   .append("Missions:\t").append(this.base.numOfMissions())
+		   .append("\nBaseline:\t");
+		this.renderResult(this.baseline, out);
+		out.append("\n\n");
+
+		String best = null;
+		int bestStuck = this.baseline.getStuck();
+		double bestCut = 0;
+		for (int i = 0; i < this.itemIds.size(); ++i) {
+			int itemId = this.itemIds.get(i);
+			String name = this.base.getItemName(itemId);
+			int stuck = this.baseline.getStuck();	/* At its best */
+			double cut = 0;		/* Hours per unit, at its best */
+
+			out.append("Item ").append(name).append(" (")
+			   .append(this.base.getStock(itemId)).append(" units):\n");
+			for (int extra = 0; extra < this.maxExtra; ++extra) {
+				Simulator.Result r = this.results[i][extra];
+				double perUnit = (double) (this.baseline.getMakespan()
+										   - r.getMakespan()) / (extra + 1);
+				out.append("\t+").append(extra + 1).append(":\t");
+				this.renderResult(r, out);
+				out.append('\n');
+				if (isBetter(r.getStuck(), perUnit, stuck, cut)) {
+					stuck = r.getStuck();
+					cut = perUnit;
+				}
+			}
+			out.append("\tSensitivity:\t")
+			   .append(String.format("%.2f", cut)).append(" hours per unit");
+			if (stuck < this.baseline.getStuck())
+				out.append(", ").append(this.baseline.getStuck() - stuck)
+				   .append(" more done");
+			out.append("\n\n");
+			if (isBetter(stuck, cut, bestStuck, bestCut)) {
+				bestStuck = stuck;
+				bestCut = cut;
+				best = name;
+			}
+		}
+		if (best == null)
+			out.append("No extra units cut the makespan.\n\n");
+		else if (bestStuck < this.baseline.getStuck())
+			out.append("Most missions done by:\t").append(best).append("\n\n");
+		else
+			out.append("Most makespan cut by:\t").append(best).append("\n\n");
+	}
+
+	/* Returns true if a run that leaves `stuck` missions never done and
+	 * cuts `cut` hours per unit is better than one that leaves `otherStuck`
+	 * and cuts `otherCut` */
+	private static boolean isBetter(int stuck, double cut,
+									int otherStuck, double otherCut)
+	{
+		if (stuck != otherStuck)
+			return stuck < otherStuck;
+		return cut > otherCut;
+	}
+
+	/* Appends the makespan and the throughput of `r` */
+	private void renderResult(Simulator.Result r, StringBuilder out)
+	{
+		out.append("makespan ").append(r.getMakespan()).append(" hours, ")
+		   .append(String.format("%.3f", r.getThroughput()))
+		   .append(" missions per hour");
+		if (r.getStuck() > 0)
+			out.append(", ").append(r.getStuck()).append(" never done");
+	}
+}
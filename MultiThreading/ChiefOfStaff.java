@@ -5,29 +5,65 @@
 
 
 import java.util.ArrayList;
-import java.util.ListIterator;
+import java.util.LinkedHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 public class ChiefOfStaff extends Thread
 {
-	public static int maxThreads;
 	public static final int SECS_WAIT_TERMINATION = 60;
+	public static final int LEASE_TICK_MILLIS = 100;
+	public static final int LEASE_SLOTS = 512;
+	public static final int MAX_DEFERRALS = 8;
+	public static final long MAX_DEFER_MILLIS = 2000;
 	
 	private Board 				board;
+	private Warehouse 			warehouse;
 	private MissionHolder 		missionHolder;
 	private ArrayList<Sergeant> sergeants;
+	private PoolController		poolController;
+	private SharedScheduler		scheduler;
+	private TimerWheel<MissionLease> leases; /* Of the shifts that work */
+	private Thread 				leaseClock;	/* Expires the leases */
+	private int 				numOfThreads; /* Of the sergeants of this COF */
+	private LinkedHashMap<Mission, Deferral> deferrals; /* Of the missions that
+														 wait for items to be
+														 returned, oldest first */
 	
 	/**
 	 * Constructs a new Chief Of Staff with empty mission holder
 	 * and empty sergeants list.
 	 * @param board_ The board that the COF will use.
+	 * @param warehouse_ The warehouse whose stock the COF will consider.
 	 */
-	public ChiefOfStaff(Board board_)
+	public ChiefOfStaff(Board board_, Warehouse warehouse_)
 	{
 		this.board = board_;
+		this.warehouse = warehouse_;
 		this.missionHolder = new MissionHolder();
 		this.sergeants = new ArrayList<Sergeant>(0);
+		this.poolController = new PoolController(this, warehouse_.getContext());
+		this.scheduler = warehouse_.getContext().getScheduler();
+		this.leases = new TimerWheel<MissionLease>(LEASE_TICK_MILLIS, LEASE_SLOTS);
+		this.numOfThreads = 0;
+		this.deferrals = new LinkedHashMap<Mission, Deferral>();
+		
+		/* The lease clock doesn't tick while the wheel is empty, so the
+		   first lease wakes it up */
+		final ChiefOfStaff self = this;
+		this.leaseClock = new Thread() {
+			public void run() {
+				self.tickLeases();
+			}
+		};
+		this.leaseClock.setDaemon(true);
+		this.leases.setOnFirst(new Runnable() {
+			public void run() {
+				synchronized (self.leases) {
+					self.leases.notifyAll();
+				}
+			}
+		});
 	}
 	
 	/**
@@ -35,6 +71,8 @@ public class ChiefOfStaff extends Thread
 	 */
 	public synchronized void run()
 	{
+		this.poolController.start();
+		this.leaseClock.start();
 		try {
 			while (!Thread.currentThread().isInterrupted()) {
 				this.scan();
@@ -44,6 +82,8 @@ public class ChiefOfStaff extends Thread
 		} catch (InterruptedException e) {
 			/* Allow thread to exit */
 		}
+		this.leaseClock.interrupt();
+		this.poolController.cancel();
 	}
 	
 	/**
@@ -54,69 +94,91 @@ public class ChiefOfStaff extends Thread
 		interrupt();
 	}
 	
+	/* The routine of the lease clock. While shifts work, it interrupts
+	 * the shifts that have overrun their leases on every tick of the
+	 * wheel, and wakes up the COF only if one of them did, to offer the
+	 * hours they didn't work again. Shifts that settle wake it up
+	 * through the board */
+	private void tickLeases()
+	{
+		ArrayList<MissionLease> expired = new ArrayList<MissionLease>(0);
+		
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				synchronized (this.leases) {
+					while (this.leases.isEmpty())
+						this.leases.wait();
+				}
+				Thread.sleep(LEASE_TICK_MILLIS);
+				expired.clear();
+				this.leases.expire(System.currentTimeMillis(), expired);
+				for (MissionLease lease : expired)
+					lease.expire();
+				if (!expired.isEmpty())
+					this.wakeUp();
+			}
+		} catch (InterruptedException e) {
+			/* Allow thread to exit */
+		}
+	}
+	
 	/* Scan the board and add relevant missions to missionHolder */
 	private void scan()
 	{
-		this.missionHolder.addMissions(this.board.exportMissions());
+		ArrayList<Mission> ready = this.board.exportMissions();
+		this.missionHolder.addMissions(ready);
+		Context context = this.warehouse.getContext();
+		if ((ready != null) && (context.hasSubscribers()))
+			for (Mission mission : ready)
+				context.publish(Event.missionReady(mission));
+		this.missionHolder.refresh();
 	}
 	
 	/* Distribute missions to sergeants according to their skills
-	 * and the priority orders.
+	 * and the priority orders. Missions whose items are not in stock
+	 * right now are deferred to a later pass, rather than handed to a
+	 * thread that would only wait for them at the warehouse. A mission
+	 * that has been deferred too long isn't deferred anymore, so a big
+	 * mission isn't starved by the small ones that keep taking its items.
 	 */
 	private void distribute()
 	{
+		AvailabilityView view = this.warehouse.availability();
+		
 		for (Sergeant s : this.sergeants)
 		{	
-			boolean reverse;	/* Signifies if the missions should be
-								   traversed backwards or not */
-			ListIterator<Mission> it;
-			String priorityOrder = s.getPriority();
+			SchedulingPolicy policy = s.getPolicy();
 			synchronized (this.missionHolder) {
-				if (priorityOrder.equals("shortestMission")) {
-					it = this.missionHolder.listIterator('l', false);
-					reverse = false;
-				} else if (priorityOrder.equals("longestMission")) {
-					it = this.missionHolder.listIterator('l', true);
-					reverse = true;
-				} else if (priorityOrder.equals("minItems")) {
-					it = this.missionHolder.listIterator('i', false);
-					reverse = false;
-				} else if (priorityOrder.equals("maxItems")) {
-					it = this.missionHolder.listIterator('i', true);
-					reverse = true;
-				} else {
-					System.err.println("ERROR: Priority order \""
-									       + priorityOrder + "\" is invalid.");
-					return;
-				}
-				
-				while (hasNext(it, reverse)) {
-					Mission mission = next(it, reverse);
-					if (!mission.canBeHanded())
-						continue;
-					if ((mission.getSgt() != null) && (mission.getSgt() != s))
-						continue;
-					if ((s.isAvailable()) && (s.hasSkill(mission.getSkill())))
-						s.handMission(mission);
+				Mission mission = null;
+				while ((s.isAvailable())
+					       && ((mission = policy.nextFor(s, mission)) != null)) {
+					if ((view.hasOutstanding())
+						    && (!view.canSatisfy(mission))) {
+						if (this.defer(mission))
+							continue;
+						/* An aged mission is handed out anyway, and takes
+						   what is free of its items from the view, so the
+						   missions after it can't take them first. At the
+						   warehouse it waits in line, and may only be
+						   backfilled around. It keeps its age for its next
+						   shifts, until it is done */
+					} else {
+						this.deferrals.remove(mission);
+					}
+					view.take(mission);
+					s.handMission(mission);
 				}
 			}
 		}
 	}
 	
-	private boolean hasNext(ListIterator<Mission> it, boolean reverse)
-	{
-		if (reverse)
-			return it.hasPrevious();
-		else
-			return it.hasNext();
-	}
-	
-	private Mission next(ListIterator<Mission> it, boolean reverse)
+	/**
+	 * Sets the clock on which the shifts of the sergeants work.
+	 * @param clock The clock.
+	 */
+	public void setClock(ShiftClock clock)
 	{
-		if (reverse) 
-			return it.previous();
-		else
-			return it.next();
+		this.scheduler.setClock(clock);
 	}
 	
 	/**
@@ -133,39 +195,138 @@ public class ChiefOfStaff extends Thread
 	 */
 	public synchronized void addSgt(Sergeant sgt)
 	{
+		if (this.enlist(sgt))
+			this.notify();
+	}
+	
+	/**
+	 * Adds several sergeants to the sergeants list. The COF is not woken
+	 * up; the caller is expected to call wakeUp once it's done.
+	 * @param sgts The sergeants to be added to the list.
+	 */
+	public synchronized void addSgts(ArrayList<Sergeant> sgts)
+	{
+		for (Sergeant sgt : sgts)
+			this.enlist(sgt);
+	}
+	
+	/* Gives `sgt` its policy and registers it. Returns false if its
+	 * priority order is invalid */
+	private boolean enlist(Sergeant sgt)
+	{
+		SchedulingPolicy policy = this.missionHolder.policyFor(sgt.getPriority());
+		if (policy == null) {
+			System.err.println("ERROR: Priority order \""
+							       + sgt.getPriority() + "\" is invalid.");
+			return false;
+		}
+		sgt.setPolicy(policy);
+		sgt.setLeases(this.leases, this.missionHolder);
 		this.sergeants.add(sgt);
-		maxThreads += sgt.numOfThreads();
-		this.notify();
+		this.scheduler.register(sgt);
+		Context context = this.warehouse.getContext();
+		context.addThreads(sgt.numOfThreads());
+		context.addConcurrency(sgt.getConcurrency());
+		if (context.hasSubscribers())
+			context.publish(Event.sergeantAdded(sgt));
+		this.numOfThreads += sgt.numOfThreads();
+		return true;
+	}
+		
+	/**
+	 * 
+	 * @return A copy of the sergeants list.
+	 */
+	public synchronized ArrayList<Sergeant> getSergeants()
+	{
+		return new ArrayList<Sergeant>(this.sergeants);
 	}
 		
+	/**
+	 * 
+	 * @return The number of threads of the sergeants of this COF.
+	 */
+	public synchronized int numOfThreads()
+	{
+		return this.numOfThreads;
+	}
+	
+	/**
+	 * 
+	 * @param skillId The id of a skill.
+	 * @return True if one of the sergeants has the skill.
+	 */
+	public synchronized boolean hasSkill(int skillId)
+	{
+		for (Sergeant s : this.sergeants)
+			if (s.hasSkill(skillId))
+				return true;
+		return false;
+	}
+	
 	/**
 	 * Prints a list of sergeants, their assigned missions, and 
 	 * the time remaining for completion of each mission.
 	 */
 	public void printSgts()
 	{
-		ArrayList<Mission> assignedMissions;
+		StringBuilder out = new StringBuilder();
+		this.renderSgts(new Query(), out);
+		System.out.print(out);
+	}
+	
+	/**
+	 * Appends a page of the sergeants and their assigned missions.
+	 * @param q The filter and the page.
+	 * @param out The buffer the report is appended to.
+	 */
+	public void renderSgts(Query q, StringBuilder out)
+	{
+		out.append("--SERGEANTS--\n\n");
+		int total = this.renderSgts(q, 0, out);
+		out.append('\n');
+		q.renderRange(out, total);
+	}
+	
+	/**
+	 * Appends the sergeants that are on the page, without a header,
+	 * as part of a report on several boards.
+	 * @param q The filter and the page.
+	 * @param before Number of matching sergeants of the previous boards.
+	 * @param out The buffer the report is appended to.
+	 * @return Number of matching sergeants of this COF.
+	 */
+	public int renderSgts(Query q, int before, StringBuilder out)
+	{
+		ArrayList<Sergeant> page = new ArrayList<Sergeant>(0);
+		int skillId = (q.getSkill() == null) ? -1
+				: this.warehouse.getContext().getSkills().lookup(q.getSkill());
+		int cnt = 0;
 		
-		if (this.sergeants == null) {
-			System.out.println("Sergeants list is empty.\n");
-			return;
+		for (Sergeant s : this.getSergeants()) {
+			if ((q.getSgt() != null) && (!s.getName().equals(q.getSgt())))
+				continue;
+			if ((q.getSkill() != null) && ((skillId < 0) || (!s.hasSkill(skillId))))
+				continue;
+			if (q.inPage(before + cnt))
+				page.add(s);
+			++cnt;
 		}
-		System.out.println("--SERGEANTS--\n");
-		for (Sergeant s : this.sergeants)
-		{
-			System.out.println("--Sgt. "+ s.getName() + "--\n"
-							       + "\tAssigned Missions:");
-			assignedMissions = this.board.getSgtsMissions(s); 
-			
-			if (assignedMissions == null)
-				System.out.println("\t\tNONE.");
-			else 
-				for (Mission m : assignedMissions)
-					System.out.println("\t\t" + m.getName());
-			
-			System.out.println();
+		ArrayList<ArrayList<Mission>> assignedMissions =
+				this.board.getSgtsMissions(page);
+		
+		for (int i = 0; i < page.size(); ++i) {
+			out.append("--Sgt. ").append(page.get(i).getName())
+			   .append("--\n\tAssigned Missions:\n");
+			ArrayList<Mission> missions = assignedMissions.get(i);
+			if (missions.isEmpty())
+				out.append("\t\tNONE.\n");
+			else
+				for (Mission m : missions)
+					out.append("\t\t").append(m.getName()).append('\n');
+			out.append('\n');
 		}
-		System.out.println();
+		return cnt;
 	}
 	
 	/**
@@ -174,8 +335,31 @@ public class ChiefOfStaff extends Thread
 	 */
 	public void deleteFromMissionHolder(Mission mission)
 	{
-		this.missionHolder.remove(mission);
-		
+		synchronized (this.missionHolder) {
+			this.missionHolder.remove(mission);
+			this.deferrals.remove(mission);
+		}
+	}
+	
+	/* Counts a deferral of `mission`, whose items aren't free. Returns
+	 * false if it is the mission that has been deferred the longest, and
+	 * it has been deferred MAX_DEFERRALS times or for MAX_DEFER_MILLIS,
+	 * so it shouldn't be deferred anymore. Like the first in line at the
+	 * warehouse, only that mission is protected, so the missions that
+	 * came after it can't overtake it by aging too. Called with the
+	 * Mission Holder locked */
+	private boolean defer(Mission mission)
+	{
+		long now = System.currentTimeMillis();
+		Deferral d = this.deferrals.get(mission);
+		if (d == null) {
+			d = new Deferral(now);
+			this.deferrals.put(mission, d);
+		}
+		++d.count;
+		if (this.deferrals.keySet().iterator().next() != mission)
+			return true;
+		return (d.count <= MAX_DEFERRALS) && (now - d.since < MAX_DEFER_MILLIS);
 	}
 	
 	/**
@@ -201,13 +385,67 @@ public class ChiefOfStaff extends Thread
 		}
 	}
 	/**
-	 * Terminates the sergeants.
+	 * Terminates the sergeants at once, with those of the other boards,
+	 * whose shifts are executed by the same scheduler. Queued shifts are
+	 * discarded, shifts that wait for items end, and all the running
+	 * shifts are cut short together; they return their items and record
+	 * the hours they have worked so far.
+	 * @return The time the shutdown took in milliseconds.
 	 */
-	public void shutDownSgts()
+	public long shutDownSgts()
 	{
-		for (Sergeant s : this.sergeants) {
-			s.clearQueue();
-			this.shutdownAndAwaitTermination(s.getPool());
+		long start = System.currentTimeMillis();
+		ExecutorService pool = this.scheduler.getPool();
+		
+		this.scheduler.shutdown(); /* Also clears the queues */
+		this.warehouse.cancelBorrows();
+		/* The threads never wait, so the tasks they have end soon */
+		pool.shutdown();
+		try {
+			if (!pool.awaitTermination(SECS_WAIT_TERMINATION, TimeUnit.SECONDS))
+				System.err.println("Pool did not terminate");
+		} catch (InterruptedException ie) {
+			/* Preserve interrupt status */
+			Thread.currentThread().interrupt();
+		}
+		return System.currentTimeMillis() - start;
+	}
+	
+	/**
+	 * Terminates the sergeants, with those of the other boards, after the
+	 * shifts that are already queued have ended. No new shifts are
+	 * accepted meanwhile.
+	 * @return The time the shutdown took in milliseconds.
+	 */
+	public long drainSgts()
+	{
+		long start = System.currentTimeMillis();
+		
+		this.scheduler.drain();
+		try {
+			if (!this.scheduler.awaitDrained(SECS_WAIT_TERMINATION * 1000L))
+				System.err.println("Shifts did not drain");
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+		}
+		this.scheduler.shutdown();
+		this.shutdownAndAwaitTermination(this.scheduler.getPool());
+		return System.currentTimeMillis() - start;
+	}
+	
+	/* Nested classes */
+	
+	/*
+	 * How long a mission has been deferred for.
+	 */
+	class Deferral
+	{
+		int 	count;	/* Of the times it was deferred */
+		long 	since;	/* When it was first deferred */
+		
+		Deferral(long since_) {
+			this.count = 0;
+			this.since = since_;
 		}
 	}
 }
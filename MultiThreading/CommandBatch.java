@@ -0,0 +1,221 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A block of addMission, addSergeant and addItem commands that is
+ * applied as one transaction: all the lines are parsed and checked
+ * first, and only if all of them are valid they are applied, with a
+ * single wakeup of every Chief Of Staff whose board gets missions. A prerequisite of a mission in
+ * the batch may be a mission on the board or one from an earlier line.
+ * Empty lines and lines that start with '#' are skipped.
+ */
+public class CommandBatch
+{
+	private Shards 				 shards;
+	private Warehouse 			 warehouse;
+	private ArrayList<MissionLine> missions;
+	private ArrayList<SergeantSpec> sgts;
+	private ArrayList<Item> 	 items;
+	private HashMap<String, MissionLine> byName; /* Missions of the batch */
+	private int 				 numOfLines;
+	private int 				 numOfErrors;
+
+	/**
+	 * Constructs an empty batch.
+	 * @param shards_ The boards and their Chiefs Of Staff.
+	 */
+	public CommandBatch(Shards shards_)
+	{
+		this.shards = shards_;
+		this.warehouse = shards_.getWarehouse();
+		this.missions = new ArrayList<MissionLine>(0);
+		this.sgts = new ArrayList<SergeantSpec>(0);
+		this.items = new ArrayList<Item>(0);
+		this.byName = new HashMap<String, MissionLine>();
+		this.numOfLines = 0;
+		this.numOfErrors = 0;
+	}
+
+	/**
+	 * Adds the lines of `in` to the batch, until the end of the input
+	 * or a line that reads "end".
+	 * @param in The input.
+	 * @throws IOException If the input can't be read.
+	 */
+	public void read(BufferedReader in) throws IOException
+	{
+		String line;
+		while (((line = in.readLine()) != null) && (!line.trim().equals("end")))
+			this.add(line);
+	}
+
+	/**
+	 * Parses a line and adds it to the batch.
+	 * @param line The command line.
+	 * @return False if the line is invalid.
+	 */
+	public boolean add(String line)
+	{
+		Tokenizer t = new Tokenizer(line);
+		String command = t.next();
+
+		++this.numOfLines;
+		if ((command == null) || (command.startsWith("#")))
+			return true;
+
+		try {
+			if (command.equals("addMission"))
+				return this.parseMission(t);
+			if (command.equals("addSergeant"))
+				return this.parseSergeant(t);
+			if (command.equals("addItem")) {
+				String name = t.next();
+				int amount = t.nextInt();
+				if (name != null) {
+					this.items.add(new Item(name, amount));
+					return true;
+				}
+			} else {
+				return this.error("Unknown command \"" + command + "\".");
+			}
+		} catch (NumberFormatException e) {
+			/* Reported below */
+		}
+		return this.error("\"" + line.trim() + "\" is malformed.");
+	}
+
+	/* Parses "name skill time, items and amounts, prerequisites" */
+	private boolean parseMission(Tokenizer t)
+	{
+		String name = t.next();
+		String skill = t.next();
+		int time = t.nextInt();
+		if ((name == null) || (skill == null) || (!t.nextField()))
+			throw new NumberFormatException();
+
+		ArrayList<Item> missionItems = new ArrayList<Item>(0);
+		String item;
+		while ((item = t.next()) != null)
+			Utils.addInOrder(missionItems, new Item(item, t.nextInt()));
+
+		ArrayList<String> pres = new ArrayList<String>(0);
+		if (t.nextField()) {
+			String pre;
+			while ((pre = t.next()) != null) {
+				if ((!this.byName.containsKey(pre))
+				        && (this.shards.findMission(pre) == null))
+					return this.error("Mission \"" + pre + "\" doesn't exist.");
+				pres.add(pre);
+			}
+		}
+		if ((this.byName.containsKey(name)) || (this.shards.findMission(name) != null))
+			return this.error("Mission \"" + name + "\" already exists.");
+
+		MissionLine m = new MissionLine(new Mission(name, missionItems, skill, time,
+													this.warehouse.getContext()),
+										pres);
+		this.missions.add(m);
+		this.byName.put(name, m);
+		return true;
+	}
+
+	/* Parses "name threads maxMissions, skills, workHours priorityOrder" */
+	private boolean parseSergeant(Tokenizer t)
+	{
+		String name = t.next();
+		int numOfThreads = t.nextInt();
+		int maxMissions = t.nextInt();
+		if ((name == null) || (!t.nextField()))
+			throw new NumberFormatException();
+
+		ArrayList<String> skills = new ArrayList<String>(0);
+		String skill;
+		while ((skill = t.next()) != null)
+			skills.add(skill);
+		if (!t.nextField())
+			throw new NumberFormatException();
+
+		int workHours = t.nextInt();
+		String priorityOrder = t.next();
+		if (priorityOrder == null)
+			throw new NumberFormatException();
+		if (SortedPolicy.create(priorityOrder) == null)
+			return this.error("Priority order \"" + priorityOrder + "\" is invalid.");
+
+		this.sgts.add(new SergeantSpec(name, numOfThreads, maxMissions,
+									   workHours, skills, priorityOrder));
+		return true;
+	}
+
+	/* Reports an error in the current line */
+	private boolean error(String message)
+	{
+		System.err.println("ERROR: Line " + this.numOfLines + ": " + message);
+		++this.numOfErrors;
+		return false;
+	}
+
+	/**
+	 * Applies the batch, unless one of its lines was invalid: items are
+	 * added first, then sergeants and then missions, and the Chief Of
+	 * Staff is woken up once.
+	 * @return Number of commands applied, or -1 if nothing was applied.
+	 */
+	public int apply()
+	{
+		if (this.numOfErrors > 0) {
+			System.err.println("ERROR: The batch has " + this.numOfErrors
+							       + " invalid lines, nothing was applied.");
+			return -1;
+		}
+
+		for (Item item : this.items)
+			this.warehouse.addItem(item.getName(), item.getAmount());
+
+		this.shards.addSgts(this.sgts);
+
+		ArrayList<Mission> newMissions = new ArrayList<Mission>(this.missions.size());
+		for (MissionLine m : this.missions) {
+			for (String preName : m.pres) {
+				MissionLine local = this.byName.get(preName);
+				Mission pre = (local != null) ? local.mission
+						: this.shards.findMission(preName);
+				if ((local != null) || (pre.getStatus() != Status.DONE))
+					m.mission.addPre(pre);
+			}
+			newMissions.add(m.mission);
+		}
+
+		/* Wakes up the COFs of the boards that get missions, and all
+		   of them if there are new sergeants */
+		int added = this.shards.addMissions(newMissions);
+		if ((newMissions.isEmpty()) || (!this.sgts.isEmpty()))
+			this.shards.wakeUp();
+
+		return this.items.size() + this.sgts.size() + added;
+	}
+
+	/* Nested classes */
+
+	/*
+	 * A mission of the batch and the names of its prerequisites.
+	 */
+	class MissionLine
+	{
+		Mission 		  mission;
+		ArrayList<String> pres;
+
+		MissionLine(Mission mission_, ArrayList<String> pres_) {
+			this.mission = mission_;
+			this.pres = pres_;
+		}
+	}
+}
@@ -0,0 +1,339 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.FileHandler;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+
+/**
+ * The state that a simulation doesn't share with any other in the same
+ * JVM: its name, its log, the ids of its item and skill names, its
+ * counters, the publisher of its events, the future of its completion,
+ * the pool its what-if runs and its event deliveries go on, and the
+ * scheduler that executes the shifts of all its boards. The board, the
+ * warehouse, the sergeants and the shifts of a simulation are all given
+ * the same context.
+ */
+public class Context
+{
+	private final String 		name;
+	private final Logger 		logger;
+	private final Interner 		items;		/* Ids of item names */
+	private final Interner 		skills;		/* Ids of skill names */
+	private final AtomicInteger threads;	/* Of all the sergeants */
+	private final AtomicInteger concurrency; /* Sum of the sergeants' concurrencies */
+	private final AtomicLong 	shiftsStarted;
+	private final AtomicLong 	shiftsEnded;
+	private final AtomicLong 	missionsDone;
+	private final ForkJoinPool 	pool;
+	private final SharedScheduler scheduler;
+	private final EventPublisher events;
+	private final CompletableFuture<Context> completion;
+
+	/**
+	 * Constructs a context whose log records FINE messages, but has no
+	 * handler of its own yet. A subscriber to its events may fall behind
+	 * by Flow.defaultBufferSize() events, and loses the newer ones.
+	 * @param name_ The name of the simulation.
+	 */
+	public Context(String name_)
+	{
+		this(name_, Flow.defaultBufferSize(), EventPublisher.Overflow.DROP_NEWEST);
+	}
+
+	/**
+	 * Constructs a context whose log records FINE messages, but has no
+	 * handler of its own yet.
+	 * @param name_ The name of the simulation.
+	 * @param bufferSize The events a subscriber may fall behind by.
+	 * @param overflow What happens to the events of a subscriber that
+	 * falls further behind.
+	 */
+	public Context(String name_, int bufferSize,
+				   EventPublisher.Overflow overflow)
+	{
+		this.name = name_;
+		/* An anonymous logger isn't kept by the LogManager, so two
+		   contexts never share a logger */
+		this.logger = Logger.getAnonymousLogger();
+		this.logger.setLevel(Level.FINE);
+		this.items = new Interner();
+		this.skills = new Interner();
+		this.threads = new AtomicInteger(0);
+		this.concurrency = new AtomicInteger(0);
+		this.shiftsStarted = new AtomicLong(0);
+		this.shiftsEnded = new AtomicLong(0);
+		this.missionsDone = new AtomicLong(0);
+		this.pool = new ForkJoinPool();
+		this.scheduler = new SharedScheduler(
+				Runtime.getRuntime().availableProcessors());
+		this.events = new EventPublisher(this.pool, bufferSize, overflow);
+		this.completion = new CompletableFuture<Context>();
+	}
+
+	/**
+	 * Writes the log to a file.
+	 * @param path The path of the file.
+	 * @throws IOException If the file can't be created.
+	 */
+	public void logTo(String path) throws IOException
+	{
+		FileHandler handler = new FileHandler(path);
+		handler.setFormatter(new SimpleFormatter());
+		handler.setLevel(Level.FINE);
+		this.logger.addHandler(handler);
+	}
+
+	/**
+	 *
+	 * @return The name of the simulation.
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 *
+	 * @return The log of the simulation.
+	 */
+	public Logger getLogger()
+	{
+		return this.logger;
+	}
+
+	/**
+	 *
+	 * @return The ids of the item names of the simulation.
+	 */
+	public Interner getItems()
+	{
+		return this.items;
+	}
+
+	/**
+	 *
+	 * @return The ids of the skill names of the simulation.
+	 */
+	public Interner getSkills()
+	{
+		return this.skills;
+	}
+
+	/**
+	 * Logs a message on the FINE level.
+	 * @param msg The message.
+	 */
+	public void log(String msg)
+	{
+		this.logger.fine(msg);
+	}
+
+	/**
+	 * Counts the threads of a sergeant that has joined.
+	 * @param n The number of threads.
+	 */
+	public void addThreads(int n)
+	{
+		this.threads.addAndGet(n);
+	}
+
+	/**
+	 *
+	 * @return The threads of all the sergeants.
+	 */
+	public int getThreads()
+	{
+		return this.threads.get();
+	}
+
+	/**
+	 * Counts a change in the concurrency of a sergeant.
+	 * @param n The number of shifts the sergeant may now run at once
+	 * in addition to before, negative if it was shrunk.
+	 */
+	public void addConcurrency(int n)
+	{
+		this.concurrency.addAndGet(n);
+	}
+
+	/**
+	 * Reserves one thread of the budget for a sergeant that is about to
+	 * be grown. The sum of the concurrencies of all the sergeants, on all
+	 * the boards, never exceeds the threads of all the sergeants.
+	 * @return True if the thread was reserved, false if the budget is
+	 * used up.
+	 */
+	public boolean reserveConcurrency()
+	{
+		for (;;) {
+			int used = this.concurrency.get();
+			if (used >= this.threads.get())
+				return false;
+			if (this.concurrency.compareAndSet(used, used + 1))
+				return true;
+		}
+	}
+
+	/**
+	 *
+	 * @return The sum of the concurrencies of all the sergeants.
+	 */
+	public int getConcurrency()
+	{
+		return this.concurrency.get();
+	}
+
+	/**
+	 * Counts a shift that holds its items and starts working.
+	 */
+	public void shiftStarted()
+	{
+		this.shiftsStarted.incrementAndGet();
+	}
+
+	/**
+	 * Counts a shift that has ended.
+	 */
+	public void shiftEnded()
+	{
+		this.shiftsEnded.incrementAndGet();
+	}
+
+	/**
+	 * Counts a mission that is done.
+	 */
+	public void missionDone()
+	{
+		this.missionsDone.incrementAndGet();
+	}
+
+	/**
+	 *
+	 * @return A count that grows whenever a shift starts or ends.
+	 */
+	public long getProgress()
+	{
+		return this.shiftsStarted.get() + this.shiftsEnded.get();
+	}
+
+	/**
+	 *
+	 * @return True if some shift has started and hasn't ended.
+	 */
+	public boolean hasShiftsWorking()
+	{
+		return this.shiftsStarted.get() > this.shiftsEnded.get();
+	}
+
+	/**
+	 * Publishes an event. Never blocks: a subscriber whose buffer is
+	 * full is dealt with by its overflow policy.
+	 * @param event The event.
+	 */
+	public void publish(Event event)
+	{
+		if (this.events.hasSubscribers())
+			this.events.publish(event);
+	}
+
+	/**
+	 * Lets the threads of the shifts skip making events no one takes.
+	 * @return True if anyone is subscribed to the events.
+	 */
+	public boolean hasSubscribers()
+	{
+		return this.events.hasSubscribers();
+	}
+
+	/**
+	 *
+	 * @return The publisher of the events of the simulation.
+	 */
+	public EventPublisher getEvents()
+	{
+		return this.events;
+	}
+
+	/**
+	 * Records that all the missions are done: the completion is
+	 * completed, once.
+	 */
+	public void allDone()
+	{
+		this.log("All objectives have been achieved.");
+		this.completion.complete(this);
+	}
+
+	/**
+	 *
+	 * @return The future that is completed once all the missions are done.
+	 */
+	public CompletableFuture<Context> getCompletion()
+	{
+		return this.completion;
+	}
+
+	/**
+	 *
+	 * @return The pool that the what-if runs of the simulation and the
+	 * deliveries of its events go on.
+	 */
+	public ForkJoinPool getPool()
+	{
+		return this.pool;
+	}
+
+	/**
+	 *
+	 * @return The scheduler that executes the shifts of the simulation,
+	 * which has a thread per core.
+	 */
+	public SharedScheduler getScheduler()
+	{
+		return this.scheduler;
+	}
+
+	/**
+	 * Closes the publisher of the events, shuts the pools down, and
+	 * closes the handlers of the log.
+	 */
+	public void shutdown()
+	{
+		this.events.close();
+		this.pool.shutdown();
+		this.scheduler.getPool().shutdown();
+		for (Handler handler : this.logger.getHandlers())
+			handler.close();
+	}
+
+	/**
+	 * Appends the counters of the simulation.
+	 * @param out The buffer the statistics are appended to.
+	 */
+	public void renderStats(StringBuilder out)
+	{
+		out.append("--RUN--\n\n")
+		   .append("Simulation:\t").append(this.name)
+		   .append("\nSergeant threads:\t").append(this.threads.get())
+		   .append(" (").append(this.concurrency.get()).append(" in use)")
+		   .append("\nShifts started:\t").append(this.shiftsStarted.get())
+		   .append("\nShifts ended:\t").append(this.shiftsEnded.get())
+		   .append("\nMissions done:\t").append(this.missionsDone.get())
+		   .append("\nEvents:\t").append(this.events.getPublished())
+		   .append(" published, ").append(this.events.getDropped())
+		   .append(" dropped, ").append(this.events.numOfSubscribers())
+		   .append(" subscribers\n\n");
+	}
+}
@@ -0,0 +1,461 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A small HTTP server on a loopback port, through which the system can
+ * be queried and controlled by other programs. A single selector thread
+ * does the I/O of all the connections. Once a request is whole, it is
+ * served by a small pool of handler threads, each of which renders into
+ * a buffer of its own under the same locks as the Observer commands,
+ * and the response is queued back to the selector. A large report, or a
+ * batch that waits for the boards, thus holds up only its own client,
+ * and clients never hold up the simulation threads for more than a
+ * report.
+ *
+ * 	GET  /missions/complete		The complete missions
+ * 	GET  /missions/incomplete	The incomplete missions
+ * 	GET  /sergeants				The sergeants and their missions
+ * 	GET  /warehouse				The items and their holders
+ * 	GET  /stats					The statistics
+ * 	POST /commands				A batch of addMission, addSergeant and
+ * 								addItem lines, as a CommandBatch
+ * 	POST /stop					Terminates the system (/stop?drain=true
+ * 								runs the queued shifts first)
+ *
+ * The reports take the words of a Query as URL parameters, e.g.
+ * /missions/incomplete?limit=20&amp;skill=driving. Every response closes
+ * its connection.
+ */
+public class ControlServer extends Thread
+{
+	public static final int MAX_REQUEST = 1 << 20;
+	public static final int HANDLERS = 4;
+
+	private Shards 				shards;
+	private Warehouse 			warehouse;
+	private Observer 			observer;
+	private Selector 			selector;
+	private ServerSocketChannel channel;
+	private ExecutorService 	handlers;
+	/* Reused by every response of a handler thread */
+	private ThreadLocal<StringBuilder> out;
+	/* Connections whose responses are ready to be written */
+	private ConcurrentLinkedQueue<Connection> responses;
+
+	/**
+	 * Constructs a server that listens on a loopback port. The server
+	 * starts serving when the thread is started.
+	 * @param shards_ The boards and their Chiefs Of Staff.
+	 * @param observer_ The Observer, which terminates the system.
+	 * @param port The port, or 0 for any free port.
+	 * @throws IOException If the port can't be bound.
+	 */
+	public ControlServer(Shards shards_, Observer observer_, int port)
+			throws IOException
+	{
+		this.shards = shards_;
+		this.warehouse = shards_.getWarehouse();
+		this.observer = observer_;
+		this.handlers = Executors.newFixedThreadPool(HANDLERS, new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "control-handler");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		this.out = new ThreadLocal<StringBuilder>() {
+			protected StringBuilder initialValue() {
+				return new StringBuilder(4096);
+			}
+		};
+		this.responses = new ConcurrentLinkedQueue<Connection>();
+
+		this.selector = Selector.open();
+		this.channel = ServerSocketChannel.open();
+		this.channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+		this.channel.configureBlocking(false);
+		this.channel.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.setDaemon(true);
+	}
+
+	/**
+	 *
+	 * @return The port the server listens on.
+	 */
+	public int getPort()
+	{
+		return this.channel.socket().getLocalPort();
+	}
+
+	/**
+	 * The routine of the server.
+	 */
+	public void run()
+	{
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				this.selector.select();
+				this.sendResponses();
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid())
+							continue;
+						if (key.isAcceptable())
+							this.accept();
+						else if (key.isReadable())
+							this.read(key);
+						else if (key.isWritable())
+							this.write(key);
+					} catch (IOException e) {
+						/* The client went away */
+						drop(key);
+					} catch (RuntimeException e) {
+						/* Only this connection is lost */
+						System.err.println("ERROR: Control request failed: " + e);
+						drop(key);
+					}
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("ERROR: Control server failed: " + e.getMessage());
+		} finally {
+			this.close();
+		}
+	}
+
+	/**
+	 * Terminates the server.
+	 */
+	public void cancel()
+	{
+		interrupt();
+		this.handlers.shutdownNow();
+		this.selector.wakeup();
+	}
+
+	/* Closes the selector and all the connections */
+	private void close()
+	{
+		this.handlers.shutdownNow();
+		try {
+			for (SelectionKey key : this.selector.keys())
+				key.channel().close();
+			this.selector.close();
+		} catch (IOException e) {
+			/* Nothing left to do */
+		}
+	}
+
+	/* Closes the connection of `key` */
+	private static void drop(SelectionKey key)
+	{
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			/* Nothing left to do */
+		}
+	}
+
+	/* Accepts a new connection */
+	private void accept() throws IOException
+	{
+		SocketChannel client = this.channel.accept();
+		if (client == null)
+			return;
+		client.configureBlocking(false);
+		Connection conn = new Connection();
+		conn.key = client.register(this.selector, SelectionKey.OP_READ, conn);
+	}
+
+	/* Reads from a connection, and responds once the request is whole */
+	private void read(SelectionKey key) throws IOException
+	{
+		Connection conn = (Connection) key.attachment();
+		SocketChannel client = (SocketChannel) key.channel();
+
+		if (!conn.in.hasRemaining()) {
+			if (conn.in.capacity() >= MAX_REQUEST) {
+				this.respond(conn, 413, "Request is too large.\n");
+				this.send(key);
+				return;
+			}
+			ByteBuffer grown = ByteBuffer.allocate(2*conn.in.capacity());
+			conn.in.flip();
+			grown.put(conn.in);
+			conn.in = grown;
+		}
+		if (client.read(conn.in) < 0) {
+			key.cancel();
+			client.close();
+			return;
+		}
+
+		String request = new String(conn.in.array(), 0, conn.in.position(),
+									StandardCharsets.ISO_8859_1);
+		int headerEnd = request.indexOf("\r\n\r\n");
+		if (headerEnd < 0)
+			return;
+		int length = contentLength(request.substring(0, headerEnd));
+		if ((length < 0) || (length > MAX_REQUEST)) {
+			this.respond(conn, 400, "Invalid Content-Length.\n");
+			this.send(key);
+			return;
+		}
+		if (conn.in.position() < headerEnd + 4 + length)
+			return;
+
+		conn.requestLine = request.substring(0, request.indexOf("\r\n"));
+		conn.body = new String(conn.in.array(), headerEnd + 4, length,
+							   StandardCharsets.UTF_8);
+		/* Nothing more is read; the connection waits for its response */
+		key.interestOps(0);
+		final ControlServer self = this;
+		final Connection conn_ = conn;
+		try {
+			this.handlers.execute(new Runnable() {
+				public void run() {
+					self.serve(conn_);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			/* The server is shutting down */
+			drop(key);
+		}
+	}
+
+	/* Serves `conn` on a handler thread, and queues its response to the
+	 * selector */
+	private void serve(Connection conn)
+	{
+		StringBuilder out_ = this.out.get();
+		out_.setLength(0);
+		try {
+			this.handle(conn, out_);
+		} catch (IOException e) {
+			System.err.println("ERROR: Control request failed: " + e);
+			this.respond(conn, 500, "Request failed.\n");
+		} catch (RuntimeException e) {
+			System.err.println("ERROR: Control request failed: " + e);
+			this.respond(conn, 500, "Request failed.\n");
+		}
+		/* The queue publishes the response to the selector */
+		this.responses.add(conn);
+		this.selector.wakeup();
+	}
+
+	/* Starts writing the responses that the handlers have queued */
+	private void sendResponses()
+	{
+		Connection conn;
+		while ((conn = this.responses.poll()) != null) {
+			if (!conn.key.isValid())
+				continue;
+			try {
+				this.send(conn.key);
+			} catch (IOException e) {
+				/* The client went away */
+				drop(conn.key);
+			}
+		}
+	}
+
+	/* Returns the Content-Length of a request, 0 if it has none, or -1
+	 * if it isn't a number */
+	private static int contentLength(String headers)
+	{
+		for (String header : headers.split("\r\n")) {
+			int colon = header.indexOf(':');
+			if ((colon > 0)
+			        && (header.substring(0, colon).trim().equalsIgnoreCase("Content-Length"))) {
+				try {
+					return Integer.parseInt(header.substring(colon + 1).trim());
+				} catch (NumberFormatException e) {
+					return -1;
+				}
+			}
+		}
+		return 0;
+	}
+
+	/* Serves the request of `conn`, rendering into `out_` */
+	private void handle(Connection conn, StringBuilder out_) throws IOException
+	{
+		String[] words = conn.requestLine.split(" ");
+		if (words.length < 2) {
+			this.respond(conn, 400, "Malformed request.\n");
+			return;
+		}
+		String method = words[0];
+		String target = words[1];
+		int question = target.indexOf('?');
+		String path = (question < 0) ? target : target.substring(0, question);
+		String[] params = (question < 0) ? new String[0]
+				: target.substring(question + 1).split("&");
+		for (int i = 0; i < params.length; ++i)
+			params[i] = decode(params[i]);
+
+		if (method.equals("GET")) {
+			if (path.equals("/stats")) {
+				this.shards.renderStats(out_);
+				this.warehouse.renderStats(out_);
+				this.shards.getContext().renderStats(out_);
+				this.respond(conn, 200, out_);
+				return;
+			}
+			Query q = Query.parse(params, 0);
+			if (q == null) {
+				this.respond(conn, 400, "Invalid query.\n");
+				return;
+			}
+			if (path.equals("/missions/complete"))
+				this.shards.renderCompleteMissions(q, out_);
+			else if (path.equals("/missions/incomplete"))
+				this.shards.renderIncompleteMissions(q, out_);
+			else if (path.equals("/sergeants"))
+				this.shards.renderSgts(q, out_);
+			else if (path.equals("/warehouse"))
+				this.warehouse.renderWarehouse(q, out_);
+			else {
+				this.respond(conn, 404, "No such report.\n");
+				return;
+			}
+			this.respond(conn, 200, out_);
+		} else if (method.equals("POST")) {
+			if (path.equals("/commands")) {
+				CommandBatch batch = new CommandBatch(this.shards);
+				batch.read(new BufferedReader(new StringReader(conn.body)));
+				int applied = batch.apply();
+				if (applied < 0)
+					this.respond(conn, 400, "Invalid batch, nothing was applied.\n");
+				else
+					this.respond(conn, 200, "Batch applied: " + applied
+										    + " commands.\n");
+			} else if (path.equals("/stop")) {
+				final boolean drain = (params.length > 0)
+						&& (params[0].equals("drain=true"));
+				/* Termination waits for the shifts, so it must not
+				   hold up this thread */
+				new Thread() {
+					public void run() {
+						observer.terminate(drain);
+					}
+				}.start();
+				this.respond(conn, 202, "System is terminating.\n");
+			} else {
+				this.respond(conn, 404, "No such command.\n");
+			}
+		} else {
+			this.respond(conn, 405, "Method is not allowed.\n");
+		}
+	}
+
+	/* Decodes a URL parameter */
+	private static String decode(String param)
+	{
+		try {
+			return URLDecoder.decode(param, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return param;
+		} catch (IllegalArgumentException e) {
+			return param;
+		}
+	}
+
+	/* Sets the response of a connection */
+	private void respond(Connection conn, int status, CharSequence text)
+	{
+		byte[] body = text.toString().getBytes(StandardCharsets.UTF_8);
+		String head = "HTTP/1.1 " + status + " " + reason(status) + "\r\n"
+					  + "Content-Type: text/plain; charset=utf-8\r\n"
+					  + "Content-Length: " + body.length + "\r\n"
+					  + "Connection: close\r\n\r\n";
+		byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+
+		conn.response = ByteBuffer.allocate(headBytes.length + body.length);
+		conn.response.put(headBytes).put(body).flip();
+	}
+
+	/* Switches a connection whose response is set to writing */
+	private void send(SelectionKey key) throws IOException
+	{
+		key.interestOps(SelectionKey.OP_WRITE);
+		this.write(key);
+	}
+
+	/* Writes as much of the response as the socket takes */
+	private void write(SelectionKey key) throws IOException
+	{
+		Connection conn = (Connection) key.attachment();
+		SocketChannel client = (SocketChannel) key.channel();
+
+		client.write(conn.response);
+		if (!conn.response.hasRemaining()) {
+			key.cancel();
+			client.close();
+		}
+	}
+
+	/* Returns the reason phrase of an HTTP status */
+	private static String reason(int status)
+	{
+		switch (status) {
+			case 200: return "OK";
+			case 202: return "Accepted";
+			case 400: return "Bad Request";
+			case 404: return "Not Found";
+			case 405: return "Method Not Allowed";
+			case 413: return "Payload Too Large";
+			case 500: return "Internal Server Error";
+			default:  return "Error";
+		}
+	}
+
+	/* Nested classes */
+
+	/*
+	 * The state of a client connection.
+	 */
+	class Connection
+	{
+		SelectionKey 		key;
+		ByteBuffer 			in;
+		String 				requestLine;	/* Set once the request */
+		String 				body;			/* is whole */
+		ByteBuffer 			response;
+
+		Connection() {
+			this.key = null;
+			this.in = ByteBuffer.allocate(1024);
+			this.requestLine = null;
+			this.body = null;
+			this.response = null;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+
+/**
+ * Accepts connections of worker processes (see Worker). Every worker
+ * joins the system as a sergeant whose shifts are leased to it: the
+ * coordinator keeps the boards, the Mission Holders and the warehouse,
+ * borrows the items of a shift, and the worker only works the hours.
+ *
+ * The protocol is binary (DataInputStream/DataOutputStream), and every
+ * message starts with a type byte:
+ * 	HELLO		worker: name, threads, maxMissions, workHours, priority
+ * 				order, number of skills and the skills
+ * 	DONE		worker: count, then lease id (long) and hours (int) each
+ * 	HEARTBEAT	worker: nothing
+ * 	LEASES		coordinator: count, then lease id (long), mission id (int)
+ * 				and hours (int) each
+ * 	CANCEL		coordinator: lease id
+ */
+public class Coordinator extends Thread
+{
+	public static final byte HELLO = 1;
+	public static final byte DONE = 2;
+	public static final byte HEARTBEAT = 3;
+	public static final byte LEASES = 10;
+	public static final byte CANCEL = 11;
+
+	public static final int HEARTBEAT_MILLIS = 1000;
+	/* A worker that has been silent for this long is considered dead */
+	public static final int HEARTBEAT_TIMEOUT_MILLIS = 3 * HEARTBEAT_MILLIS;
+
+	private Shards 				  shards;
+	private ServerSocket 		  server;
+	private ArrayList<WorkerLink> links;
+
+	/**
+	 * Constructs a coordinator that listens on a port.
+	 * @param shards_ The boards and their Chiefs Of Staff.
+	 * @param port The port, or 0 for any free port.
+	 * @param bindAddress The address to listen on, or null for loopback.
+	 * @throws IOException If the port can't be bound.
+	 */
+	public Coordinator(Shards shards_, int port, String bindAddress)
+			throws IOException
+	{
+		this.shards = shards_;
+		this.links = new ArrayList<WorkerLink>(0);
+		this.server = new ServerSocket();
+		this.server.bind(new InetSocketAddress(
+				(bindAddress == null) ? InetAddress.getLoopbackAddress()
+									  : InetAddress.getByName(bindAddress),
+				port));
+		this.setDaemon(true);
+	}
+
+	/**
+	 *
+	 * @return The port the coordinator listens on.
+	 */
+	public int getPort()
+	{
+		return this.server.getLocalPort();
+	}
+
+	/**
+	 * The routine of the coordinator.
+	 */
+	public void run()
+	{
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Socket socket = this.server.accept();
+				WorkerLink link = new WorkerLink(socket, this.shards, this);
+				synchronized (this) {
+					this.links.add(link);
+				}
+				link.start();
+			}
+		} catch (IOException e) {
+			/* The server socket was closed */
+		}
+	}
+
+	/**
+	 * Forgets a link that has closed. Called by the link.
+	 * @param link The link.
+	 */
+	public synchronized void linkClosed(WorkerLink link)
+	{
+		this.links.remove(link);
+	}
+
+	/**
+	 * Stops accepting workers and disconnects the connected ones.
+	 */
+	public void cancel()
+	{
+		ArrayList<WorkerLink> open;
+
+		interrupt();
+		try {
+			this.server.close();
+		} catch (IOException e) {
+			/* Nothing left to do */
+		}
+		/* Closed links remove themselves from the list */
+		synchronized (this) {
+			open = new ArrayList<WorkerLink>(this.links);
+		}
+		for (WorkerLink link : open)
+			link.close();
+	}
+}
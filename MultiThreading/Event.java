@@ -0,0 +1,220 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+
+/**
+ * Something that happened in a simulation, as it's published to the
+ * subscribers of its context. Events are immutable, and refer to
+ * missions and sergeants by name, so they can be kept after the
+ * simulation has moved on.
+ */
+public class Event
+{
+	/**
+	 * The kinds of events.
+	 */
+	public enum Kind
+	{
+		MISSION_READY,
+		SHIFT_STARTED,
+		SHIFT_ENDED,
+		MISSION_DONE,
+		ITEM_BORROWED,
+		ITEM_RETURNED,
+		SERGEANT_ADDED
+	}
+
+	private final Kind 	 kind;
+	private final long 	 millis;	/* System.currentTimeMillis() */
+	private final String mission;
+	private final String sgt;
+	private final int 	 hours;
+	private final String item;
+	private final int 	 amount;	/* Units of the item, or threads */
+
+	private Event(Kind kind_, String mission_, String sgt_, int hours_,
+				  String item_, int amount_)
+	{
+		this.kind = kind_;
+		this.millis = System.currentTimeMillis();
+		this.mission = mission_;
+		this.sgt = sgt_;
+		this.hours = hours_;
+		this.item = item_;
+		this.amount = amount_;
+	}
+
+	/**
+	 * Creates the event of a mission whose prerequisites are done, and
+	 * which is offered to the sergeants.
+	 * @param mission The mission.
+	 * @return The event.
+	 */
+	public static Event missionReady(Mission mission)
+	{
+		return new Event(Kind.MISSION_READY, mission.getName(), null,
+						 mission.timeLeft(), null, 0);
+	}
+
+	/**
+	 * Creates the event of a shift that holds its items and starts
+	 * working.
+	 * @param mission The mission of the shift.
+	 * @param sgt The sergeant of the shift.
+	 * @param hours The hours of the shift.
+	 * @return The event.
+	 */
+	public static Event shiftStarted(Mission mission, Sergeant sgt, int hours)
+	{
+		return new Event(Kind.SHIFT_STARTED, mission.getName(), sgt.getName(),
+						 hours, null, 0);
+	}
+
+	/**
+	 * Creates the event of a shift that has ended.
+	 * @param mission The mission of the shift.
+	 * @param sgt The sergeant of the shift.
+	 * @param hours The hours that were worked.
+	 * @return The event.
+	 */
+	public static Event shiftEnded(Mission mission, Sergeant sgt, int hours)
+	{
+		return new Event(Kind.SHIFT_ENDED, mission.getName(), sgt.getName(),
+						 hours, null, 0);
+	}
+
+	/**
+	 * Creates the event of a mission that is done.
+	 * @param mission The mission.
+	 * @param sgt The sergeant that worked its last shift.
+	 * @return The event.
+	 */
+	public static Event missionDone(Mission mission, Sergeant sgt)
+	{
+		return new Event(Kind.MISSION_DONE, mission.getName(),
+						 (sgt == null) ? null : sgt.getName(),
+						 mission.getInitTime(), null, 0);
+	}
+
+	/**
+	 * Creates the event of units of an item that a shift has borrowed.
+	 * @param mission The mission of the shift.
+	 * @param sgt The sergeant of the shift.
+	 * @param item The name of the item.
+	 * @param amount The units.
+	 * @return The event.
+	 */
+	public static Event itemBorrowed(Mission mission, Sergeant sgt,
+									 String item, int amount)
+	{
+		return new Event(Kind.ITEM_BORROWED, mission.getName(), sgt.getName(),
+						 0, item, amount);
+	}
+
+	/**
+	 * Creates the event of units of an item that a shift has returned.
+	 * @param mission The mission of the shift.
+	 * @param sgt The sergeant of the shift.
+	 * @param item The name of the item.
+	 * @param amount The units.
+	 * @return The event.
+	 */
+	public static Event itemReturned(Mission mission, Sergeant sgt,
+									 String item, int amount)
+	{
+		return new Event(Kind.ITEM_RETURNED, mission.getName(), sgt.getName(),
+						 0, item, amount);
+	}
+
+	/**
+	 * Creates the event of a sergeant that has joined a board.
+	 * @param sgt The sergeant.
+	 * @return The event.
+	 */
+	public static Event sergeantAdded(Sergeant sgt)
+	{
+		return new Event(Kind.SERGEANT_ADDED, null, sgt.getName(), 0,
+						 null, sgt.numOfThreads());
+	}
+
+	/**
+	 *
+	 * @return The kind of the event.
+	 */
+	public Kind getKind()
+	{
+		return this.kind;
+	}
+
+	/**
+	 *
+	 * @return The time of the event, as in System.currentTimeMillis.
+	 */
+	public long getMillis()
+	{
+		return this.millis;
+	}
+
+	/**
+	 *
+	 * @return The name of the mission, or null if there is none.
+	 */
+	public String getMission()
+	{
+		return this.mission;
+	}
+
+	/**
+	 *
+	 * @return The name of the sergeant, or null if there is none.
+	 */
+	public String getSgt()
+	{
+		return this.sgt;
+	}
+
+	/**
+	 *
+	 * @return The hours of the mission or of the shift, or 0.
+	 */
+	public int getHours()
+	{
+		return this.hours;
+	}
+
+	/**
+	 *
+	 * @return The name of the item, or null if there is none.
+	 */
+	public String getItem()
+	{
+		return this.item;
+	}
+
+	/**
+	 *
+	 * @return The units of the item, the threads of the sergeant, or 0.
+	 */
+	public int getAmount()
+	{
+		return this.amount;
+	}
+
+	public String toString()
+	{
+		StringBuilder out = new StringBuilder();
+		out.append(this.kind);
+		if (this.mission != null)
+			out.append(' ').append(this.mission);
+		if (this.item != null)
+			out.append(' ').append(this.amount).append(' ').append(this.item);
+		if (this.hours > 0)
+			out.append(", ").append(this.hours).append(" hours");
+		if (this.sgt != null)
+			out.append(" (Sgt. ").append(this.sgt).append(')');
+		return out.toString();
+	}
+}
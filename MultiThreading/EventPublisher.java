@@ -0,0 +1,335 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayDeque;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publishes the events of a simulation to Flow subscribers. Every
+ * subscriber has a bounded buffer of its own, and is called on an
+ * executor, one event at a time, as it requests them. Publishing never
+ * waits for a subscriber: it takes the lock of each buffer just long
+ * enough to add the event, and once a buffer is full, the overflow policy
+ * of the subscriber decides what is lost. A slow subscriber therefore
+ * costs the threads of the shifts nothing but its own events. It does
+ * hold a thread of the executor while it's called, so a subscriber that
+ * blocks delays the others.
+ */
+public class EventPublisher implements Flow.Publisher<Event>
+{
+	/**
+	 * What happens to an event that a full buffer has no room for.
+	 */
+	public enum Overflow
+	{
+		DROP_NEWEST,	/* The event is lost */
+		DROP_OLDEST,	/* The oldest event in the buffer is lost */
+		DISCONNECT		/* The subscriber gets onError, and no more events */
+	}
+
+	private final Executor 		  executor;
+	private final int 			  capacity;
+	private final Overflow 		  overflow;
+	private final CopyOnWriteArrayList<Buffer> buffers;
+	private final AtomicLong 	  published;
+	private final AtomicLong 	  dropped;
+	private volatile boolean 	  closed;
+
+	/**
+	 * Constructs a publisher with no subscribers.
+	 * @param executor_ The executor the subscribers are called on.
+	 * @param capacity_ The events a subscriber may fall behind by, unless
+	 * it subscribes with a capacity of its own.
+	 * @param overflow_ The policy of a subscriber that falls further
+	 * behind, unless it subscribes with a policy of its own.
+	 */
+	public EventPublisher(Executor executor_, int capacity_, Overflow overflow_)
+	{
+		this.executor = executor_;
+		this.capacity = Math.max(1, capacity_);
+		this.overflow = overflow_;
+		this.buffers = new CopyOnWriteArrayList<Buffer>();
+		this.published = new AtomicLong(0);
+		this.dropped = new AtomicLong(0);
+		this.closed = false;
+	}
+
+	/**
+	 * Subscribes with the capacity and the policy of the publisher.
+	 * @param subscriber The subscriber.
+	 */
+	public void subscribe(Flow.Subscriber<? super Event> subscriber)
+	{
+		this.subscribe(subscriber, this.capacity, this.overflow);
+	}
+
+	/**
+	 * Subscribes with a capacity and a policy of its own. A subscriber
+	 * that comes after the publisher is closed is completed at once.
+	 * @param subscriber The subscriber.
+	 * @param capacity_ The events it may fall behind by.
+	 * @param overflow_ What happens once it falls further behind.
+	 */
+	public void subscribe(Flow.Subscriber<? super Event> subscriber,
+						  int capacity_, Overflow overflow_)
+	{
+		if (subscriber == null)
+			throw new NullPointerException();
+		Buffer buffer = new Buffer(this, subscriber, Math.max(1, capacity_),
+								   overflow_);
+		this.buffers.add(buffer);
+		if (this.closed)
+			buffer.complete();
+		buffer.signal();
+	}
+
+	/**
+	 *
+	 * @return True if anyone is subscribed.
+	 */
+	public boolean hasSubscribers()
+	{
+		return !this.buffers.isEmpty();
+	}
+
+	/**
+	 *
+	 * @return The number of subscribers.
+	 */
+	public int numOfSubscribers()
+	{
+		return this.buffers.size();
+	}
+
+	/**
+	 * Offers an event to every subscriber. Never blocks.
+	 * @param event The event.
+	 */
+	public void publish(Event event)
+	{
+		if (this.closed)
+			return;
+		this.published.incrementAndGet();
+		for (Buffer buffer : this.buffers)
+			buffer.offer(event);
+	}
+
+	/**
+	 * Completes every subscriber once it has taken the events in its
+	 * buffer. Nothing is published after that.
+	 */
+	public void close()
+	{
+		this.closed = true;
+		for (Buffer buffer : this.buffers)
+			buffer.complete();
+	}
+
+	/**
+	 *
+	 * @return The events that were published.
+	 */
+	public long getPublished()
+	{
+		return this.published.get();
+	}
+
+	/**
+	 *
+	 * @return The events that subscribers lost to their overflow policies.
+	 */
+	public long getDropped()
+	{
+		return this.dropped.get();
+	}
+
+	/* Nested classes */
+
+	/*
+	 * The buffer and the subscription of a subscriber. Events are added by
+	 * offer, under the lock of the buffer, and are delivered by run, which
+	 * is called on the executor and never holds the lock while the
+	 * subscriber is called. `signals` makes sure that run is only called
+	 * by one thread at a time, so the subscriber is never called
+	 * concurrently.
+	 */
+	static class Buffer implements Flow.Subscription, Runnable
+	{
+		private static final int OPEN = 0;
+		private static final int COMPLETING = 1;	/* Closed, once emptied */
+		private static final int FAILED = 2;		/* onError is due */
+		private static final int DONE = 3;			/* Cancelled or terminated */
+
+		private final EventPublisher 			   publisher;
+		private final Flow.Subscriber<? super Event> subscriber;
+		private final int 						   capacity;
+		private final Overflow 					   overflow;
+		private final ArrayDeque<Event> 		   events;	/* Guarded by this */
+		private final AtomicInteger 			   signals;
+		private long 							   demand;	/* Guarded by this */
+		private int 							   state;	/* Guarded by this */
+		private Throwable 						   error;	/* Guarded by this */
+		private boolean 						   subscribed;	/* Only run */
+
+		Buffer(EventPublisher publisher_, Flow.Subscriber<? super Event> subscriber_,
+			   int capacity_, Overflow overflow_) {
+			this.publisher = publisher_;
+			this.subscriber = subscriber_;
+			this.capacity = capacity_;
+			this.overflow = overflow_;
+			this.events = new ArrayDeque<Event>(Math.min(capacity_, 64));
+			this.signals = new AtomicInteger(0);
+			this.demand = 0;
+			this.state = OPEN;
+			this.error = null;
+			this.subscribed = false;
+		}
+
+		/* Adds `event`, or applies the overflow policy if there is no
+		 * room for it */
+		void offer(Event event) {
+			synchronized (this) {
+				if (this.state != OPEN)
+					return;
+				if (this.events.size() == this.capacity) {
+					this.publisher.dropped.incrementAndGet();
+					switch (this.overflow) {
+					case DROP_NEWEST:
+						return;
+					case DROP_OLDEST:
+						this.events.poll();
+						break;
+					default:
+						this.fail(new IllegalStateException(
+								"Fell more than " + this.capacity + " events behind."));
+						break;
+					}
+				}
+				if (this.state == OPEN) {
+					this.events.add(event);
+					if (this.demand == 0)
+						return;
+				}
+			}
+			this.signal();
+		}
+
+		/* Completes the subscriber once its buffer is empty */
+		void complete() {
+			synchronized (this) {
+				if (this.state != OPEN)
+					return;
+				this.state = COMPLETING;
+			}
+			this.signal();
+		}
+
+		/* Makes sure that run is called, once the call that may be in
+		 * progress is over */
+		void signal() {
+			if (this.signals.getAndIncrement() != 0)
+				return;
+			try {
+				this.publisher.executor.execute(this);
+			} catch (RejectedExecutionException e) {
+				/* The simulation is shutting down */
+				this.signals.set(0);
+			}
+		}
+
+		/* Guarded by this */
+		private void fail(Throwable error_) {
+			this.state = FAILED;
+			this.error = error_;
+			this.events.clear();
+		}
+
+		public void request(long n) {
+			synchronized (this) {
+				if ((this.state != OPEN) && (this.state != COMPLETING))
+					return;
+				if (n <= 0)
+					this.fail(new IllegalArgumentException(
+							"Non-positive request: " + n));
+				else
+					this.demand = (this.demand + n < 0) ? Long.MAX_VALUE
+														: this.demand + n;
+			}
+			this.signal();
+		}
+
+		public void cancel() {
+			synchronized (this) {
+				this.state = DONE;
+				this.events.clear();
+			}
+			this.publisher.buffers.remove(this);
+		}
+
+		public void run() {
+			int missed = 1;
+			do {
+				if (!this.subscribed) {
+					this.subscribed = true;
+					this.subscriber.onSubscribe(this);
+				}
+				this.drain();
+				missed = this.signals.addAndGet(-missed);
+			} while (missed != 0);
+		}
+
+		/* Delivers the events that are requested, and the end of the
+		 * subscription if it's due */
+		private void drain() {
+			for (;;) {
+				Event event = null;
+				Throwable error_ = null;
+				boolean completed = false;
+
+				synchronized (this) {
+					if (this.state == DONE)
+						return;
+					if (this.state == FAILED) {
+						error_ = this.error;
+						this.state = DONE;
+					} else if ((this.demand > 0) && (!this.events.isEmpty())) {
+						event = this.events.poll();
+						if (this.demand != Long.MAX_VALUE)
+							--this.demand;
+					} else if ((this.state == COMPLETING) && (this.events.isEmpty())) {
+						completed = true;
+						this.state = DONE;
+					} else {
+						return;
+					}
+				}
+
+				if (event != null) {
+					try {
+						this.subscriber.onNext(event);
+					} catch (Throwable t) {
+						synchronized (this) {
+							if (this.state != DONE)
+								this.fail(t);
+						}
+					}
+					continue;
+				}
+				this.publisher.buffers.remove(this);
+				if (error_ != null)
+					this.subscriber.onError(error_);
+				else if (completed)
+					this.subscriber.onComplete();
+				return;
+			}
+		}
+	}
+}
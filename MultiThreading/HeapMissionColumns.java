@@ -0,0 +1,62 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+/**
+ * Mission columns in int arrays on the heap.
+ */
+public class HeapMissionColumns extends MissionColumns
+{
+	private volatile int[][] cols;
+	private volatile int[][] items;
+	
+	/**
+	 * Constructs new empty columns.
+	 * @param capacity The initial number of rows.
+	 */
+	public HeapMissionColumns(int capacity)
+	{
+		this.cols = new int[NUM_OF_COLUMNS][Math.max(1, capacity)];
+		this.items = new int[2][Math.max(1, capacity)];
+		this.rows = 0;
+		this.numOfItems = 0;
+	}
+	
+	public int get(int col, int row)
+	{
+		return this.cols[col][row];
+	}
+	
+	protected void put(int col, int row, int value)
+	{
+		this.cols[col][row] = value;
+	}
+	
+	public int getItem(int col, int index)
+	{
+		return this.items[col][index];
+	}
+	
+	protected void putItem(int col, int index, int value)
+	{
+		this.items[col][index] = value;
+	}
+	
+	protected void ensureCapacity(int rows_, int items_)
+	{
+		if (rows_ > this.cols[0].length)
+			this.cols = grow(this.cols, Math.max(rows_, 2*this.cols[0].length));
+		if (items_ > this.items[0].length)
+			this.items = grow(this.items, Math.max(items_, 2*this.items[0].length));
+	}
+	
+	private static int[][] grow(int[][] arr, int capacity)
+	{
+		int[][] grown = new int[arr.length][capacity];
+		for (int i = 0; i < arr.length; ++i)
+			System.arraycopy(arr[i], 0, grown[i], 0, arr[i].length);
+		return grown;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Maps names to small consecutive integer ids, so that they can be
+ * compared as ints and used as array indices. Every Context has one for
+ * item names and one for skill names, so ids are only meaningful within
+ * a simulation.
+ */
+public class Interner
+{
+	private HashMap<String, Integer> ids;
+	private ArrayList<String> 		 names;
+	
+	/**
+	 * Constructs a new interner with no names.
+	 */
+	public Interner()
+	{
+		this.ids = new HashMap<String, Integer>();
+		this.names = new ArrayList<String>(0);
+	}
+	
+	/**
+	 * Gets the id of a name, giving it a new id if it has none yet.
+	 * @param name The name.
+	 * @return The id of `name`.
+	 */
+	public synchronized int intern(String name)
+	{
+		Integer id = this.ids.get(name);
+		if (id != null)
+			return id;
+		
+		this.names.add(name);
+		this.ids.put(name, this.names.size() - 1);
+		return this.names.size() - 1;
+	}
+	
+	/**
+	 * 
+	 * @param name The name.
+	 * @return The id of `name`, or -1 if it has none.
+	 */
+	public synchronized int lookup(String name)
+	{
+		Integer id = this.ids.get(name);
+		return (id == null) ? -1 : id;
+	}
+	
+	/**
+	 * 
+	 * @param id An id that has been given by this interner.
+	 * @return The name whose id is `id`.
+	 */
+	public synchronized String name(int id)
+	{
+		return this.names.get(id);
+	}
+	
+	/**
+	 * 
+	 * @return The number of ids given so far.
+	 */
+	public synchronized int size()
+	{
+		return this.names.size();
+	}
+}
@@ -11,16 +11,30 @@
 public class Item implements Comparable<Item>
 {
 	protected String name;
+	protected int 	 id;	 /* Interned name, or -1 */
 	protected int 	 amount;
 	
 	/**
-	 * Constructs a new item with name `name_` and amount `amount_`.
+	 * Constructs a new item with name `name_` and amount `amount_`,
+	 * whose name has no id.
 	 * @param name_ The name of the item.
 	 * @param amount_ the amount of that item.
 	 */
 	public Item(String name_, int amount_)
+	{
+		this(name_, amount_, -1);
+	}
+	
+	/**
+	 * Constructs a new item with name `name_` and amount `amount_`.
+	 * @param name_ The name of the item.
+	 * @param amount_ the amount of that item.
+	 * @param id_ The id of the name in the item names of a context.
+	 */
+	public Item(String name_, int amount_, int id_)
 	{
 		this.name = name_;
+		this.id = id_;
 		this.amount = amount_;
 	}
 	
@@ -33,6 +47,16 @@ public class Item implements Comparable<Item>
 		return this.name;
 	}
 	
+	/**
+	 * Getter for the item id.
+	 * @return The interned id of the item name, or -1 if it wasn't
+	 * given one.
+	 */
+	public int getId()
+	{
+		return this.id;
+	}
+	
 	/**
 	 * Getter for the item amount.
 	 * @return The amount of the item.
@@ -5,23 +5,37 @@
 
 
 import java.util.ArrayList;
-import java.util.Iterator;
 
+/**
+ * A flyweight view of a row in the MissionColumns of a board. The Board
+ * keeps no Mission objects: getMission creates a view on every call, and
+ * two views of the same row are equal. A new mission keeps its cells in
+ * small arrays until it is added to the Board, when they move to a row of
+ * the columns of the Board. Names are interned into the ids of the
+ * context: the items are kept as item ids and amounts, and the skill as a
+ * skill id. The prerequisites and the dependents are kept by the Board
+ * once the mission is added to it.
+ */
 public class Mission 
 {
-	private final String 		  name;
-	private final ArrayList<Item> items;
-	private Sergeant 			  assignedSgt;
-	private final String 		  reqSkill;
-	private int 				  timeLeft;
-	private final int 			  initTime;
-	private ArrayList<Mission>	  preMissions;
-	private boolean 			  inMissionHolder;	 /* True if the mission is
-														in the MH, false otherwise */
-	private int 				  assignmentCounter; /* Starts as initTime and
-														decreases `workHours` hours
-													   	for every assignment of the
-													   	mission to the assigned Sgt. */
+	private String 				  name;				 /* Fetched from the Board
+														on first use */
+	private MissionColumns 		  columns;			 /* null until the mission
+														is added to the Board */
+	private int 				  row;				 /* Also the id */
+	private Board 				  board;
+	private final Context 		  context;			 /* Whose interners give
+														the ids */
+	/* The cells of the row, until the mission is added to the Board */
+	private int[] 				  cells;
+	private int[] 				  itemIds;
+	private int[] 				  itemAmounts;
+	private ArrayList<Mission>	  preMissions;		 /* Until the mission is added
+														to the Board */
+	/* The critical path is the hours of work left on the longest chain
+	   of missions that starts here. The assignment counter starts as
+	   initTime and decreases `workHours` hours for every assignment of
+	   the mission to the assigned Sgt. */
 	
 	/**
 	 * Constructs a mission object with no Sgt. assigned
@@ -31,25 +45,112 @@ public class Mission
 	 * by amounts.
 	 * @param reqSkill_ A single skill required for the mission.
 	 * @param time_ Hours needed to complete the mission.
+	 * @param context_ The context of the simulation, which gives the
+	 * ids of the items and the skill.
 	 */
 	public Mission(String name_,
 				   final ArrayList<Item> items_,
 				   String reqSkill_,
-				   int time_)
+				   int time_,
+				   Context context_)
 	{
+		int n = (items_ == null) ? 0 : items_.size();
+		int[] itemIds = new int[n];
+		int[] itemAmounts = new int[n];
+		
+		for (int i = 0; i < n; ++i) {
+			itemIds[i] = context_.getItems().intern(items_.get(i).getName());
+			itemAmounts[i] = items_.get(i).getAmount();
+		}
+		
 		this.name = name_;
-		this.items = items_;
-		this.assignedSgt = null;
-		this.reqSkill = reqSkill_;
-		this.timeLeft = time_;
-		this.initTime = time_;
+		this.columns = null;
+		this.row = -1;
+		this.board = null;
+		this.context = context_;
+		this.cells = new int[MissionColumns.NUM_OF_COLUMNS];
+		this.itemIds = itemIds;
+		this.itemAmounts = itemAmounts;
 		this.preMissions = new ArrayList<Mission>(0);
-		this.inMissionHolder = false;
-		this.assignmentCounter = this.initTime;
+		
+		this.cells[MissionColumns.SGT] = -1;
+		this.cells[MissionColumns.ITEM_COUNT] = n;
+		this.cells[MissionColumns.SKILL] = context_.getSkills().intern(reqSkill_.trim());
+		this.cells[MissionColumns.TIME_LEFT] = time_;
+		this.cells[MissionColumns.INIT_TIME] = time_;
+		this.cells[MissionColumns.COUNTER] = time_;
+		this.cells[MissionColumns.CRITICAL_PATH] = time_;
+	}
+	
+	/**
+	 * Constructs a view of a row that is already in the columns of
+	 * a board. Called by the Board.
+	 * @param board_ The board.
+	 * @param columns_ The columns of the board.
+	 * @param row_ The row of the mission, which is also its id.
+	 */
+	public Mission(Board board_, MissionColumns columns_, int row_)
+	{
+		this.name = null;
+		this.columns = columns_;
+		this.row = row_;
+		this.board = board_;
+		this.context = board_.getContext();
+		this.cells = null;
+		this.itemIds = null;
+		this.itemAmounts = null;
+		this.preMissions = null;
 	}
 	
 	/**
-	 * Adds missions `m` to this mission's prerequisites list.
+	 * Moves the cells of this mission to a new row in the columns of a
+	 * board, after which this mission is a view of that row. Called by
+	 * the Board.
+	 * @param board_ The board.
+	 * @param columns_ The columns of the board.
+	 * @return The new row, which is also the id of this mission.
+	 */
+	public int moveTo(Board board_, MissionColumns columns_)
+	{
+		int newRow = columns_.addRow(this.itemIds, this.itemAmounts, this.cells);
+		this.cells = null;
+		this.itemIds = null;
+		this.itemAmounts = null;
+		this.columns = columns_;
+		this.row = newRow;
+		this.board = board_;
+		return newRow;
+	}
+	
+	/* Returns cell `col` of this mission */
+	private int get(int col)
+	{
+		if (this.columns == null)
+			return this.cells[col];
+		return this.columns.get(col, this.row);
+	}
+	
+	/* Sets cell `col` of this mission to `value` */
+	private void set(int col, int value)
+	{
+		if (this.columns == null)
+			this.cells[col] = value;
+		else
+			this.columns.set(col, this.row, value);
+	}
+	
+	/* Adds `delta` to cell `col` of this mission */
+	private void add(int col, int delta)
+	{
+		if (this.columns == null)
+			this.cells[col] += delta;
+		else
+			this.columns.add(col, this.row, delta);
+	}
+	
+	/**
+	 * Adds missions `m` to this mission's prerequisites list. Must be
+	 * called before this mission is added to the Board.
 	 * @param m The mission we want to add to the prerequisites list.
 	 */
 	public void addPre(Mission m)
@@ -57,12 +158,76 @@ public class Mission
 		this.preMissions.add(m);
 	}
 	
+	/**
+	 * 
+	 * @return The prerequisites that were added by addPre, or an empty
+	 * list once the mission is on a board.
+	 */
+	public ArrayList<Mission> getStagedPreMissions()
+	{
+		if (this.preMissions == null)
+			return new ArrayList<Mission>(0);
+		return this.preMissions;
+	}
+	
+	/**
+	 * Hands the prerequisites over to the Board, which keeps them from
+	 * now on. Called by the Board, under its lock. Prerequisites that
+	 * have been done since they were added by addPre are left out, so
+	 * that they aren't waited for.
+	 * @return The prerequisites that were added by addPre and aren't done.
+	 */
+	public ArrayList<Mission> takePreMissions()
+	{
+		ArrayList<Mission> pres = this.preMissions;
+		this.preMissions = null;
+		if (pres == null)
+			return new ArrayList<Mission>(0);
+		ArrayList<Mission> pending = new ArrayList<Mission>(pres.size());
+		for (Mission pre : pres)
+			if (pre.getStatus() != Status.DONE)
+				pending.add(pre);
+		this.set(MissionColumns.PENDING_PRES, pending.size());
+		return pending;
+	}
+	
+	/**
+	 * Counts one of the prerequisites as done. Called by the Board.
+	 */
+	public void preMissionDone()
+	{
+		this.add(MissionColumns.PENDING_PRES, -1);
+	}
+	
+	/**
+	 * Sets the critical path. Called by the Board.
+	 * @param path Hours of work left on the longest chain of missions
+	 * that starts with this mission.
+	 */
+	public void setCriticalPath(int path)
+	{
+		this.set(MissionColumns.CRITICAL_PATH, path);
+	}
+	
+	/**
+	 * The critical path of a mission is its remaining time plus the
+	 * longest critical path among the missions that depend on it.
+	 * @return The hours of work left on the longest chain of missions
+	 * that starts with this mission.
+	 */
+	public int getCriticalPath()
+	{
+		return this.get(MissionColumns.CRITICAL_PATH);
+	}
+	
 	/**
 	 * @return true if the mission's prerequisites list is not empty.
 	 */
 	public boolean hasPrerequisites()
 	{
-		return !this.preMissions.isEmpty();
+		if (this.preMissions != null)
+			return !this.preMissions.isEmpty();
+		return this.get(MissionColumns.PENDING_PRES) > 0;
 	}
 	
 	/**
@@ -72,50 +237,60 @@ public class Mission
 	 */
 	public void updateTime(int t)
 	{
-		this.timeLeft -= t;
+		this.add(MissionColumns.TIME_LEFT, -t);
+		/* A mission is worked on only when its prerequisites are done,
+		   so no other critical path goes through this one */
+		this.add(MissionColumns.CRITICAL_PATH, -t);
 	}
 	
 	/**
-	 * Deletes this mission from the pre-missions list of `mission_`.
-	 * @param mission_ The mission whose pre-missions list we want this
-	 * object to be deleted from.
+	 * Getter for the remaining time until completion.
+	 * @return The remaining time until completion.
 	 */
-	public void deleteFromPreMissions(final Mission mission_)
-	{	
-		Iterator<Mission> it;
-		for (it = mission_.preMissions.iterator() ; it.hasNext() ; )
-			if (it.next() == this)
-				it.remove();
-
+	public int timeLeft()
+	{
+		return this.get(MissionColumns.TIME_LEFT);
 	}
 	
 	/**
-	 * Getter for the remaining time until completion.
-	 * @return The remaining time until completion.
+	 * Getter for the list of required items. The list is built on every
+	 * call; use getItemId and getItemAmount where speed matters.
+	 * @return The list of items of this mission.
 	 */
-	public int timeLeft()
+	public ArrayList<Item> getItems()
 	{
-		return this.timeLeft;
+		int n = this.numOfItems();
+		ArrayList<Item> items = new ArrayList<Item>(n);
+		for (int i = 0; i < n; ++i)
+			items.add(new Item(this.context.getItems().name(this.getItemId(i)),
+							   this.getItemAmount(i), this.getItemId(i)));
+		return items;
 	}
 	
 	/**
-	 * Getter for the pre-required missions list.
-	 * @return The pre-required missions list.
+	 * 
+	 * @param i An index smaller than numOfItems().
+	 * @return The id of the i-th required item.
 	 */
-	public ArrayList<Mission> getPreMissions()
+	public int getItemId(int i)
 	{
-		if (this.preMissions.isEmpty())
-			return null;
-		return this.preMissions;
+		if (this.columns == null)
+			return this.itemIds[i];
+		return this.columns.getItem(MissionColumns.ITEM_ID,
+				this.get(MissionColumns.ITEM_OFFSET) + i);
 	}
 	
 	/**
-	 * Getter for the list of required items.
-	 * @return The list of items of this mission.
+	 * 
+	 * @param i An index smaller than numOfItems().
+	 * @return The required amount of the i-th required item.
 	 */
-	public ArrayList<Item> getItems()
+	public int getItemAmount(int i)
 	{
-		return this.items;
+		if (this.columns == null)
+			return this.itemAmounts[i];
+		return this.columns.getItem(MissionColumns.ITEM_AMOUNT,
+				this.get(MissionColumns.ITEM_OFFSET) + i);
 	}
 	
 	/**
@@ -124,7 +299,10 @@ public class Mission
 	 */
 	public Sergeant getSgt()
 	{
-		return this.assignedSgt;
+		int sgtId = this.get(MissionColumns.SGT);
+		if ((sgtId < 0) || (this.board == null))
+			return null;
+		return this.board.getSergeant(sgtId);
 	}
 	
 	/**
@@ -133,16 +311,47 @@ public class Mission
 	 */
 	public String getName()
 	{
+		if (this.name == null)
+			this.name = this.board.missionName(this.row);
 		return this.name;
 	}
 	
+	/**
+	 * 
+	 * @return The board this mission is on, or null if it hasn't been
+	 * added to a board yet.
+	 */
+	public Board getBoard()
+	{
+		return this.board;
+	}
+	
+	/**
+	 * 
+	 * @return The context the ids of this mission are given in.
+	 */
+	public Context getContext()
+	{
+		return this.context;
+	}
+	
+	/**
+	 * 
+	 * @return The id given to this mission by the Board, or -1
+	 * if it hasn't been added to the Board yet.
+	 */
+	public int getId()
+	{
+		return (this.board == null) ? -1 : this.row;
+	}
+	
 	/**
 	 * Sets `sgt_` to be the sergeant that is assigned to this mission.
 	 * @param sgt_ The desired name.
 	 */
 	public void setSgt(Sergeant sgt_)
 	{
-		this.assignedSgt = sgt_;
+		this.set(MissionColumns.SGT, (sgt_ == null) ? -1 : sgt_.getId());
 	}
 	
 	/**
@@ -151,9 +360,30 @@ public class Mission
 	 */
 	public Status getStatus()
 	{
-		if (this.initTime == this.timeLeft)
+		if (this.columns == null)
+			return statusOf(this.cells[MissionColumns.INIT_TIME],
+							this.cells[MissionColumns.TIME_LEFT]);
+		return statusOf(this.columns, this.row);
+	}
+	
+	/**
+	 * Derives the status of a row from its remaining and initial times.
+	 * @param columns_ The columns.
+	 * @param row_ The row.
+	 * @return FRESH/IN_PROGRESS/DONE.
+	 */
+	public static Status statusOf(MissionColumns columns_, int row_)
+	{
+		return statusOf(columns_.get(MissionColumns.INIT_TIME, row_),
+						columns_.get(MissionColumns.TIME_LEFT, row_));
+	}
+	
+	/* Derives a status from the initial and the remaining times */
+	private static Status statusOf(int initTime, int timeLeft)
+	{
+		if (initTime == timeLeft)
 			return Status.FRESH;
-		else if (this.timeLeft <= 0)
+		else if (timeLeft <= 0)
 			return Status.DONE;
 		else
 			return Status.IN_PROGRESS;
@@ -165,7 +395,7 @@ public class Mission
 	 */
 	public int getInitTime()
 	{
-		return this.initTime;
+		return this.get(MissionColumns.INIT_TIME);
 	}
 
 	/**
@@ -174,7 +404,7 @@ public class Mission
 	 */
 	public int numOfItems()
 	{
-		return this.items.size();
+		return this.get(MissionColumns.ITEM_COUNT);
 	}
 	
 	/**
@@ -183,7 +413,16 @@ public class Mission
 	 */
 	public String getSkill()
 	{
-		return this.reqSkill;
+		return this.context.getSkills().name(this.getSkillId());
+	}
+	
+	/**
+	 * 
+	 * @return The id of the required skill.
+	 */
+	public int getSkillId()
+	{
+		return this.get(MissionColumns.SKILL);
 	}
 	
 	/**
@@ -191,7 +430,7 @@ public class Mission
 	 */
 	public void setInMissionHolder()
 	{
-		this.inMissionHolder = true;
+		this.set(MissionColumns.IN_MISSION_HOLDER, 1);
 	}
 	
 	/**
@@ -199,7 +438,7 @@ public class Mission
 	 */
 	public void unsetInMissionHolder()
 	{
-		this.inMissionHolder = false;
+		this.set(MissionColumns.IN_MISSION_HOLDER, 0);
 	}
 
 	/**
@@ -209,7 +448,7 @@ public class Mission
 	 */
 	public boolean isInMissionHolder() 
 	{
-		return this.inMissionHolder;
+		return this.get(MissionColumns.IN_MISSION_HOLDER) != 0;
 	}
 
 	/**
@@ -218,10 +457,19 @@ public class Mission
 	 */
 	public void decCounter(int time)
 	{
-		this.assignmentCounter -= time;
+		this.add(MissionColumns.COUNTER, -time);
 		
 	}
 	
+	/**
+	 * 
+	 * @return The hours of this mission that haven't been handed out.
+	 */
+	public int getCounter()
+	{
+		return this.get(MissionColumns.COUNTER);
+	}
+	
 	/**
 	 * 
 	 * @return True if this mission hasn't been handed to
@@ -231,6 +479,36 @@ public class Mission
 	 */
 	public boolean canBeHanded()
 	{
-		return this.assignmentCounter > 0;
+		return this.get(MissionColumns.COUNTER) > 0;
+	}
+	
+	/**
+	 * Two missions are equal if they are views of the same row of the
+	 * same board. A mission that isn't on a board is only equal to itself.
+	 * @param o An object.
+	 * @return True if `o` is a view of the row of this mission.
+	 */
+	public boolean equals(Object o)
+	{
+		if (this == o)
+			return true;
+		if (!(o instanceof Mission))
+			return false;
+		Mission other = (Mission)o;
+		return (this.board != null) && (this.board == other.board)
+				&& (this.row == other.row);
+	}
+	
+	/**
+	 * A mission that isn't on a board yet has the hash code of its
+	 * object, which changes once it's added to a board. It therefore
+	 * shouldn't be a key of a hash map while it's being added.
+	 * @return A hash code that agrees with equals.
+	 */
+	public int hashCode()
+	{
+		if (this.board == null)
+			return System.identityHashCode(this);
+		return 31*System.identityHashCode(this.board) + this.row;
 	}
-}
+}
\ No newline at end of file
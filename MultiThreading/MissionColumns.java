@@ -0,0 +1,171 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+/**
+ * Stores the numeric state of missions column by column: one row per
+ * mission, and one column per field. The items of all the missions are
+ * kept in two further columns (ids and amounts), and every row points
+ * to its items by an offset and a count. The status of a mission is not
+ * stored, it is derived from its remaining and initial times.
+ * 
+ * Writes are synchronized. Reads are not, as in the rest of the board.
+ */
+public abstract class MissionColumns
+{
+	/* Columns */
+	public static final int TIME_LEFT = 0;
+	public static final int INIT_TIME = 1;
+	public static final int COUNTER = 2;		/* Assignment counter */
+	public static final int SGT = 3;			/* Id of the assigned Sgt., or -1 */
+	public static final int SKILL = 4;
+	public static final int ITEM_OFFSET = 5;
+	public static final int ITEM_COUNT = 6;
+	public static final int CRITICAL_PATH = 7;
+	public static final int PENDING_PRES = 8;
+	public static final int IN_MISSION_HOLDER = 9;	/* 1 or 0 */
+	public static final int NUM_OF_COLUMNS = 10;
+	
+	/* Item columns */
+	public static final int ITEM_ID = 0;
+	public static final int ITEM_AMOUNT = 1;
+	
+	protected int rows;
+	protected int numOfItems;
+	
+	/**
+	 * Reads a cell.
+	 * @param col The column.
+	 * @param row The row.
+	 * @return The value of the cell.
+	 */
+	public abstract int get(int col, int row);
+	
+	/* Writes a cell. The caller holds the lock. */
+	protected abstract void put(int col, int row, int value);
+	
+	/**
+	 * Reads an item cell.
+	 * @param col ITEM_ID or ITEM_AMOUNT.
+	 * @param index The index of the item among the items of all the rows.
+	 * @return The value of the cell.
+	 */
+	public abstract int getItem(int col, int index);
+	
+	/* Writes an item cell. The caller holds the lock. */
+	protected abstract void putItem(int col, int index, int value);
+	
+	/* Makes room for at least `rows_` rows and `items` items. The
+	 * caller holds the lock. */
+	protected abstract void ensureCapacity(int rows_, int items);
+	
+	/**
+	 * Writes a cell.
+	 * @param col The column.
+	 * @param row The row.
+	 * @param value The new value.
+	 */
+	public synchronized void set(int col, int row, int value)
+	{
+		this.put(col, row, value);
+	}
+	
+	/**
+	 * Writes an item cell.
+	 * @param col ITEM_ID or ITEM_AMOUNT.
+	 * @param index The index of the item among the items of all the rows.
+	 * @param value The new value.
+	 */
+	public synchronized void setItem(int col, int index, int value)
+	{
+		this.putItem(col, index, value);
+	}
+	
+	/**
+	 * Adds to a cell.
+	 * @param col The column.
+	 * @param row The row.
+	 * @param delta The value to add.
+	 */
+	public synchronized void add(int col, int row, int delta)
+	{
+		this.put(col, row, this.get(col, row) + delta);
+	}
+	
+	/**
+	 * Appends a row.
+	 * @param itemIds The ids of the items of the row.
+	 * @param itemAmounts The amounts of the items, in the order of `itemIds`.
+	 * @return The index of the new row. All its cells are 0, except for
+	 * SGT which is -1 and the item columns which point to the items.
+	 */
+	public synchronized int addRow(int[] itemIds, int[] itemAmounts)
+	{
+		this.ensureCapacity(this.rows + 1, this.numOfItems + itemIds.length);
+		
+		int row = this.rows;
+		for (int col = 0; col < NUM_OF_COLUMNS; ++col)
+			this.put(col, row, 0);
+		this.put(SGT, row, -1);
+		this.put(ITEM_OFFSET, row, this.numOfItems);
+		this.put(ITEM_COUNT, row, itemIds.length);
+		for (int i = 0; i < itemIds.length; ++i) {
+			this.putItem(ITEM_ID, this.numOfItems + i, itemIds[i]);
+			this.putItem(ITEM_AMOUNT, this.numOfItems + i, itemAmounts[i]);
+		}
+		this.numOfItems += itemIds.length;
+		++this.rows;
+		return row;
+	}
+	
+	/**
+	 * Appends a row whose cells are given.
+	 * @param itemIds The ids of the items of the row.
+	 * @param itemAmounts The amounts of the items, in the order of `itemIds`.
+	 * @param cells The cells of the row, NUM_OF_COLUMNS of them. The item
+	 * columns are ignored, and point to the items.
+	 * @return The index of the new row.
+	 */
+	public synchronized int addRow(int[] itemIds, int[] itemAmounts, int[] cells)
+	{
+		int newRow = this.addRow(itemIds, itemAmounts);
+		for (int col = 0; col < NUM_OF_COLUMNS; ++col)
+			if ((col != ITEM_OFFSET) && (col != ITEM_COUNT))
+				this.put(col, newRow, cells[col]);
+		return newRow;
+	}
+	
+	/**
+	 * Appends a copy of a row of other columns.
+	 * @param from The columns to copy from.
+	 * @param row The row to copy.
+	 * @return The index of the new row.
+	 */
+	public synchronized int copyRow(MissionColumns from, int row)
+	{
+		int count = from.get(ITEM_COUNT, row);
+		int offset = from.get(ITEM_OFFSET, row);
+		int[] ids = new int[count];
+		int[] amounts = new int[count];
+		int[] cells = new int[NUM_OF_COLUMNS];
+		
+		for (int i = 0; i < count; ++i) {
+			ids[i] = from.getItem(ITEM_ID, offset + i);
+			amounts[i] = from.getItem(ITEM_AMOUNT, offset + i);
+		}
+		for (int col = 0; col < NUM_OF_COLUMNS; ++col)
+			cells[col] = from.get(col, row);
+		return this.addRow(ids, amounts, cells);
+	}
+	
+	/**
+	 * 
+	 * @return The number of rows.
+	 */
+	public int rows()
+	{
+		return this.rows;
+	}
+}
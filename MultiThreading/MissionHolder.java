@@ -5,24 +5,22 @@
 
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
-import java.util.ListIterator;
+import java.util.HashMap;
 
 
 public class MissionHolder
 {
-	/* The lists are kept sorted at all times */
-	private ArrayList<Mission> missionsByLength;
-	private ArrayList<Mission> missionsByItems;
+	private ArrayList<Mission> 					missions;
+	/* One policy per priority order in use, each with its own index */
+	private HashMap<String, SchedulingPolicy> 	policies;
 	
 	/**
 	 * Constructs a new Mission Holder with empty mission list.
 	 */
 	public MissionHolder()
 	{
-		this.missionsByLength = new ArrayList<Mission>(0);
-		this.missionsByItems = new ArrayList<Mission>(0);
+		this.missions = new ArrayList<Mission>(0);
+		this.policies = new HashMap<String, SchedulingPolicy>();
 	}
 	
 	/**
@@ -35,8 +33,9 @@ public class MissionHolder
 			return;
 		
 		for (Mission m : missions_) {
-			addInOrder(this.missionsByLength, m, new LengthComparator());
-			addInOrder(this.missionsByItems, m, new ItemsComparator());
+			this.missions.add(m);
+			for (SchedulingPolicy p : this.policies.values())
+				p.add(m);
 			m.setInMissionHolder();
 		}
 	}
@@ -47,7 +46,7 @@ public class MissionHolder
 	 */
 	public synchronized int size()
 	{
-		return this.missionsByLength.size();
+		return this.missions.size();
 	}
 	
 	
@@ -57,69 +56,40 @@ public class MissionHolder
 	 */
 	public synchronized void remove(Mission mission)
 	{
-		this.missionsByLength.remove(mission);
-		this.missionsByItems.remove(mission);
+		this.missions.remove(mission);
+		for (SchedulingPolicy p : this.policies.values())
+			p.remove(mission);
 		mission.unsetInMissionHolder();
 	}
 	
 	/**
-	 * Returns an iterator to the right list according to `order`.
-	 * If `reverse` is true then it returns the iterator to the end
-	 * of the list.
-	 * @param order The order in which the list of which the returned
-	 * iterator is sorted.
-	 * @param reverse If true then an iterator to the end of the list
-	 * will be returned.
-	 * @return A list iterator.
+	 * Gets the policy of a priority order. The first time an order is
+	 * asked for, its policy is created and filled with the missions that
+	 * are already in the Mission Holder.
+	 * @param priorityOrder The name of the priority order.
+	 * @return The policy, or null if there is no such priority order.
 	 */
-	public synchronized ListIterator<Mission> listIterator(char order,
-														   boolean reverse)
+	public synchronized SchedulingPolicy policyFor(String priorityOrder)
 	{
-		if (order == 'l') {
-			if (reverse)
-				return this.missionsByLength.listIterator(this.missionsByLength.size());
-			else
-				return this.missionsByLength.listIterator(0);
-		} else {
-			if (reverse)
-				return this.missionsByItems.listIterator(this.missionsByItems.size());
-			else
-				return this.missionsByItems.listIterator();
-		}
+		SchedulingPolicy policy = this.policies.get(priorityOrder);
+		if (policy != null)
+			return policy;
+		
+		policy = SortedPolicy.create(priorityOrder);
+		if (policy == null)
+			return null;
+		for (Mission m : this.missions)
+			policy.add(m);
+		this.policies.put(priorityOrder, policy);
+		return policy;
 	}
 	
-	/* Takes a list, a mission and a comparator, and adds the mission to the list
-	 * in the right place, according to the order of elements dictated by the
-	 * comparator */
-	private synchronized void addInOrder(ArrayList<Mission> list,
-										 Mission m,
-										 Comparator<Mission> c)
-	{
-		if (list.isEmpty()) {
-			list.add(m);
-			return;
-		}
-		int i = Collections.binarySearch(list, m, c); 
-		if (i < 0)
-			list.add((-1)*i - 1, m); /* See documentation of java.util.Collections'
-		 								binarySearch(List list, Object key, Comparator c) */ 
-		else
-			list.add(i, m);
-	}
-}
-
-class LengthComparator implements Comparator<Mission>
-{
-	public int compare(Mission m, Mission n)
+	/**
+	 * Lets every policy refresh its index before a distribution pass.
+	 */
+	public synchronized void refresh()
 	{
-		return m.getInitTime() - n.getInitTime();
+		for (SchedulingPolicy p : this.policies.values())
+			p.refresh();
 	}
 }
-
-class ItemsComparator implements Comparator<Mission>
-{
-	public int compare(Mission m, Mission n)
-	{
-		return m.numOfItems() - n.numOfItems();
-	}
-}
\ No newline at end of file
@@ -0,0 +1,147 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+
+/**
+ * A shift of a mission that has been handed to a sergeant. The hours of
+ * the shift are taken from the mission's counter when it's handed, and
+ * the lease guarantees that the hours that aren't worked are given back,
+ * whether the shift is rejected, fails or overruns, so the mission can be
+ * handed again. Once the shift starts working, the lease expires on a
+ * deadline kept in the timer wheel of the COF; an expired shift is cut
+ * short and settles the hours it did work.
+ */
+public class MissionLease
+{
+	/* Time a shift gets on top of its hours before it overruns */
+	public static final int GRACE_MILLIS = 2000;
+	private static final int WAIT_TIME_MULTIPILICAND = 1000;
+
+	private static final int HANDED = 0;
+	private static final int WORKING = 1;
+	private static final int EXPIRED = 2;
+	private static final int SETTLED = 3;
+
+	private final Mission 					 mission;
+	private final Sergeant 					 sgt;
+	private final int 						 hours;
+	private final TimerWheel<MissionLease> 	 wheel;
+	private final MissionHolder 			 holder;	/* Of the COF */
+	private TimerWheel.Timeout<MissionLease> timeout;
+	private RunnableMission 				 shift;
+	private int 							 state;	/* Guarded by this */
+
+	/**
+	 * Hands a shift of `mission_` to `sgt_`: the mission is assigned to
+	 * the sergeant, and the hours are taken from its counter.
+	 * @param mission_ The mission.
+	 * @param sgt_ The sergeant.
+	 * @param wheel_ The timer wheel of the COF.
+	 * @param holder_ The Mission Holder of the COF, under whose lock
+	 * the mission is handed.
+	 */
+	public MissionLease(Mission mission_, Sergeant sgt_,
+						TimerWheel<MissionLease> wheel_, MissionHolder holder_)
+	{
+		this.mission = mission_;
+		this.sgt = sgt_;
+		this.hours = sgt_.getWorkHours();
+		this.wheel = wheel_;
+		this.holder = holder_;
+		this.timeout = null;
+		this.shift = null;
+		this.state = HANDED;
+
+		this.mission.setSgt(this.sgt);
+		this.mission.decCounter(this.hours);
+	}
+
+	/**
+	 * Starts the term of the lease. Called once the shift holds its items.
+	 * @param shift_ The shift.
+	 */
+	public synchronized void start(RunnableMission shift_)
+	{
+		if (this.state != HANDED)
+			return;
+		this.state = WORKING;
+		this.shift = shift_;
+		if (this.wheel != null)
+			this.timeout = this.wheel.schedule(this,
+					System.currentTimeMillis()
+					+ this.hours * (long) WAIT_TIME_MULTIPILICAND + GRACE_MILLIS);
+	}
+
+	/**
+	 * Called by the COF when the deadline of the lease has passed: the
+	 * shift is cut short.
+	 */
+	public void expire()
+	{
+		synchronized (this) {
+			if (this.state != WORKING)
+				return;
+			this.state = EXPIRED;
+		}
+		this.sgt.getContext().log("Sgt. " + this.sgt.getName() + ": Mission "
+						    + this.mission.getName() + " OVERRAN its lease.");
+		this.shift.cutShort();
+	}
+
+	/**
+	 * Ends the lease. The hours that weren't worked are given back to the
+	 * mission, and if no other shift of the mission is outstanding, it's
+	 * no longer assigned to the sergeant. This is done under the lock of
+	 * the Mission Holder, so the mission can't be handed again in the
+	 * middle. The hours that were worked are recorded by the caller,
+	 * after the lease is settled.
+	 * @param worked The hours that were worked.
+	 * @return False if the lease was settled already.
+	 */
+	public boolean settle(int worked)
+	{
+		synchronized (this) {
+			if (this.state == SETTLED)
+				return false;
+			this.state = SETTLED;
+		}
+		if (this.timeout != null)
+			this.wheel.cancel(this.timeout);
+
+		worked = Math.max(0, worked);
+		if (worked < this.hours) {
+			synchronized (this.holder) {
+				this.mission.decCounter(worked - this.hours);
+				/* The counter is the time left minus the hours handed out,
+				   so it's the time that will be left if no shift is
+				   outstanding */
+				int left = this.mission.timeLeft() - worked;
+				if ((left > 0) && (this.mission.getCounter() == left)
+					    && (this.mission.getSgt() == this.sgt))
+					this.mission.setSgt(null);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @return The mission of the lease.
+	 */
+	public Mission getMission()
+	{
+		return this.mission;
+	}
+
+	/**
+	 *
+	 * @return The hours of the shift.
+	 */
+	public int getHours()
+	{
+		return this.hours;
+	}
+}
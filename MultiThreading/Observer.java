@@ -4,26 +4,53 @@
 
 
 
-import java.util.Scanner;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
 import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
 
 public class Observer extends Thread
 {
-	private ChiefOfStaff	cof;
-	private Board 			board;
+	public static final int MAX_BUFFER = 1 << 20;
+	
+	private Shards 			shards;
 	private Warehouse 		warehouse;
+	private StringBuilder 	out;	  /* Reused by the reporting commands */
+	private BufferedReader 	in;
+	private ControlServer 	server;
+	private Coordinator 	coordinator;
+	private boolean 		terminated;
+	private final CountDownLatch reported; /* Counted down once the termination
+										  has been reported */
 	
 	/**
 	 * 
-	 * @param board_ The Board.
-	 * @param cof_ The Chief Of Staff.
-	 * @param warehouse_ The Warehouse.
+	 * @param shards_ The boards and their Chiefs Of Staff.
 	 */
-	public Observer(Board board_, ChiefOfStaff cof_, Warehouse warehouse_)
+	public Observer(Shards shards_)
 	{
-		this.cof = cof_;
-		this.board = board_;
-		this.warehouse = warehouse_;
+		this.shards = shards_;
+		this.warehouse = shards_.getWarehouse();
+		this.out = new StringBuilder(4096);
+		this.in = new BufferedReader(new InputStreamReader(System.in), 1 << 16);
+		this.server = null;
+		this.coordinator = null;
+		this.terminated = false;
+		this.reported = new CountDownLatch(1);
+		shards_.getContext().getCompletion().thenRun(new Runnable() {
+			public void run() {
+				System.out.println("All objectives have been achieved.\n"
+								       + "Enter 'stop' for terminating execution.\n");
+			}
+		});
+		/* The system may be stopped through the control server, while
+		   this thread waits for the console */
+		this.setDaemon(true);
 	}
 	
 	/**
@@ -31,25 +58,68 @@ public class Observer extends Thread
 	 */
 	public void run()
 	{
-		Scanner scanner = new Scanner(System.in);
 		String input = "";
 		boolean stop = false;
 		
 		for (;;)
 		{
 			System.out.println("Waiting for command...");
-			input = scanner.nextLine();
+			try {
+				input = this.in.readLine();
+			} catch (IOException e) {
+				input = null;
+			}
+			/* The end of the input stops the system */
+			if (input == null)
+				input = "stop";
 			stop = parseAndExecute(input);
 			if (stop) {
-				System.out.println("Please wait while system is terminating...");
-				this.cof.cancel();
-				this.cof.shutDownSgts();
-				System.out.println("System is now terminated.");
+				this.terminate(input.trim().equals("drain"));
 				break;
 			}
 		}
 	}
 	
+	/**
+	 * Terminates the system, once.
+	 * @param drain True if the queued shifts should run first, false
+	 * if they should be discarded.
+	 */
+	public void terminate(boolean drain)
+	{
+		long millis;
+		
+		synchronized (this) {
+			if (this.terminated)
+				return;
+			this.terminated = true;
+		}
+		System.out.println("Please wait while system is terminating...");
+		if (this.server != null)
+			this.server.cancel();
+		if (this.coordinator != null)
+			this.coordinator.cancel();
+		this.shards.cancel();
+		if (drain)
+			millis = this.shards.drainSgts();
+		else
+			millis = this.shards.shutDownSgts();
+		this.shards.getContext().shutdown();
+		System.out.printf("System is now terminated (%d ms).\n", millis);
+		this.reported.countDown();
+	}
+	
+	/**
+	 * Waits until the system has been terminated and the termination
+	 * has been reported. Since the observer is a daemon, the JVM could
+	 * otherwise exit while it is still reporting.
+	 * @throws InterruptedException If the waiting thread is interrupted.
+	 */
+	public void awaitTermination() throws InterruptedException
+	{
+		this.reported.await();
+	}
+	
 	/* Takes the input string and parse the command it
 	 * assumes to contain.
 	 */
@@ -59,30 +129,69 @@ public class Observer extends Thread
 		String splitted[] = input.split(" ");
 		String command = splitted[0].trim();
 		
-		if (command.equals("completeMissions")) {
-			this.board.printCompleteMissions();
+		if ((command.equals("completeMissions"))
+		        || (command.equals("incompleteMissions"))
+		        || (command.equals("sergeants"))
+		        || (command.equals("warehouse"))) {
+			Query q = Query.parse(splitted, 1);
+			if (q != null)
+				this.report(command, q);
 			return false;
-		} else if (command.equals("incompleteMissions")) {
-			this.board.printIncompleteMissions();
+		} else if (command.equals("stats")) {
+			this.out.setLength(0);
+			this.shards.renderStats(this.out);
+			this.warehouse.renderStats(this.out);
+			this.shards.getContext().renderStats(this.out);
+			System.out.print(this.out);
+			System.out.flush();
 			return false;
-		} else if (command.equals("sergeants")) {
-			this.cof.printSgts();
+		} else if (command.equals("serve")) {
+			this.serve(splitted);
 			return false;
-		} else if (command.equals("warehouse")) {
-			this.warehouse.printWarehouse();
+		} else if (command.equals("allocation")) {
+			if ((splitted.length < 2)
+				    || (!this.warehouse.setAllocation(splitted[1].trim())))
+				System.err.println("ERROR: Usage: allocation <"
+								       + Warehouse.FIFO + "|"
+								       + Warehouse.BACKFILL + ">");
+			return false;
+		} else if (command.equals("deadlocks")) {
+			if ((splitted.length < 2)
+				    || (!this.warehouse.getAnalyzer().setPolicy(splitted[1].trim())))
+				System.err.println("ERROR: Usage: deadlocks <"
+								       + WaitAnalyzer.REPORT + "|"
+								       + WaitAnalyzer.PREEMPT + ">");
+			return false;
+		} else if (command.equals("restock")) {
+			this.restock(splitted);
+			return false;
+		} else if (command.equals("plan")) {
+			this.plan(splitted);
+			return false;
+		} else if (command.equals("sweep")) {
+			this.sweep(splitted);
+			return false;
+		} else if (command.equals("coordinate")) {
+			this.coordinate(splitted);
+			return false;
+		} else if (command.equals("batch")) {
+			this.batch(splitted);
 			return false;
 		} else if (command.equals("addMission")) {
-			Mission mission = parseMission(input);
-			this.board.addMission(mission);
+			ArrayList<Mission> missions = new ArrayList<Mission>(1);
+			missions.add(parseMission(input));
+			this.shards.addMissions(missions);
 			return false;	
 		} else if (command.equals("addSergeant")) {
-			Sergeant sgt = parseSergeant(input);
-			this.cof.addSgt(sgt);
+			ArrayList<SergeantSpec> sgts = new ArrayList<SergeantSpec>(1);
+			sgts.add(parseSergeant(input));
+			this.shards.addSgts(sgts);
+			this.shards.wakeUp();
 			return false;	
 		} else if (command.equals("addItem")) {
 			this.warehouse.addItem(splitted[1], Integer.parseInt(splitted[2]));
 			return false;
-		} else if (command.equals("stop")) {
+		} else if ((command.equals("stop")) || (command.equals("drain"))) {
 			return true;
 		}
 		/* If none: */
@@ -90,6 +199,195 @@ public class Observer extends Thread
 		return false;
 	}
 	
+	/* Starts the control server on the loopback port of "serve <port>" */
+	private void serve(String[] splitted)
+	{
+		if (this.server != null) {
+			System.err.println("ERROR: The control server is already running.");
+			return;
+		}
+		if (splitted.length < 2) {
+			System.err.println("ERROR: Usage: serve <port>");
+			return;
+		}
+		try {
+			this.server = new ControlServer(this.shards, this,
+											Integer.parseInt(splitted[1]));
+			this.server.start();
+			System.out.println("Control server is listening on port "
+							       + this.server.getPort() + ".");
+		} catch (IOException e) {
+			System.err.println("ERROR: Can't start the control server: "
+							       + e.getMessage());
+		} catch (NumberFormatException e) {
+			System.err.println("ERROR: Port \"" + splitted[1] + "\" is invalid.");
+		}
+	}
+	
+	/* Accepts worker processes on the port of "coordinate <port>
+	 * [address]", on the loopback address unless one is given */
+	private void coordinate(String[] splitted)
+	{
+		if (this.coordinator != null) {
+			System.err.println("ERROR: The coordinator is already running.");
+			return;
+		}
+		if (splitted.length < 2) {
+			System.err.println("ERROR: Usage: coordinate <port> [address]");
+			return;
+		}
+		try {
+			this.coordinator = new Coordinator(this.shards,
+					Integer.parseInt(splitted[1]),
+					(splitted.length > 2) ? splitted[2] : null);
+			this.coordinator.start();
+			System.out.println("Coordinator is listening on port "
+							       + this.coordinator.getPort() + ".");
+		} catch (IOException e) {
+			System.err.println("ERROR: Can't start the coordinator: "
+							       + e.getMessage());
+		} catch (NumberFormatException e) {
+			System.err.println("ERROR: Port \"" + splitted[1] + "\" is invalid.");
+		}
+	}
+	
+	/* Adds the restock rule of "restock <item> <amount> every <hours>"
+	 * or "restock <item> <amount> below <threshold> [<lead hours>]" */
+	private void restock(String[] splitted)
+	{
+		Replenisher.Rule rule = null;
+		
+		try {
+			if ((splitted.length >= 5) && (splitted[3].equals("every"))
+				    && (Integer.parseInt(splitted[4]) > 0))
+				rule = Replenisher.Rule.every(splitted[1],
+						Integer.parseInt(splitted[2]), Integer.parseInt(splitted[4]));
+			else if ((splitted.length >= 5) && (splitted[3].equals("below")))
+				rule = Replenisher.Rule.below(splitted[1],
+						Integer.parseInt(splitted[2]), Integer.parseInt(splitted[4]),
+						(splitted.length > 5) ? Integer.parseInt(splitted[5]) : 0);
+		} catch (NumberFormatException e) {
+			rule = null;
+		}
+		if ((rule == null) || (Integer.parseInt(splitted[2]) <= 0)) {
+			System.err.println("ERROR: Usage: restock <item> <amount> every <hours>"
+							       + " | restock <item> <amount> below <threshold>"
+							       + " [<lead hours>]");
+			return;
+		}
+		this.warehouse.getReplenisher().add(rule);
+	}
+	
+	/* Runs the capacity planner of "plan [<extra units>]" on the current
+	 * scenario */
+	private void plan(String[] splitted)
+	{
+		int extra = 1;
+		
+		try {
+			if (splitted.length > 1)
+				extra = Integer.parseInt(splitted[1]);
+		} catch (NumberFormatException e) {
+			System.err.println("ERROR: Usage: plan [<extra units>]");
+			return;
+		}
+		CapacityPlanner planner = new CapacityPlanner(Simulator.capture(this.shards),
+													  extra);
+		planner.plan(this.shards.getContext().getPool());
+		this.out.setLength(0);
+		planner.render(this.out);
+		System.out.print(this.out);
+		System.out.flush();
+	}
+	
+	/* Runs the what-if sweep of "sweep <sergeant>:<parameter>=<value>,...
+	 * ..." on the current scenario */
+	private void sweep(String[] splitted)
+	{
+		Sweep sweep = Sweep.parse(Simulator.capture(this.shards), splitted, 1);
+		if (sweep == null)
+			return;
+		sweep.run(this.shards.getContext().getPool());
+		this.out.setLength(0);
+		sweep.render(this.out);
+		System.out.print(this.out);
+		System.out.flush();
+	}
+	
+	/* Reads a batch of commands and applies it. The batch is read from
+	 * the console until a line that reads "end", from a file with
+	 * "batch file <path>", or from a single connection to a loopback
+	 * port with "batch socket <port>" */
+	private void batch(String[] splitted)
+	{
+		CommandBatch batch = new CommandBatch(this.shards);
+		
+		try {
+			if (splitted.length < 3) {
+				batch.read(this.in);
+			} else if (splitted[1].equals("file")) {
+				BufferedReader file = new BufferedReader(new FileReader(splitted[2]),
+														 1 << 16);
+				try {
+					batch.read(file);
+				} finally {
+					file.close();
+				}
+			} else if (splitted[1].equals("socket")) {
+				ServerSocket server = new ServerSocket(Integer.parseInt(splitted[2]), 1,
+													   InetAddress.getLoopbackAddress());
+				try {
+					System.out.println("Waiting for a batch on port "
+									       + server.getLocalPort() + "...");
+					Socket socket = server.accept();
+					try {
+						batch.read(new BufferedReader(new InputStreamReader(
+								socket.getInputStream()), 1 << 16));
+					} finally {
+						socket.close();
+					}
+				} finally {
+					server.close();
+				}
+			} else {
+				System.err.println("ERROR: Batch source \"" + splitted[1]
+								       + "\" is invalid.");
+				return;
+			}
+		} catch (IOException e) {
+			System.err.println("ERROR: Can't read the batch: " + e.getMessage());
+			return;
+		} catch (NumberFormatException e) {
+			System.err.println("ERROR: Port \"" + splitted[2] + "\" is invalid.");
+			return;
+		}
+		
+		int applied = batch.apply();
+		if (applied >= 0)
+			System.out.println("Batch applied: " + applied + " commands.");
+	}
+	
+	/* Renders the report `command` into the buffer, and writes
+	 * it to the console at once */
+	private void report(String command, Query q)
+	{
+		this.out.setLength(0);
+		if (command.equals("completeMissions"))
+			this.shards.renderCompleteMissions(q, this.out);
+		else if (command.equals("incompleteMissions"))
+			this.shards.renderIncompleteMissions(q, this.out);
+		else if (command.equals("sergeants"))
+			this.shards.renderSgts(q, this.out);
+		else
+			this.warehouse.renderWarehouse(q, this.out);
+		
+		System.out.print(this.out);
+		System.out.flush();
+		/* Don't keep the buffer of one huge report around */
+		if (this.out.capacity() > MAX_BUFFER)
+			this.out = new StringBuilder(4096);
+	}
+	
 	/* Parses the command addItem and it's arguments */
 	private Mission parseMission(String input)
 	{
@@ -109,11 +407,12 @@ public class Observer extends Thread
 		        Utils.stringToArrayList(splitted[2], " ");
 		
 		/* Construct a Mission object */
-		Mission mission = new Mission(name, items, skill, time);
+		Mission mission = new Mission(name, items, skill, time,
+									  this.warehouse.getContext());
 		
 		if (preMissions != null) {
 			for (String preName : preMissions) {
-				Mission pre = this.board.findMission(preName);
+				Mission pre = this.shards.findMission(preName);
 				if (pre == null) {
 					System.err.println("ERROR: Mission \""
 									       + preName + "\" doesn't exist.");
@@ -128,7 +427,7 @@ public class Observer extends Thread
 	}
 	
 	/* Parses the command addSergeant and it's arguments */
-	private Sergeant parseSergeant(String input)
+	private SergeantSpec parseSergeant(String input)
 	{
 		String splitted[] = input.split(",");
 		splitted[0] = splitted[0].trim();
@@ -149,11 +448,8 @@ public class Observer extends Thread
 		
 		ArrayList<String> skills = Utils.stringToArrayList(splitted[1], " ");
 		
-		/* Construct a Sergeant object */
-		Sergeant sgt = new Sergeant(name, maxMissions,
-									workHours, skills,
-									priorityOrder, this.board,
-									this.warehouse, numOfThreads);
-		return sgt;
+		/* Describe the Sergeant; it's built on the board it will serve */
+		return new SergeantSpec(name, numOfThreads, maxMissions,
+								workHours, skills, priorityOrder);
 	}
 }
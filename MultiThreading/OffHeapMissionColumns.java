@@ -0,0 +1,201 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Mission columns outside of the heap, in direct or memory-mapped byte
+ * buffers, so that very large boards put no load on the garbage
+ * collector. The row buffer holds NUM_OF_COLUMNS blocks of `capacity`
+ * ints each, one block per column, and the item buffer holds two blocks
+ * of `itemCapacity` ints. Ints are little endian. A buffer and its
+ * capacity are published together, as one immutable Block, so a reader
+ * that doesn't hold the lock never pairs a grown buffer with an old
+ * capacity. A buffer is indexed by int, so it holds at most MAX_ROWS rows
+ * or MAX_ITEMS items.
+ */
+public class OffHeapMissionColumns extends MissionColumns
+{
+	public static final int MAX_ROWS = Integer.MAX_VALUE / (4 * NUM_OF_COLUMNS);
+	public static final int MAX_ITEMS = Integer.MAX_VALUE / (4 * 2);
+	
+	private volatile Block rowBlock;
+	private volatile Block itemBlock;
+	
+	/**
+	 * Constructs new empty columns in direct buffers.
+	 * @param capacity_ The initial number of rows, at most MAX_ROWS.
+	 */
+	public OffHeapMissionColumns(int capacity_)
+	{
+		this(capacity_, capacity_);
+	}
+	
+	/**
+	 * Constructs new empty columns in direct buffers.
+	 * @param capacity_ The initial number of rows, at most MAX_ROWS.
+	 * @param itemCapacity_ The initial number of items, at most MAX_ITEMS.
+	 */
+	public OffHeapMissionColumns(int capacity_, int itemCapacity_)
+	{
+		this(allocate(NUM_OF_COLUMNS, clamp(capacity_, MAX_ROWS)),
+			 clamp(capacity_, MAX_ROWS),
+			 allocate(2, clamp(itemCapacity_, MAX_ITEMS)),
+			 clamp(itemCapacity_, MAX_ITEMS), 0, 0);
+	}
+	
+	/**
+	 * Constructs columns over existing buffers, e.g. a region of a
+	 * memory-mapped file.
+	 * @param rowBuf_ Holds NUM_OF_COLUMNS blocks of `capacity_` ints.
+	 * @param capacity_ The number of rows that fit in `rowBuf_`.
+	 * @param itemBuf_ Holds 2 blocks of `itemCapacity_` ints.
+	 * @param itemCapacity_ The number of items that fit in `itemBuf_`.
+	 * @param rows_ The number of rows already in the buffers.
+	 * @param numOfItems_ The number of items already in the buffers.
+	 * @throws IllegalArgumentException If a capacity is over MAX_ROWS or
+	 * MAX_ITEMS.
+	 */
+	public OffHeapMissionColumns(ByteBuffer rowBuf_, int capacity_,
+								 ByteBuffer itemBuf_, int itemCapacity_,
+								 int rows_, int numOfItems_)
+	{
+		checkCapacity(capacity_, MAX_ROWS, "rows");
+		checkCapacity(itemCapacity_, MAX_ITEMS, "items");
+		this.rowBlock = new Block(rowBuf_.order(ByteOrder.LITTLE_ENDIAN), capacity_);
+		this.itemBlock = new Block(itemBuf_.order(ByteOrder.LITTLE_ENDIAN),
+								   itemCapacity_);
+		this.rows = rows_;
+		this.numOfItems = numOfItems_;
+	}
+	
+	/**
+	 * Constructs new empty columns in a memory-mapped file. The file
+	 * is created or overwritten. If the columns outgrow the file, they
+	 * move to direct buffers.
+	 * @param file The file.
+	 * @param capacity_ The number of rows.
+	 * @param itemCapacity_ The number of items.
+	 * @return The columns.
+	 * @throws IOException If the file can't be mapped.
+	 */
+	public static OffHeapMissionColumns map(File file, int capacity_,
+											int itemCapacity_)
+			throws IOException
+	{
+		capacity_ = clamp(capacity_, MAX_ROWS);
+		itemCapacity_ = clamp(itemCapacity_, MAX_ITEMS);
+		long rowBytes = 4L * NUM_OF_COLUMNS * capacity_;
+		long itemBytes = 4L * 2 * itemCapacity_;
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer rowBuf_ = channel.map(FileChannel.MapMode.READ_WRITE,
+											 0, rowBytes);
+			ByteBuffer itemBuf_ = channel.map(FileChannel.MapMode.READ_WRITE,
+											  rowBytes, itemBytes);
+			/* The mapping stays valid after the file is closed */
+			return new OffHeapMissionColumns(rowBuf_, capacity_,
+											 itemBuf_, itemCapacity_, 0, 0);
+		} finally {
+			raf.close();
+		}
+	}
+	
+	public int get(int col, int row)
+	{
+		Block b = this.rowBlock;
+		return b.buf.getInt(4 * (col * b.capacity + row));
+	}
+	
+	protected void put(int col, int row, int value)
+	{
+		Block b = this.rowBlock;
+		b.buf.putInt(4 * (col * b.capacity + row), value);
+	}
+	
+	public int getItem(int col, int index)
+	{
+		Block b = this.itemBlock;
+		return b.buf.getInt(4 * (col * b.capacity + index));
+	}
+	
+	protected void putItem(int col, int index, int value)
+	{
+		Block b = this.itemBlock;
+		b.buf.putInt(4 * (col * b.capacity + index), value);
+	}
+	
+	protected void ensureCapacity(int rows_, int items)
+	{
+		Block b = this.rowBlock;
+		if (rows_ > b.capacity) {
+			checkCapacity(rows_, MAX_ROWS, "rows");
+			int grown = (int) Math.min(Math.max(rows_, 2L*b.capacity), MAX_ROWS);
+			this.rowBlock = regrow(b, NUM_OF_COLUMNS, grown, this.rows);
+		}
+		b = this.itemBlock;
+		if (items > b.capacity) {
+			checkCapacity(items, MAX_ITEMS, "items");
+			int grown = (int) Math.min(Math.max(items, 2L*b.capacity), MAX_ITEMS);
+			this.itemBlock = regrow(b, 2, grown, this.numOfItems);
+		}
+	}
+	
+	/* Returns `capacity_` within 1 and `max` */
+	private static int clamp(int capacity_, int max)
+	{
+		return Math.max(1, Math.min(capacity_, max));
+	}
+	
+	/* Throws if `capacity_` doesn't fit in a buffer */
+	private static void checkCapacity(int capacity_, int max, String what)
+	{
+		if (capacity_ > max)
+			throw new IllegalArgumentException("More than " + max + " " + what
+											   + " don't fit in off-heap columns.");
+	}
+	
+	/* Allocates a direct buffer of `blocks` blocks of `capacity_` ints */
+	private static ByteBuffer allocate(int blocks, int capacity_)
+	{
+		return ByteBuffer.allocateDirect(4 * blocks * capacity_)
+				.order(ByteOrder.LITTLE_ENDIAN);
+	}
+	
+	/* Copies the first `used` ints of every block to a larger buffer */
+	private static Block regrow(Block from, int blocks, int newCapacity, int used)
+	{
+		ByteBuffer grown = allocate(blocks, newCapacity);
+		for (int b = 0; b < blocks; ++b)
+			for (int i = 0; i < used; ++i)
+				grown.putInt(4 * (b * newCapacity + i),
+							 from.buf.getInt(4 * (b * from.capacity + i)));
+		return new Block(grown, newCapacity);
+	}
+	
+	/* Nested classes */
+	
+	/*
+	 * A buffer and the number of rows or items that fit in it.
+	 */
+	static final class Block
+	{
+		final ByteBuffer buf;
+		final int 		 capacity;
+		
+		Block(ByteBuffer buf_, int capacity_) {
+			this.buf = buf_;
+			this.capacity = capacity_;
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Periodically samples the sergeants' load and resizes their concurrency,
+ * i.e. the number of shifts each of them may run at once on the shared
+ * scheduler. A sergeant is grown when shifts pile up in its queue while
+ * its threads are not stuck at the warehouse, and shrunk when its threads
+ * mostly wait for items or have nothing to do. The budget is shared by
+ * the controllers of all the boards: a sergeant is grown only after a
+ * thread has been reserved from the context, so the sum of all the
+ * concurrencies never exceeds the threads of all the sergeants.
+ */
+public class PoolController extends Thread
+{
+	public static final int    PERIOD_MILLIS = 1000;
+	public static final double GROW_BLOCKED_SHARE = 0.25;
+	public static final double SHRINK_BLOCKED_SHARE = 0.75;
+
+	private ChiefOfStaff 				cof;
+	private Context 					context;	/* Holds the budget of threads */
+	private HashMap<Sergeant, Sample> 	samples;
+
+	/**
+	 * Constructs a new controller for the sergeants of `cof_`.
+	 * @param cof_ The Chief Of Staff whose sergeants will be controlled.
+	 * @param context_ The context whose budget of threads is shared by
+	 * all the controllers.
+	 */
+	public PoolController(ChiefOfStaff cof_, Context context_)
+	{
+		this.cof = cof_;
+		this.context = context_;
+		this.samples = new HashMap<Sergeant, Sample>();
+		this.setDaemon(true);
+	}
+
+	/**
+	 * The routine of the controller.
+	 */
+	public void run()
+	{
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(PERIOD_MILLIS);
+				this.adjust();
+			}
+		} catch (InterruptedException e) {
+			/* Allow thread to exit */
+		}
+	}
+
+	/**
+	 * Terminates the controller.
+	 */
+	public void cancel()
+	{
+		interrupt();
+	}
+
+	/* Takes a sample of every sergeant and resizes it if needed */
+	private void adjust()
+	{
+		ArrayList<Sergeant> sgts = this.cof.getSergeants();
+
+		for (Sergeant s : sgts) {
+			Sample prev = this.samples.get(s);
+			Sample curr = new Sample(s);
+			this.samples.put(s, curr);
+			if (prev == null)
+				continue;
+
+			long shiftNanos = curr.shiftNanos - prev.shiftNanos;
+			long blockedNanos = curr.blockedNanos - prev.blockedNanos;
+			long shifts = curr.shifts - prev.shifts;
+			double blockedShare = (shiftNanos > 0)
+					? ((double) blockedNanos) / shiftNanos : 0.0;
+			int depth = s.queueDepth();
+			int n = s.getConcurrency();
+			int reserved = 0;
+
+			/* The last growth didn't pay off, take it back */
+			if ((prev.grew) && (shifts < prev.throughput)) {
+				s.setConcurrency(n - 1);
+			} else if ((depth > 0)
+					       && (blockedShare < GROW_BLOCKED_SHARE)
+					       && (n < s.getMaxThreads())
+					       && (this.context.reserveConcurrency())) {
+				reserved = 1;
+				s.setConcurrency(n + 1);
+				curr.grew = true;
+			} else if (((depth == 0) && (shifts == 0))
+					       || (blockedShare > SHRINK_BLOCKED_SHARE)) {
+				s.setConcurrency(n - 1);
+			}
+
+			curr.throughput = shifts;
+			/* The reserved thread is already counted */
+			this.context.addConcurrency(s.getConcurrency() - n - reserved);
+		}
+	}
+
+	/* Nested classes */
+
+	/*
+	 * The counters of a sergeant at a certain moment.
+	 */
+	class Sample
+	{
+		long 	blockedNanos;
+		long 	shiftNanos;
+		long 	shifts;
+		long 	throughput; /* Shifts ended during the last period */
+		boolean grew;		/* True if the pool was grown in this period */
+
+		Sample(Sergeant sgt) {
+			this.blockedNanos = sgt.getBlockedNanos();
+			this.shiftNanos = sgt.getShiftNanos();
+			this.shifts = sgt.getCompletedShifts();
+			this.throughput = 0;
+			this.grew = false;
+		}
+	}
+}
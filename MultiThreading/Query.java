@@ -0,0 +1,156 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+/**
+ * The filter and the page of a reporting command, given as words of
+ * the form key=value after the command:
+ * 	limit=N		Show at most N entries
+ * 	offset=N	Skip the first N entries that match
+ * 	status=S	Only missions whose status is S (FRESH/IN_PROGRESS/DONE)
+ * 	sgt=NAME	Only entries of Sgt. NAME
+ * 	skill=NAME	Only entries that involve skill NAME
+ */
+public class Query
+{
+	private int 	offset;
+	private int 	limit;
+	private Status 	status;	/* null for any status */
+	private String 	sgt;	/* null for any Sgt. */
+	private String 	skill;	/* null for any skill */
+
+	/**
+	 * Constructs a query that matches everything.
+	 */
+	public Query()
+	{
+		this.offset = 0;
+		this.limit = Integer.MAX_VALUE;
+		this.status = null;
+		this.sgt = null;
+		this.skill = null;
+	}
+
+	/**
+	 * Parses a query from the words of a command.
+	 * @param words The words of the command.
+	 * @param first The index of the first word of the query.
+	 * @return The query, or null if one of the words is invalid.
+	 */
+	public static Query parse(String[] words, int first)
+	{
+		Query q = new Query();
+
+		for (int i = first; i < words.length; ++i) {
+			String word = words[i].trim();
+			if (word.equals(""))
+				continue;
+			int eq = word.indexOf('=');
+			if (eq < 0) {
+				System.err.println("ERROR: \"" + word + "\" is not of the form key=value.");
+				return null;
+			}
+			String key = word.substring(0, eq);
+			String value = word.substring(eq + 1);
+			try {
+				if (key.equals("limit"))
+					q.limit = Integer.parseInt(value);
+				else if (key.equals("offset"))
+					q.offset = Integer.parseInt(value);
+				else if (key.equals("status"))
+					q.status = Status.valueOf(value);
+				else if (key.equals("sgt"))
+					q.sgt = value;
+				else if (key.equals("skill"))
+					q.skill = value;
+				else {
+					System.err.println("ERROR: Unknown key \"" + key + "\".");
+					return null;
+				}
+			} catch (IllegalArgumentException e) {
+				System.err.println("ERROR: \"" + value + "\" is invalid for \""
+								       + key + "\".");
+				return null;
+			}
+		}
+		if ((q.limit < 0) || (q.offset < 0)) {
+			System.err.println("ERROR: limit and offset can't be negative.");
+			return null;
+		}
+		return q;
+	}
+
+	/**
+	 *
+	 * @param status_ The status of a mission.
+	 * @return True if missions whose status is `status_` match.
+	 */
+	public boolean matchesStatus(Status status_)
+	{
+		return (this.status == null) || (this.status == status_);
+	}
+
+	/**
+	 *
+	 * @return The name of the Sgt. to filter by, or null.
+	 */
+	public String getSgt()
+	{
+		return this.sgt;
+	}
+
+	/**
+	 *
+	 * @return The skill to filter by, or null.
+	 */
+	public String getSkill()
+	{
+		return this.skill;
+	}
+
+	/**
+	 *
+	 * @param match The index of an entry among the entries that match.
+	 * @return True if the entry is on the requested page.
+	 */
+	public boolean inPage(int match)
+	{
+		return (match >= this.offset) && (match - this.offset < this.limit);
+	}
+
+	/**
+	 * Appends the total of a mission report, and the range that was
+	 * shown if it is not the whole of it.
+	 * @param out The buffer.
+	 * @param total Number of entries that match.
+	 */
+	public void renderTotal(StringBuilder out, int total)
+	{
+		if (total == 0) {
+			out.append("\tNONE.\n\n");
+			return;
+		}
+		out.append("Total: ").append(total).append('\n');
+		this.renderRange(out, total);
+	}
+
+	/**
+	 * Appends the range that was shown, if it is not the whole of the
+	 * report.
+	 * @param out The buffer.
+	 * @param total Number of entries that match.
+	 */
+	public void renderRange(StringBuilder out, int total)
+	{
+		if ((total > 0) && ((this.offset > 0) || (this.limit < total))) {
+			int last = (int) Math.min((long) this.offset + this.limit, total);
+			if ((this.offset >= total) || (this.limit == 0))
+				out.append("Showing none of ").append(total).append(".\n");
+			else
+				out.append("Showing ").append(this.offset + 1).append('-')
+				   .append(last).append(" of ").append(total).append(".\n");
+		}
+	}
+}
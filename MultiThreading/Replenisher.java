@@ -0,0 +1,226 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Restocks the items of the warehouse. A scheduled rule delivers a number
+ * of units every so many hours; a threshold rule orders a number of units
+ * once the current amount of an item falls to a threshold, and they're
+ * delivered after a lead time. A delivery adds to the item as addItem
+ * does, and wakes the boards, whose missions may have waited for it.
+ */
+public class Replenisher extends Thread
+{
+	public static final int TICK_MILLIS = 100;
+	public static final int SLOTS = 256;
+	private static final int WAIT_TIME_MULTIPILICAND = 1000;
+
+	private Warehouse 			   warehouse;
+	private Context 			   context;
+	private volatile Shards 	   shards;
+	private ArrayList<Rule> 	   rules;	/* Guarded by this */
+	private TimerWheel<Rule> 	   wheel;	/* Due deliveries */
+	private AtomicLong 			   deliveries;
+	private AtomicLong 			   units;
+
+	/**
+	 * Constructs a replenisher with no rules.
+	 * @param warehouse_ The warehouse it restocks.
+	 */
+	public Replenisher(Warehouse warehouse_)
+	{
+		this.warehouse = warehouse_;
+		this.context = warehouse_.getContext();
+		this.shards = null;
+		this.rules = new ArrayList<Rule>(0);
+		this.wheel = new TimerWheel<Rule>(TICK_MILLIS, SLOTS);
+		this.deliveries = new AtomicLong(0);
+		this.units = new AtomicLong(0);
+		this.setDaemon(true);
+	}
+
+	/**
+	 * Sets the boards that are woken up by deliveries.
+	 * @param shards_ The boards.
+	 */
+	public void setShards(Shards shards_)
+	{
+		this.shards = shards_;
+	}
+
+	/**
+	 * Adds a rule. The first delivery of a scheduled rule is due a period
+	 * from now.
+	 * @param rule The rule.
+	 */
+	public synchronized void add(Rule rule)
+	{
+		this.rules.add(rule);
+		if (rule.period > 0)
+			this.wheel.schedule(rule, System.currentTimeMillis()
+								    + rule.period * (long) WAIT_TIME_MULTIPILICAND);
+	}
+
+	/**
+	 *
+	 * @return The rules.
+	 */
+	public synchronized ArrayList<Rule> getRules()
+	{
+		return new ArrayList<Rule>(this.rules);
+	}
+
+	/**
+	 * The routine of the replenisher.
+	 */
+	public void run()
+	{
+		ArrayList<Rule> due = new ArrayList<Rule>(0);
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(TICK_MILLIS);
+				due.clear();
+				this.wheel.expire(System.currentTimeMillis(), due);
+				for (Rule rule : due)
+					this.deliver(rule);
+				this.order();
+			}
+		} catch (InterruptedException e) {
+			/* Allow thread to exit */
+		}
+	}
+
+	/**
+	 * Stops the replenisher.
+	 */
+	public void cancel()
+	{
+		interrupt();
+	}
+
+	/* Delivers the units of `rule`, and schedules its next delivery if
+	 * it's a scheduled rule */
+	private void deliver(Rule rule)
+	{
+		this.warehouse.addItem(rule.item, rule.amount);
+		this.deliveries.incrementAndGet();
+		this.units.addAndGet(rule.amount);
+		this.context.log("Item " + rule.item + ": RESTOCKED with "
+						    + rule.amount + " units.");
+
+		synchronized (this) {
+			if (rule.period > 0)
+				this.wheel.schedule(rule, System.currentTimeMillis()
+									    + rule.period * (long) WAIT_TIME_MULTIPILICAND);
+			else
+				rule.ordered = false;
+		}
+		Shards shards_ = this.shards;
+		if (shards_ != null)
+			shards_.wakeUp();
+	}
+
+	/* Orders the units of the threshold rules whose items have fallen to
+	 * their thresholds */
+	private synchronized void order()
+	{
+		for (Rule rule : this.rules) {
+			if ((rule.period > 0) || (rule.ordered))
+				continue;
+			Warehouse.StockItem item =
+					this.warehouse.findItem(this.context.getItems().lookup(rule.item));
+			if ((item != null) && (item.getCurrAmount() > rule.threshold))
+				continue;
+			rule.ordered = true;
+			this.wheel.schedule(rule, System.currentTimeMillis()
+								    + rule.lead * (long) WAIT_TIME_MULTIPILICAND);
+		}
+	}
+
+	/**
+	 * Appends the rules and the deliveries so far.
+	 * @param out The buffer the statistics are appended to.
+	 */
+	public void renderStats(StringBuilder out)
+	{
+		out.append("--RESTOCKS--\n\n");
+		for (Rule rule : this.getRules())
+			out.append(rule).append('\n');
+		out.append("Deliveries:\t").append(this.deliveries.get())
+		   .append(", ").append(this.units.get()).append(" units\n\n");
+	}
+
+	/* Nested classes */
+
+	/**
+	 * A rule of restocking an item.
+	 */
+	public static class Rule
+	{
+		final String 	item;
+		final int 		amount;
+		final int 		period;		/* Hours, or 0 for a threshold rule */
+		final int 		threshold;
+		final int 		lead;		/* Hours from order to delivery */
+		boolean 		ordered;	/* Guarded by the replenisher */
+
+		private Rule(String item_, int amount_, int period_,
+					 int threshold_, int lead_) {
+			this.item = item_;
+			this.amount = amount_;
+			this.period = period_;
+			this.threshold = threshold_;
+			this.lead = lead_;
+			this.ordered = false;
+		}
+
+		/**
+		 * Creates a rule that delivers `amount` units every `period` hours.
+		 * @param item The name of the item.
+		 * @param amount The units of a delivery.
+		 * @param period The hours between deliveries, at least 1.
+		 * @return The rule.
+		 */
+		public static Rule every(String item, int amount, int period)
+		{
+			return new Rule(item, amount, Math.max(1, period), -1, 0);
+		}
+
+		/**
+		 * Creates a rule that orders `amount` units once no more than
+		 * `threshold` units are in the warehouse.
+		 * @param item The name of the item.
+		 * @param amount The units of a delivery.
+		 * @param threshold The amount on which units are ordered.
+		 * @param lead The hours from an order to its delivery.
+		 * @return The rule.
+		 */
+		public static Rule below(String item, int amount, int threshold, int lead)
+		{
+			return new Rule(item, amount, 0, threshold, Math.max(0, lead));
+		}
+
+		/**
+		 *
+		 * @return The name of the item.
+		 */
+		public String getItem() {
+			return this.item;
+		}
+
+		public String toString() {
+			if (this.period > 0)
+				return this.item + ":\t" + this.amount + " units every "
+					   + this.period + " hours";
+			return this.item + ":\t" + this.amount + " units when "
+				   + this.threshold + " or less are left, after "
+				   + this.lead + " hours";
+		}
+	}
+}
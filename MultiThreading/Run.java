@@ -4,57 +4,324 @@
 
 
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Properties;
-import java.util.logging.FileHandler;
-import java.util.logging.Level;
-import java.util.logging.Logger;
-import java.util.logging.SimpleFormatter;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class Run
 {	
-	public static Logger logger;
+	/* A batch run that makes no progress for this long is checked for
+	   missions that can still be done */
+	private static final long STALL_MILLIS = 2000;
+	
+	/* The least rows and items of a board off the heap */
+	private static final int MIN_ROWS = 1024;
+	private static final int MIN_ITEMS = 4096;
 	
 	/**
-	 * 
+	 * Runs the scenario given by three .properties files (missions,
+	 * sergeants, warehouse), an optional mission store and an optional
+	 * number of boards to split the missions into, or by a single
+	 * scenario file. "convert" followed by the three .properties files and
+	 * a path writes them to a scenario file. "worker" followed by the host
+	 * and port of a coordinator and a sergeant (name, threads, max
+	 * missions, work hours, priority order and comma separated skills)
+	 * runs that sergeant as a worker process. "sweep" followed by the
+	 * three .properties files and the dimensions of a Sweep compares the
+	 * variants of the scenario in simulated time, and exits. "batch"
+	 * followed by the arguments of a run of three .properties files runs
+	 * it as a Simulation without an Observer, and exits with its
+	 * statistics once all the missions are done. "check" followed by
+	 * scenario files loads them one after the other in the same context,
+	 * and compares every board with its file.
 	 * @param args 
 	 */
 	public static void main(String args[])
 	{
-		logger = Logger.getLogger("log");
+		if ((args.length > 0) && (args[0].equals("worker"))) {
+			runWorker(args);
+			return;
+		}
+		if ((args.length > 0) && (args[0].equals("sweep"))) {
+			runSweep(args);
+			return;
+		}
+		if ((args.length > 0) && (args[0].equals("batch"))) {
+			runBatch(args);
+			return;
+		}
+		if ((args.length > 0) && (args[0].equals("check"))) {
+			runCheck(args);
+			return;
+		}
+		if ((args.length > 0) && (args[0].equals("convert"))) {
+			if (args.length < 5) {
+				System.err.println("ERROR: Usage: Run convert <missions> "
+								       + "<sergeants> <warehouse> <scenario>");
+				return;
+			}
+			try {
+				ScenarioFile.convert(args[1], args[2], args[3], args[4]);
+			} catch (IOException e) {
+				System.err.println("ERROR: Can't write \"" + args[4] + "\".");
+			}
+			return;
+		}
+		
+		Context context = new Context("main");
 		
 		try {
-			FileHandler handler = new FileHandler("log.txt");
-			handler.setFormatter(new SimpleFormatter());
-			handler.setLevel(Level.FINE);
-			logger.addHandler(handler);
+			context.logTo("log.txt");
 		} catch(IOException e) {
 			System.err.println("ERROR: Can't create log file.");
 		}
 		
-		logger.setLevel(Level.FINE);
+		Warehouse warehouse = new Warehouse(context);
+		Shards shards;
 		
-		Warehouse warehouse = new Warehouse();
-		Board board = new Board();
-		ChiefOfStaff cof = new ChiefOfStaff(board);
-		Observer observer = new Observer(board, cof, warehouse);
+		if (args.length == 1) {
+			ScenarioFile scenario;
+			try {
+				scenario = ScenarioFile.open(args[0]);
+			} catch (IOException e) {
+				System.err.println("ERROR: Can't open scenario file \""
+								       + args[0] + "\".");
+				return;
+			}
+			Board board = new Board(context, scenario.getColumns(context));
+			ChiefOfStaff cof = new ChiefOfStaff(board, warehouse);
+			board.addChief(cof);
+			shards = new Shards(warehouse);
+			shards.add(board, cof);
+			scenario.loadInto(board, cof, warehouse);
+		} else {
+			String store = (args.length > 3) ? args[3] : "heap";
+			int numOfShards = 1;
+			if (args.length > 4) {
+				try {
+					numOfShards = Integer.parseInt(args[4]);
+				} catch (NumberFormatException e) {
+					System.err.println("ERROR: Number of boards \"" + args[4]
+									       + "\" is invalid, using one board.");
+				}
+			}
+			
+			Run run = new Run();
+			ArrayList<Mission> missions = run.readMissions(args[0], context);
+			ArrayList<SergeantSpec> sgts = run.readSergeants(args[1]);
+			shards = Shards.partition(missions, sgts, warehouse,
+									  numOfShards, store);
+			run.readWarehouse(args[2], warehouse);
+		}
 		
-		board.addChief(cof);
+		Observer observer = new Observer(shards);
 		
+		shards.start();
+		observer.start();
+		try {
+			observer.awaitTermination();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/* Runs a sergeant as a worker process of the coordinator given by
+	 * `args` (see main) */
+	private static void runWorker(String args[])
+	{
+		if (args.length < 9) {
+			System.err.println("ERROR: Usage: Run worker <host> <port> <name> "
+							       + "<threads> <maxMissions> <workHours> "
+							       + "<priority> <skill,skill,...>");
+			return;
+		}
+		try {
+			ArrayList<String> skills =
+					new ArrayList<String>(Arrays.asList(args[8].split(",")));
+			SergeantSpec spec = new SergeantSpec(args[3],
+					Integer.parseInt(args[4]), Integer.parseInt(args[5]),
+					Integer.parseInt(args[6]), skills, args[7]);
+			new Worker(spec).work(args[1], Integer.parseInt(args[2]));
+		} catch (NumberFormatException e) {
+			System.err.println("ERROR: Invalid number: " + e.getMessage());
+		} catch (IOException e) {
+			System.err.println("ERROR: Can't reach the coordinator at "
+							       + args[1] + ":" + args[2] + ".");
+		}
+	}
+	
+	/* Runs the sweep given by `args` (see main) over the scenario of the
+	 * three .properties files, without starting it */
+	private static void runSweep(String args[])
+	{
+		if (args.length < 4) {
+			System.err.println("ERROR: Usage: Run sweep <missions> <sergeants> "
+							       + "<warehouse> <sergeant>:<parameter>=<value>,... ...");
+			return;
+		}
+		Context context = new Context("sweep");
 		Run run = new Run();
-		run.readMissions(args[0], board);
-		run.readSergeants(args[1], cof, board, warehouse);
-		run.readWarehouse(args[2], warehouse);
+		Warehouse warehouse = new Warehouse(context);
+		Shards shards = Shards.partition(run.readMissions(args[1], context),
+										 run.readSergeants(args[2]),
+										 warehouse, 1, "heap");
+		run.readWarehouse(args[3], warehouse);
 		
+		Sweep sweep = Sweep.parse(Simulator.capture(shards), args, 4);
+		if (sweep == null)
+			return;
+		sweep.run(context.getPool());
+		context.shutdown();
+		StringBuilder out = new StringBuilder();
+		sweep.render(out);
+		System.out.print(out);
+	}
+	
+	/* Runs the scenario given by `args` (see main) headless, until all
+	 * its missions are done, or until none of those that are left can
+	 * be done */
+	private static void runBatch(String args[])
+	{
+		if (args.length < 4) {
+			System.err.println("ERROR: Usage: Run batch <missions> <sergeants> "
+							       + "<warehouse> [store] [boards]");
+			return;
+		}
+		int numOfShards = 1;
+		if (args.length > 5) {
+			try {
+				numOfShards = Integer.parseInt(args[5]);
+			} catch (NumberFormatException e) {
+				System.err.println("ERROR: Number of boards \"" + args[5]
+								       + "\" is invalid, using one board.");
+			}
+		}
+		Run run = new Run();
+		Simulation.Builder builder = new Simulation.Builder("batch");
+		Simulation sim = builder
+				.missions(run.readMissions(args[1], builder.getContext()))
+				.sergeants(run.readSergeants(args[2]))
+				.store((args.length > 4) ? args[4] : "heap")
+				.boards(numOfShards)
+				.logTo("log.txt")
+				.build();
+		run.readWarehouse(args[3], sim.getWarehouse());
 		
-		cof.start();
-		observer.start();
+		sim.start();
+		try {
+			long progress = -1;
+			for (;;) {
+				try {
+					sim.completion().get(STALL_MILLIS, TimeUnit.MILLISECONDS);
+					break;
+				} catch (TimeoutException e) {
+					if (isStuck(sim, progress)) {
+						System.err.println("ERROR: None of the missions that are "
+										       + "left can be done.");
+						break;
+					}
+					progress = sim.getContext().getProgress();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			System.err.println("ERROR: " + e.getCause().getMessage());
+		}
+		long millis = sim.stop(false);
+		StringBuilder out = new StringBuilder();
+		sim.renderStats(out);
+		out.append("Shutdown time:\t").append(millis).append(" ms\n");
+		System.out.print(out);
 	}
 	
-	private void readWarehouse(String propFile,
-									  Warehouse warehouse)
+	/* Returns true if no shift of `sim` has started or ended since its
+	 * progress was `progress`, none is working, and a model of what is
+	 * left, with the restocks to come, can't do any mission either */
+	private static boolean isStuck(Simulation sim, long progress)
+	{
+		Context context = sim.getContext();
+		
+		if ((context.getProgress() != progress) || (context.hasShiftsWorking()))
+			return false;
+		return Simulator.capture(sim.getShards()).run().getDone() == 0;
+	}
+	
+	/* Loads the scenario files given by `args` (see main) one after the
+	 * other, so that the later ones have their ids translated, and
+	 * compares every board with its file */
+	private static void runCheck(String args[])
+	{
+		if (args.length < 2) {
+			System.err.println("ERROR: Usage: Run check <scenario> <scenario> ...");
+			return;
+		}
+		Context context = new Context("check");
+		Warehouse warehouse = new Warehouse(context);
+		
+		for (int i = 1; i < args.length; ++i) {
+			try {
+				ScenarioFile scenario = ScenarioFile.open(args[i]);
+				Board board = new Board(context, scenario.getColumns(context));
+				ChiefOfStaff cof = new ChiefOfStaff(board, warehouse);
+				board.addChief(cof);
+				scenario.loadInto(board, cof, warehouse);
+				int diffs = scenario.verify(board);
+				System.out.println(args[i] + ":\t" + board.numOfMissions()
+								   + " missions, "
+								   + ((diffs == 0) ? "OK" : diffs + " cells differ"));
+			} catch (IOException e) {
+				System.err.println("ERROR: Can't open scenario file \""
+								       + args[i] + "\".");
+			}
+		}
+		context.shutdown();
+	}
+	
+	/* Creates a board whose missions are kept according to `store`:
+	 * "heap", "offheap" for direct buffers, or "mmap:<file>" for a
+	 * memory-mapped file. Off the heap, the board is sized for `rows`
+	 * missions with `items` items between them, and some room to grow */
+	static Board createBoard(Context context, String store, int rows, int items)
+	{
+		int capacity = Math.max(MIN_ROWS, rows + rows/8);
+		int itemCapacity = Math.max(MIN_ITEMS, items + items/8);
+		
+		if (store.equals("offheap"))
+			return new Board(context,
+							 new OffHeapMissionColumns(capacity, itemCapacity));
+		if (store.startsWith("mmap:")) {
+			try {
+				return new Board(context, OffHeapMissionColumns.map(
+						new File(store.substring(5)), capacity, itemCapacity));
+			} catch (IOException e) {
+				System.err.println("ERROR: Can't map \"" + store.substring(5)
+								       + "\", keeping missions on the heap.");
+			}
+		} else if (!store.equals("heap")) {
+			System.err.println("ERROR: Mission store \"" + store
+							       + "\" is invalid, keeping missions on the heap.");
+		}
+		return new Board(context);
+	}
+	
+	/* Gives the store of shard `i`, which needs a file of its own if
+	 * `store` is a mapped file */
+	static String shardStore(String store, int i)
+	{
+		if (store.startsWith("mmap:"))
+			return store + "." + i;
+		return store;
+	}
+	
+	void readWarehouse(String propFile, Warehouse warehouse)
 	{
 		Properties props = new Properties();
 		
@@ -76,8 +343,7 @@ public class Run
 		}
 	}
 	
-	private void readSergeants(String propFile, ChiefOfStaff cof,
-							   Board board, Warehouse warehouse)
+	ArrayList<SergeantSpec> readSergeants(String propFile)
 	{
 		Properties props = new Properties();
 		
@@ -89,6 +355,7 @@ public class Run
 			
 		String s = props.getProperty("numberOfSergeants");
 		int length = Integer.parseInt(s.trim());
+		ArrayList<SergeantSpec> sgts = new ArrayList<SergeantSpec>(length);
 			
 		for (int i = 0; i < length; ++i)
 		{
@@ -99,6 +366,8 @@ public class Run
 			String sWorkHours =    props.getProperty("s" + i + "WorkHours").trim();
 			String priorityOrder = props.getProperty("s" + i + "PriorityOrder").trim();
 			String sSkills =       props.getProperty("s" + i + "Skills");
+			String sMinThreads =   props.getProperty("s" + i + "MinThreads");
+			String sMaxThreads =   props.getProperty("s" + i + "MaxThreads");
 			
 			/* Convert strings to needed type for Sergeant constructor */
 			
@@ -108,17 +377,25 @@ public class Run
 			
 			ArrayList<String> skills = Utils.stringToArrayList(sSkills, ",");
 			
-			/* Construct a Sergeant object */
-			Sergeant sgt = new Sergeant(name, maxMissions,
-										workHours, skills,
-										priorityOrder, board,
-										warehouse, numOfThreads);
-			cof.addSgt(sgt);
+			/* Describe the Sergeant; it's built on the board it will serve */
+			SergeantSpec sgt = new SergeantSpec(name, numOfThreads,
+												maxMissions, workHours,
+												skills, priorityOrder);
+			
+			/* Bounds for the PoolController are optional */
+			if ((sMinThreads != null) || (sMaxThreads != null)) {
+				int minThreads = (sMinThreads == null) ? -1
+						: Integer.parseInt(sMinThreads.trim());
+				int maxThreads = (sMaxThreads == null) ? -1
+						: Integer.parseInt(sMaxThreads.trim());
+				sgt.setThreadBounds(minThreads, maxThreads);
+			}
+			sgts.add(sgt);
 		}
+		return sgts;
 	}
 	
-	private void readMissions(String propFile,
-			  						 Board board)
+	ArrayList<Mission> readMissions(String propFile, Context context)
 	{
 		Properties props = new Properties();
 		
@@ -133,6 +410,8 @@ public class Run
 		
 		/* A list that for each mission, will hold it's prerequisites missions in strings */
 		ArrayList<MissionPreqs> missionsPreqs = new ArrayList<MissionPreqs>(0);
+		ArrayList<Mission> missions = new ArrayList<Mission>(length);
+		HashMap<String, Mission> byName = new HashMap<String, Mission>();
 		
 		for (int i = 0; i < length; ++i)
 		{
@@ -153,28 +432,32 @@ public class Run
 			
 			/* Construct a Mission object */
 			Mission mission = new Mission(name, items,
-									      reqSkill, time);
+									      reqSkill, time, context);
 			
-			board.addMission(mission);
+			missions.add(mission);
+			byName.put(name, mission);
 			missionsPreqs.add(new MissionPreqs(mission, preMissions));
 		}
 		
 		/* Use the missionPreqs list to fill the prerequisites list
-		 * of each mission in the board with references to all the 
-		 * Mission objects that this mission depends on.
+		 * of each mission with references to all the Mission objects
+		 * that this mission depends on. This has to be done before
+		 * the missions are added to the board.
 		 */
 		for (MissionPreqs mp : missionsPreqs) {
 			if (mp.preqs == null)
 				continue;
 			for (String preName : mp.preqs) {
-				Mission pre = board.findMission(preName);
+				Mission pre = byName.get(preName);
 				if (pre == null) {
 					System.err.println("ERROR: Mission \"" + preName + "\" doesn't exist.");
-					return;
+					continue;
 				}
 				mp.mission.addPre(pre);
 			}
 		}
+		
+		return missions;
 	}
 	
 	/* Represents a mission and a list of its prerequisites mission names */
@@ -5,55 +5,218 @@
 
 
 
+/**
+ * A shift of a mission. The thread that runs it only starts borrowing
+ * the items, and never waits for them: a shift that has to wait is
+ * dispatched again once the warehouse hands it the units. Once it holds
+ * them all, the hours are counted by the ShiftClock, or by a worker
+ * process. The shift ends when its hours are up, or earlier if it's cut
+ * short.
+ */
 public class RunnableMission implements Runnable
 {
 	private static final int WAIT_TIME_MULTIPILICAND = 1000;
-	
+
+	private MissionLease lease;
 	private Mission		mission;
 	private Sergeant 	sgt;
 	private Board 		board;
 	private Warehouse 	warehouse;
-	
+	private Context 	context;
+	private long 		start;		/* System.nanoTime() of the start */
+	private long 		blocked;	/* Nanoseconds waited for the items */
+	private long 		workStart;	/* Time the items were held */
+	private TimerWheel.Timeout<RunnableMission> timeout; /* Local shift */
+	private WorkerLink.Lease remote;	/* Shift of a worker process */
+	private boolean 	working;	/* Guarded by this */
+	private boolean 	ended;		/* Guarded by this */
+
 	/**
-	 * 
-	 * @param mission_ The mission that this thread will execute.
-	 * @param sgt_ The sergeant in command of this thread.
+	 *
+	 * @param lease_ The lease of the shift.
+	 * @param sgt_ The sergeant in command of the shift.
 	 * @param board_ A reference to a Board object.
 	 * @param warehouse_ A reference to a Warehouse object
+	 * @param context_ The context of the simulation.
 	 */
-	public RunnableMission(Mission mission_,
+	public RunnableMission(MissionLease lease_,
 						   Sergeant sgt_,
 						   Board board_,
-						   Warehouse warehouse_)
+						   Warehouse warehouse_,
+						   Context context_)
 	{
-		this.mission = mission_;
+		this.lease = lease_;
+		this.mission = lease_.getMission();
 		this.sgt = sgt_;
 
-		this.board = board_;		
+		this.board = board_;
 		this.warehouse = warehouse_;
+		this.context = context_;
+		this.timeout = null;
+		this.remote = null;
+		this.working = false;
+		this.ended = false;
+	}
+
+	/* Settles the lease and records the hours that have been worked;
+	 * the hours that haven't are offered again */
+	private void updateMissionTime(int hours)
+	{
+		this.lease.settle(hours);
+		if (hours > 0)
+			this.board.updateMissionTime(this.mission, hours);
+		else
+			this.board.wakeUp();
+	}
+
+	/**
+	 * Starts borrowing the items of the shift. Its hours are counted once
+	 * it holds them all.
+	 */
+	public void run()
+	{
+		this.start = System.nanoTime();
+		this.warehouse.releaseItems(this.mission);
+		this.warehouse.borrowItems(this);
+	}
+
+	/**
+	 * Called by the warehouse if the shift is preempted while it borrows
+	 * its items: the shift ends without any work.
+	 */
+	public void borrowFailed()
+	{
+		/* Nothing is held, and no work has been done */
+		this.context.log("Sgt. " + this.sgt.getName() + ": Mission "
+						    + this.mission.getName()
+						    + " INTERRUPTED while waiting for items.");
+		synchronized (this) {
+			this.ended = true;
+		}
+		this.lease.settle(0);
+		this.sgt.getScheduler().shiftEnded(this);
+	}
+
+	/**
+	 * Called by the warehouse once the shift holds all its items: starts
+	 * counting its hours.
+	 */
+	public void itemsBorrowed()
+	{
+		SharedScheduler scheduler = this.sgt.getScheduler();
+
+		this.blocked = System.nanoTime() - this.start;
+
+		WorkerLink link = this.sgt.getLink();
+		boolean failed = false;
+		boolean cut = false;
+		this.context.shiftStarted();
+		if (this.context.hasSubscribers())
+			this.context.publish(Event.shiftStarted(this.mission, this.sgt,
+													this.getHours()));
+		synchronized (this) {
+			/* Working before it's registered, and under the lock of
+			   cutShort, so a shutdown that finds the shift can cut it */
+			this.workStart = System.currentTimeMillis();
+			this.working = true;
+			if (!scheduler.working(this)) {
+				cut = true;
+			} else if (link != null) {
+				this.remote = link.lease(this.mission, this.getHours(), this);
+				failed = (this.remote == null);
+			} else {
+				this.timeout = scheduler.getClock().schedule(this,
+						this.workStart + this.getHours() * (long) WAIT_TIME_MULTIPILICAND);
+			}
+		}
+		if (cut)
+			this.finish(0);
+		else if (failed)
+			this.finish(-1);
+		else
+			this.lease.start(this);
+	}
+
+	/**
+	 * Ends the shift: the items are returned, and the hours that were
+	 * worked are recorded. Called once the hours are up, or by the worker
+	 * process that worked the shift. Only the first call has an effect.
+	 * @param worked The hours that were worked, or -1 if the worker
+	 * process failed.
+	 */
+	public void finish(int worked)
+	{
+		synchronized (this) {
+			if ((this.ended) || (!this.working))
+				return;
+			this.ended = true;
+		}
+		this.warehouse.returnItems(this.mission, this.sgt);
+		if (worked < 0) {
+			this.context.log("Sgt. " + this.sgt.getName() + ": Mission "
+							    + this.mission.getName() + " LEASE FAILED.");
+			worked = 0;
+		}
+		worked = Math.min(worked, this.getHours());
+		if (this.context.hasSubscribers())
+			this.context.publish(Event.shiftEnded(this.mission, this.sgt, worked));
+		this.updateMissionTime(worked);
+		this.sgt.recordShift(this.blocked, System.nanoTime() - this.start);
+		this.context.shiftEnded();
+		this.sgt.getScheduler().shiftEnded(this);
+	}
+
+	/**
+	 * Cuts the shift short, e.g. because it overran its lease or the
+	 * system is shutting down. Only the whole hours that have been
+	 * worked are recorded; a worker process is told to drop the shift,
+	 * and records nothing.
+	 */
+	public void cutShort()
+	{
+		synchronized (this) {
+			if ((this.ended) || (!this.working))
+				return;
+		}
+		if (this.remote != null) {
+			this.sgt.getLink().cancel(this.remote);
+			this.finish(0);
+			return;
+		}
+		if ((this.timeout == null) || (!this.sgt.getScheduler().getClock().cancel(this.timeout)))
+			return; /* The clock is ending it */
+		int hours = (int) ((System.currentTimeMillis() - this.workStart)
+						       / WAIT_TIME_MULTIPILICAND);
+		this.context.log("Sgt. " + this.sgt.getName() + ": Mission "
+						    + this.mission.getName() + " INTERRUPTED after "
+						    + hours + " hours.");
+		this.finish(hours);
 	}
-	
-	/* Updates the time remaining for this mission */
-	private void updateMissionTime()
-	{
-		this.board.updateMissionTime(this.mission, this.sgt.getWorkHours());
-	}
-	
-	/**
-	 * Executes the mission.
-	 */
-	public synchronized void run()
-	{	
-		this.warehouse.borrowItems(this.mission.getItems(),
-								       this.sgt.getName());
-		
-		try {
-			this.wait((this.sgt.getWorkHours()) * WAIT_TIME_MULTIPILICAND);
-		} catch (InterruptedException e) {}
-		
-		this.warehouse.returnItems(this.mission.getItems(),
-								       this.sgt.getName());
-		this.updateMissionTime();
-			
+
+	/**
+	 *
+	 * @return The mission of the shift.
+	 */
+	public Mission getMission()
+	{
+		return this.mission;
+	}
+
+	/**
+	 *
+	 * @return The sergeant in command of the shift.
+	 */
+	public Sergeant getSergeant()
+	{
+		return this.sgt;
+	}
+
+	/**
+	 *
+	 * @return The hours of the shift.
+	 */
+	public int getHours()
+	{
+		return this.lease.getHours();
 	}
 }
@@ -0,0 +1,511 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * A binary scenario file, which is memory-mapped read-only and used in
+ * place: the mission section is laid out exactly as OffHeapMissionColumns
+ * expects, so opening a scenario costs page faults and a bulk copy of the
+ * rows, which the simulation changes, rather than parsing. The board
+ * reads the prerequisites and the dependents straight from the mapping.
+ *
+ * All the numbers are little endian ints. The file consists of:
+ * 	header		magic, version, the counts and the section offsets
+ * 	strings		numOfStrings+1 byte offsets, then UTF-8 bytes. Item
+ * 				names come first (in item id order), then skill names
+ * 				(in skill id order), then all the other names
+ * 	rows		NUM_OF_COLUMNS blocks of numOfMissions ints
+ * 	items		2 blocks of numOfItemEntries ints
+ * 	names		string id of the name of every mission
+ * 	preOffsets	numOfMissions+1 ints, and preIds: the prerequisites
+ * 	depOffsets	numOfMissions+1 ints, and depIds: the dependents
+ * 	sergeants	per sergeant: name, numOfThreads, maxMissions, workHours,
+ * 				priority order, minThreads, maxThreads, number of skills
+ * 				and the skill ids
+ * 	stock		per item: item id and amount
+ */
+public class ScenarioFile
+{
+	public static final int MAGIC = 0x314C5053; /* "SPL1" */
+	public static final int VERSION = 1;
+
+	/* Counts in the header */
+	private static final int MISSIONS = 0;
+	private static final int ITEM_ENTRIES = 1;
+	private static final int PRE_EDGES = 2;
+	private static final int SERGEANTS = 3;
+	private static final int STOCK = 4;
+	private static final int STRINGS = 5;
+	private static final int ITEM_IDS = 6;
+	private static final int SKILL_IDS = 7;
+	private static final int NUM_OF_COUNTS = 8;
+
+	/* Sections, whose offsets follow the counts */
+	private static final int S_STRINGS = 0;
+	private static final int S_ROWS = 1;
+	private static final int S_ITEMS = 2;
+	private static final int S_NAMES = 3;
+	private static final int S_PRE_OFFSETS = 4;
+	private static final int S_PRE_IDS = 5;
+	private static final int S_DEP_OFFSETS = 6;
+	private static final int S_DEP_IDS = 7;
+	private static final int S_SERGEANTS = 8;
+	private static final int S_STOCK = 9;
+	private static final int S_END = 10;
+	private static final int NUM_OF_SECTIONS = 11;
+
+	private static final int HEADER_BYTES = 4 * (2 + NUM_OF_COUNTS)
+											+ 8 * NUM_OF_SECTIONS;
+
+	private int[] 		 counts;
+	private ByteBuffer[] sections;
+
+	/* Opens a mapped file */
+	private ScenarioFile(int[] counts_, ByteBuffer[] sections_)
+	{
+		this.counts = counts_;
+		this.sections = sections_;
+	}
+
+	/**
+	 * Maps a scenario file. The mapping is read-only, so the file may be
+	 * read-only too, and it stays as it is.
+	 * @param path The path of the file.
+	 * @return The scenario.
+	 * @throws IOException If the file can't be read or isn't a scenario.
+	 */
+	public static ScenarioFile open(String path) throws IOException
+	{
+		if (!new File(path).isFile())
+			throw new IOException("\"" + path + "\" doesn't exist.");
+		RandomAccessFile raf = new RandomAccessFile(path, "r");
+
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY,
+											0, HEADER_BYTES)
+									   .order(ByteOrder.LITTLE_ENDIAN);
+			if ((header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION))
+				throw new IOException("\"" + path + "\" is not a scenario file.");
+
+			int[] counts_ = new int[NUM_OF_COUNTS];
+			for (int i = 0; i < NUM_OF_COUNTS; ++i)
+				counts_[i] = header.getInt(8 + 4*i);
+
+			long[] offsets = new long[NUM_OF_SECTIONS];
+			for (int i = 0; i < NUM_OF_SECTIONS; ++i)
+				offsets[i] = header.getLong(8 + 4*NUM_OF_COUNTS + 8*i);
+
+			/* Every section is mapped on its own, so none of them is
+			   limited by the 2GB limit of a single mapping */
+			ByteBuffer[] sections_ = new ByteBuffer[S_END];
+			for (int i = 0; i < S_END; ++i)
+				sections_[i] = channel.map(FileChannel.MapMode.READ_ONLY,
+										   offsets[i],
+										   offsets[i + 1] - offsets[i])
+									  .order(ByteOrder.LITTLE_ENDIAN);
+			return new ScenarioFile(counts_, sections_);
+		} finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of missions in the scenario.
+	 */
+	public int numOfMissions()
+	{
+		return this.counts[MISSIONS];
+	}
+
+	/**
+	 * Gets the mission columns, copied from the mapped file into direct
+	 * buffers, since the simulation changes them. Item and skill ids are
+	 * translated to the ids of the context if they differ, which happens
+	 * only if names were interned in the context before.
+	 * @param context The context of the simulation.
+	 * @return The columns.
+	 */
+	public MissionColumns getColumns(Context context)
+	{
+		int rows = Math.max(1, this.counts[MISSIONS]);
+		int items = Math.max(1, this.counts[ITEM_ENTRIES]);
+		OffHeapMissionColumns columns = new OffHeapMissionColumns(
+				copy(this.sections[S_ROWS]), rows,
+				copy(this.sections[S_ITEMS]), items,
+				this.counts[MISSIONS], this.counts[ITEM_ENTRIES]);
+
+		int[] itemIds = this.internAll(context.getItems(), 0, this.counts[ITEM_IDS]);
+		int[] skillIds = this.internAll(context.getSkills(), this.counts[ITEM_IDS],
+										this.counts[SKILL_IDS]);
+		if (itemIds != null)
+			for (int i = 0; i < this.counts[ITEM_ENTRIES]; ++i)
+				columns.setItem(MissionColumns.ITEM_ID, i,
+								itemIds[columns.getItem(MissionColumns.ITEM_ID, i)]);
+		if (skillIds != null)
+			for (int i = 0; i < this.counts[MISSIONS]; ++i)
+				columns.set(MissionColumns.SKILL, i,
+							skillIds[columns.get(MissionColumns.SKILL, i)]);
+		return columns;
+	}
+
+	/* Copies a read-only section into a direct buffer, in bulk */
+	private static ByteBuffer copy(ByteBuffer section)
+	{
+		ByteBuffer buf = ByteBuffer.allocateDirect(section.capacity())
+								   .order(ByteOrder.LITTLE_ENDIAN);
+		buf.put(section.duplicate());
+		buf.clear();
+		return buf;
+	}
+
+	/* Interns `count` strings starting at `first`, and returns the
+	 * translation of their indices to ids, or null if the ids are
+	 * the indices themselves */
+	private int[] internAll(Interner interner, int first, int count)
+	{
+		int[] ids = new int[count];
+		boolean same = true;
+
+		for (int i = 0; i < count; ++i) {
+			ids[i] = interner.intern(this.string(first + i));
+			if (ids[i] != i)
+				same = false;
+		}
+		return same ? null : ids;
+	}
+
+	/**
+	 * Puts the missions, the sergeants and the stock of the scenario
+	 * into a board, a Chief Of Staff and a warehouse.
+	 * @param board A board that was constructed with getColumns(Context).
+	 * @param cof The Chief Of Staff.
+	 * @param warehouse The warehouse.
+	 */
+	public void loadInto(Board board, ChiefOfStaff cof, Warehouse warehouse)
+	{
+		int n = this.counts[MISSIONS];
+
+		board.adoptRows(n, this,
+						this.ints(S_PRE_OFFSETS), this.ints(S_PRE_IDS),
+						this.ints(S_DEP_OFFSETS), this.ints(S_DEP_IDS));
+
+		ByteBuffer buf = this.sections[S_SERGEANTS];
+		int pos = 0;
+		for (int i = 0; i < this.counts[SERGEANTS]; ++i) {
+			String name = this.string(buf.getInt(pos));
+			int numOfThreads = buf.getInt(pos + 4);
+			int maxMissions = buf.getInt(pos + 8);
+			int workHours = buf.getInt(pos + 12);
+			String priorityOrder = this.string(buf.getInt(pos + 16));
+			int minThreads = buf.getInt(pos + 20);
+			int maxThreads = buf.getInt(pos + 24);
+			int numOfSkills = buf.getInt(pos + 28);
+			ArrayList<String> skills = new ArrayList<String>(numOfSkills);
+			for (int j = 0; j < numOfSkills; ++j)
+				skills.add(this.string(this.counts[ITEM_IDS]
+									   + buf.getInt(pos + 32 + 4*j)));
+			pos += 32 + 4*numOfSkills;
+
+			Sergeant sgt = new Sergeant(name, maxMissions, workHours, skills,
+										priorityOrder, board, warehouse,
+										numOfThreads, warehouse.getContext());
+			sgt.setThreadBounds(minThreads, maxThreads);
+			cof.addSgt(sgt);
+		}
+
+		buf = this.sections[S_STOCK];
+		for (int i = 0; i < this.counts[STOCK]; ++i)
+			warehouse.addItem(this.string(buf.getInt(8*i)),
+							  buf.getInt(8*i + 4));
+	}
+
+	/**
+	 * Compares the missions of a board that was loaded from this scenario
+	 * with the file, by the names of their skills and items, so that ids
+	 * that were translated by getColumns are checked too.
+	 * @param board The board.
+	 * @return The number of cells that differ.
+	 */
+	public int verify(Board board)
+	{
+		MissionColumns columns = board.getColumns();
+		Context context = board.getContext();
+		ByteBuffer rowBuf = this.sections[S_ROWS];
+		ByteBuffer itemBuf = this.sections[S_ITEMS];
+		int rows = Math.max(1, this.counts[MISSIONS]);
+		int items = Math.max(1, this.counts[ITEM_ENTRIES]);
+		int diffs = 0;
+
+		if (board.numOfMissions() != this.counts[MISSIONS])
+			return Math.abs(board.numOfMissions() - this.counts[MISSIONS]);
+		for (int row = 0; row < this.counts[MISSIONS]; ++row) {
+			for (int col : new int[] { MissionColumns.TIME_LEFT,
+									   MissionColumns.INIT_TIME,
+									   MissionColumns.ITEM_COUNT })
+				if (columns.get(col, row) != rowBuf.getInt(4 * (col*rows + row)))
+					++diffs;
+			int skill = rowBuf.getInt(4 * (MissionColumns.SKILL*rows + row));
+			if (!context.getSkills().name(columns.get(MissionColumns.SKILL, row))
+					.equals(this.string(this.counts[ITEM_IDS] + skill)))
+				++diffs;
+
+			int offset = rowBuf.getInt(4 * (MissionColumns.ITEM_OFFSET*rows + row));
+			int boardOffset = columns.get(MissionColumns.ITEM_OFFSET, row);
+			int count = Math.min(columns.get(MissionColumns.ITEM_COUNT, row),
+								 rowBuf.getInt(4 * (MissionColumns.ITEM_COUNT*rows + row)));
+			for (int i = 0; i < count; ++i) {
+				int id = itemBuf.getInt(4 * (MissionColumns.ITEM_ID*items + offset + i));
+				int amount = itemBuf.getInt(
+						4 * (MissionColumns.ITEM_AMOUNT*items + offset + i));
+				if (!context.getItems().name(columns.getItem(MissionColumns.ITEM_ID,
+															 boardOffset + i))
+						.equals(this.string(id)))
+					++diffs;
+				if (columns.getItem(MissionColumns.ITEM_AMOUNT, boardOffset + i) != amount)
+					++diffs;
+			}
+		}
+		return diffs;
+	}
+
+	/**
+	 *
+	 * @param row The row of a mission.
+	 * @return The name of the mission.
+	 */
+	public String missionName(int row)
+	{
+		return this.string(this.sections[S_NAMES].getInt(4*row));
+	}
+
+	/* Decodes string `i` of the string table */
+	private String string(int i)
+	{
+		ByteBuffer buf = this.sections[S_STRINGS];
+		int base = 4 * (this.counts[STRINGS] + 1);
+		int from = buf.getInt(4*i);
+		int to = buf.getInt(4*(i + 1));
+		byte[] bytes = new byte[to - from];
+
+		buf.duplicate().position(base + from).get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/* Returns a view of the ints of a section, in place in the mapping */
+	private IntBuffer ints(int section)
+	{
+		return this.sections[section].duplicate()
+				.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+	}
+
+	/**
+	 * Converts a scenario from the three .properties files that Run
+	 * reads to a scenario file.
+	 * @param missionsFile The missions properties file.
+	 * @param sergeantsFile The sergeants properties file.
+	 * @param warehouseFile The warehouse properties file.
+	 * @param out The path of the scenario file to be written.
+	 * @throws IOException If the scenario file can't be written.
+	 */
+	public static void convert(String missionsFile, String sergeantsFile,
+							   String warehouseFile, String out)
+			throws IOException
+	{
+		Context context = new Context("convert");
+		Warehouse warehouse = new Warehouse(context);
+		Board board = new Board(context);
+		ChiefOfStaff cof = new ChiefOfStaff(board, warehouse);
+		board.addChief(cof);
+
+		Run run = new Run();
+		board.addMissions(run.readMissions(missionsFile, context));
+		for (SergeantSpec spec : run.readSergeants(sergeantsFile))
+			cof.addSgt(spec.build(board, warehouse));
+		run.readWarehouse(warehouseFile, warehouse);
+
+		write(board, cof.getSergeants(), warehouse.getStock(), out);
+	}
+
+	/* Writes a board, its sergeants and the stock of the warehouse */
+	private static void write(Board board, ArrayList<Sergeant> sgts,
+							  ArrayList<Item> stock, String out)
+			throws IOException
+	{
+		int n = board.numOfMissions();
+		MissionColumns columns = board.getColumns();
+		Interner itemNames = board.getContext().getItems();
+		Interner skillNames = board.getContext().getSkills();
+
+		/* Strings: item names, skill names, then the rest */
+		ArrayList<String> strings = new ArrayList<String>();
+		int numOfItemIds = itemNames.size();
+		int numOfSkillIds = skillNames.size();
+		for (int i = 0; i < numOfItemIds; ++i)
+			strings.add(itemNames.name(i));
+		for (int i = 0; i < numOfSkillIds; ++i)
+			strings.add(skillNames.name(i));
+
+		int[] names = new int[n];
+		int numOfItemEntries = 0;
+		for (int i = 0; i < n; ++i) {
+			names[i] = strings.size();
+			strings.add(board.getMission(i).getName());
+			numOfItemEntries += columns.get(MissionColumns.ITEM_COUNT, i);
+		}
+
+		int[] sgtNames = new int[sgts.size()];
+		int[] sgtOrders = new int[sgts.size()];
+		int sgtInts = 0;
+		for (int i = 0; i < sgts.size(); ++i) {
+			sgtNames[i] = strings.size();
+			strings.add(sgts.get(i).getName());
+			sgtOrders[i] = strings.size();
+			strings.add(sgts.get(i).getPriority());
+			sgtInts += 8 + sgts.get(i).getSkills().size();
+		}
+
+		byte[][] encoded = new byte[strings.size()][];
+		long stringBytes = 4L * (strings.size() + 1);
+		for (int i = 0; i < encoded.length; ++i) {
+			encoded[i] = strings.get(i).getBytes(StandardCharsets.UTF_8);
+			stringBytes += encoded[i].length;
+		}
+		stringBytes = (stringBytes + 3) & ~3L; /* Keep the ints aligned */
+
+		/* Prerequisites and dependents */
+		int[][] pres = new int[n][];
+		int[][] deps = new int[n][];
+		int numOfEdges = 0;
+		for (int i = 0; i < n; ++i) {
+			pres[i] = board.getPreIds(i);
+			numOfEdges += pres[i].length;
+		}
+		int[] numOfDeps = new int[n];
+		for (int i = 0; i < n; ++i)
+			for (int p : pres[i])
+				++numOfDeps[p];
+		for (int i = 0; i < n; ++i)
+			deps[i] = new int[numOfDeps[i]];
+		int[] fill = new int[n];
+		for (int i = 0; i < n; ++i)
+			for (int p : pres[i])
+				deps[p][fill[p]++] = i;
+
+		/* Lay the sections out */
+		int rows = Math.max(1, n);
+		int itemCap = Math.max(1, numOfItemEntries);
+		long[] offsets = new long[NUM_OF_SECTIONS];
+		long[] sizes = new long[S_END];
+		sizes[S_STRINGS] = stringBytes;
+		sizes[S_ROWS] = 4L * MissionColumns.NUM_OF_COLUMNS * rows;
+		sizes[S_ITEMS] = 4L * 2 * itemCap;
+		sizes[S_NAMES] = 4L * n;
+		sizes[S_PRE_OFFSETS] = 4L * (n + 1);
+		sizes[S_PRE_IDS] = 4L * numOfEdges;
+		sizes[S_DEP_OFFSETS] = 4L * (n + 1);
+		sizes[S_DEP_IDS] = 4L * numOfEdges;
+		sizes[S_SERGEANTS] = 4L * sgtInts;
+		sizes[S_STOCK] = 8L * stock.size();
+		offsets[0] = HEADER_BYTES;
+		for (int i = 0; i < S_END; ++i)
+			offsets[i + 1] = offsets[i] + sizes[i];
+
+		new File(out).delete();
+		RandomAccessFile raf = new RandomAccessFile(out, "rw");
+		try {
+			FileChannel channel = raf.getChannel();
+
+			ByteBuffer buf = map(channel, 0, HEADER_BYTES);
+			buf.putInt(MAGIC).putInt(VERSION);
+			buf.putInt(n).putInt(numOfItemEntries).putInt(numOfEdges)
+			   .putInt(sgts.size()).putInt(stock.size()).putInt(strings.size())
+			   .putInt(numOfItemIds).putInt(numOfSkillIds);
+			for (long offset : offsets)
+				buf.putLong(offset);
+
+			buf = map(channel, offsets[S_STRINGS], sizes[S_STRINGS]);
+			int from = 0;
+			for (int i = 0; i < encoded.length; ++i) {
+				buf.putInt(from);
+				from += encoded[i].length;
+			}
+			buf.putInt(from);
+			for (byte[] bytes : encoded)
+				buf.put(bytes);
+
+			/* Written through the same class that will read them */
+			OffHeapMissionColumns fileColumns = new OffHeapMissionColumns(
+					map(channel, offsets[S_ROWS], sizes[S_ROWS]), rows,
+					map(channel, offsets[S_ITEMS], sizes[S_ITEMS]), itemCap, 0, 0);
+			for (int i = 0; i < n; ++i) {
+				fileColumns.copyRow(columns, i);
+				fileColumns.set(MissionColumns.SGT, i, -1);
+				fileColumns.set(MissionColumns.IN_MISSION_HOLDER, i, 0);
+				fileColumns.set(MissionColumns.PENDING_PRES, i, pres[i].length);
+			}
+
+			buf = map(channel, offsets[S_NAMES], sizes[S_NAMES]);
+			for (int name : names)
+				buf.putInt(name);
+
+			writeCsr(map(channel, offsets[S_PRE_OFFSETS], sizes[S_PRE_OFFSETS]),
+					 map(channel, offsets[S_PRE_IDS], sizes[S_PRE_IDS]), pres);
+			writeCsr(map(channel, offsets[S_DEP_OFFSETS], sizes[S_DEP_OFFSETS]),
+					 map(channel, offsets[S_DEP_IDS], sizes[S_DEP_IDS]), deps);
+
+			buf = map(channel, offsets[S_SERGEANTS], sizes[S_SERGEANTS]);
+			for (int i = 0; i < sgts.size(); ++i) {
+				Sergeant s = sgts.get(i);
+				ArrayList<String> skills = s.getSkills();
+				buf.putInt(sgtNames[i]).putInt(s.numOfThreads())
+				   .putInt(s.getMaxMissions()).putInt(s.getWorkHours())
+				   .putInt(sgtOrders[i]).putInt(s.getMinThreads())
+				   .putInt(s.getMaxThreads()).putInt(skills.size());
+				for (String skill : skills)
+					buf.putInt(skillNames.lookup(skill));
+			}
+
+			buf = map(channel, offsets[S_STOCK], sizes[S_STOCK]);
+			for (Item item : stock)
+				buf.putInt(item.getId()).putInt(item.getAmount());
+		} finally {
+			raf.close();
+		}
+	}
+
+	/* Maps a region of a file for writing */
+	private static ByteBuffer map(FileChannel channel, long offset, long size)
+			throws IOException
+	{
+		return channel.map(FileChannel.MapMode.READ_WRITE, offset, size)
+					  .order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/* Writes adjacency lists as offsets and ids */
+	private static void writeCsr(ByteBuffer offsets, ByteBuffer ids,
+								 int[][] lists)
+	{
+		int offset = 0;
+		for (int[] list : lists) {
+			offsets.putInt(offset);
+			for (int id : list)
+				ids.putInt(id);
+			offset += list.length;
+		}
+		offsets.putInt(offset);
+	}
+}
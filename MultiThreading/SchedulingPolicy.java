@@ -0,0 +1,48 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+/**
+ * Decides in which order the missions of the Mission Holder are offered
+ * to a sergeant. A policy keeps its own index of the pending missions,
+ * which the Mission Holder keeps up to date.
+ */
+public interface SchedulingPolicy
+{
+	/**
+	 * 
+	 * @return The name of the priority order this policy implements.
+	 */
+	public String getName();
+	
+	/**
+	 * Adds a pending mission to the index.
+	 * @param m The mission.
+	 */
+	public void add(Mission m);
+	
+	/**
+	 * Removes a mission from the index.
+	 * @param m The mission.
+	 */
+	public void remove(Mission m);
+	
+	/**
+	 * Called once before every distribution pass, so that the index can
+	 * account for missions whose keys have changed.
+	 */
+	public void refresh();
+	
+	/**
+	 * Finds the next mission that can be handed to `sgt`.
+	 * @param sgt The sergeant.
+	 * @param after The mission that was returned by the previous call in
+	 * this pass, or null to start from the most preferred mission.
+	 * @return The first mission after `after` that still needs shifts,
+	 * isn't assigned to another sergeant and requires a skill of `sgt`,
+	 * or null if there is none.
+	 */
+	public Mission nextFor(Sergeant sgt, Mission after);
+}
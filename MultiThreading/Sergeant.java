@@ -5,22 +5,38 @@
 
 
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.ArrayList;
+import java.util.BitSet;
 
 public class Sergeant
 {
 	private String 						  name;
+	private int 						  id;		/* Given by the Board */
+	private final int 					  ledgerId;	/* Given by the warehouse */
 	private final int 					  maxMissions;
-	private int 						  currMissions;
+	private int 						  currMissions; /* Shifts running now */
 	private final int 					  workHours;
-	private final ArrayList<String> 	  skills;
+	private final BitSet 				  skills;	/* Indexed by skill id */
 	private final String 				  priorityOrder;
+	private SchedulingPolicy 			  policy;
 	private Board 						  board;
 	private Warehouse 					  warehouse;
-	private ThreadPoolExecutor 			  pool;
+	private final Context 				  context;
+	private SharedScheduler 			  scheduler;
+	private TimerWheel<MissionLease>	  leases;	/* Of the COF */
+	private MissionHolder				  holder;	/* Of the COF */
 	private final BlockingQueue<Runnable> missionQueue;
 	private final int					  numOfThreads;
-	
+	private volatile int				  minThreads;
+	private volatile int				  maxThreads;
+	private volatile int				  concurrency;
+	private int							  deficit; /* Guarded by the scheduler */
+	private final AtomicLong			  blockedNanos;
+	private final AtomicLong			  shiftNanos;
+	private final AtomicLong			  completedShifts;
+	private volatile WorkerLink			  link;	/* null for a local Sgt */
+	private volatile boolean			  retired;
 	
 	/**
 	 * 
@@ -30,34 +46,54 @@ public class Sergeant
 	 * @param workHours_ Number of hours he can work in a sequence.
 	 * @param skills_ List of skills.
 	 * @param priorityOrder_ What kind of missions he prefers the
-	 * best (longestMission, shortestMission, maxItems, minItems).
+	 * best (longestMission, shortestMission, maxItems, minItems,
+	 * criticalPath).
 	 * @param board_ The board object that will be used to update
 	 * missions statuses.
 	 * @param warehouse_ The warehouse object that will be used
 	 * to borrow/return gear.
 	 * @param numOfThreads_ The number of threads this Sgt utilizes.
+	 * @param context_ The context of the simulation.
 	 */
 	public Sergeant(String name_, int maxMissions_,
 					int workHours_, ArrayList<String> skills_,
 					String priorityOrder_, Board board_,
-					Warehouse warehouse_, int numOfThreads_)
+					Warehouse warehouse_, int numOfThreads_,
+					Context context_)
 	{
+		this.context = context_;
 		this.name = name_;
+		this.id = board_.registerSergeant(this);
 		this.maxMissions = maxMissions_;
 		this.workHours = workHours_;
-		this.skills = skills_;
+		this.skills = new BitSet();
+		if (skills_ != null)
+			for (String skill : skills_)
+				this.skills.set(this.context.getSkills().intern(skill.trim()));
 		this.priorityOrder = priorityOrder_;
 		
 		this.board = board_;
 		this.warehouse = warehouse_;
+		this.ledgerId = warehouse_.registerSergeant(name_);
 		
 		this.numOfThreads = numOfThreads_;
 		this.missionQueue =
 				new LinkedBlockingQueue<Runnable>(maxMissions_*workHours_);
 		
-		this.pool = new ThreadPoolExecutor(numOfThreads_, numOfThreads_,
-										   0L, TimeUnit.MILLISECONDS,
-										   this.missionQueue);
+		this.scheduler = null;
+		this.leases = null;
+		this.holder = null;
+		this.currMissions = 0;
+		this.deficit = 0;
+		
+		this.minThreads = 1;
+		this.maxThreads = 2*numOfThreads_;
+		this.concurrency = numOfThreads_;
+		this.blockedNanos = new AtomicLong(0);
+		this.shiftNanos = new AtomicLong(0);
+		this.completedShifts = new AtomicLong(0);
+		this.link = null;
+		this.retired = false;
 	}
 	
 	/**
@@ -67,23 +103,24 @@ public class Sergeant
 	public void handMission(Mission mission)
 	{	
 		
-		RunnableMission rm = new RunnableMission(mission, this,
-												 this.board, this.warehouse);
-		
 		if (mission.getSgt() == null) {
-			Run.logger.fine("Sgt. " + this.getName() + ": Mission "
+			this.context.log("Sgt. " + this.getName() + ": Mission "
 							    + mission.getName() + " STARTED.");
 		}
 		
-		mission.setSgt(this);
-		mission.decCounter(this.workHours);
+		MissionLease lease = new MissionLease(mission, this, this.leases,
+											  this.holder);
+		RunnableMission rm = new RunnableMission(lease, this, this.board,
+												 this.warehouse, this.context);
 		
+		/* Released by the shift when it starts */
+		this.warehouse.reserveItems(mission);
 		try {
-			++this.currMissions;
-			this.pool.execute(rm);
-			--this.currMissions;
+			this.scheduler.submit(this, rm);
 		} catch (RejectedExecutionException e) {
-			if (!this.pool.isShutdown())
+			this.warehouse.releaseItems(mission);
+			lease.settle(0);
+			if (!this.scheduler.isShutdown())
 				System.out.println("Mission rejected.");
 		}
 	}
@@ -94,8 +131,45 @@ public class Sergeant
 	 */
 	public boolean isAvailable()
 	{
-		return (this.currMissions < this.maxMissions)
-			        && (this.missionQueue.remainingCapacity() > 0);
+		return (!this.retired) && (this.missionQueue.remainingCapacity() > 0);
+	}
+	
+	/**
+	 * Makes this sergeant a worker process, whose shifts are leased
+	 * to it over `link_`.
+	 * @param link_ The link to the worker, or null for a local Sgt.
+	 */
+	public void setLink(WorkerLink link_)
+	{
+		this.link = link_;
+	}
+	
+	/**
+	 * 
+	 * @return The link to the worker process of this sergeant, or null
+	 * if it works locally.
+	 */
+	public WorkerLink getLink()
+	{
+		return this.link;
+	}
+	
+	/**
+	 * Retires this sergeant: it isn't handed any more missions. Called
+	 * when its worker process dies.
+	 */
+	public void retire()
+	{
+		this.retired = true;
+	}
+	
+	/**
+	 * 
+	 * @return True if this sergeant has retired.
+	 */
+	public boolean isRetired()
+	{
+		return this.retired;
 	}
 	
 	/**
@@ -107,6 +181,34 @@ public class Sergeant
 		return this.name;
 	}
 	
+	/**
+	 * 
+	 * @return The id of this sergeant.
+	 */
+	public int getId()
+	{
+		return this.id;
+	}
+	
+	/**
+	 * 
+	 * @return The context of the simulation.
+	 */
+	public Context getContext()
+	{
+		return this.context;
+	}
+	
+	/**
+	 * 
+	 * @return The id of this sergeant in the ledgers of the warehouse.
+	 * Unlike the id, it's unique across the boards of all shards.
+	 */
+	public int getLedgerId()
+	{
+		return this.ledgerId;
+	}
+	
 	/**
 	 * 
 	 * @return The work hours of this sergeant.
@@ -116,6 +218,28 @@ public class Sergeant
 		return this.workHours;
 	}
 	
+	/**
+	 * 
+	 * @return Max missions that can be assigned to this sergeant at
+	 * a given time.
+	 */
+	public int getMaxMissions()
+	{
+		return this.maxMissions;
+	}
+	
+	/**
+	 * 
+	 * @return The names of the skills of this sergeant.
+	 */
+	public ArrayList<String> getSkills()
+	{
+		ArrayList<String> names = new ArrayList<String>(this.skills.cardinality());
+		for (int i = this.skills.nextSetBit(0); i >= 0; i = this.skills.nextSetBit(i + 1))
+			names.add(this.context.getSkills().name(i));
+		return names;
+	}
+	
 	/**
 	 * Getter for the priorityOrder
 	 * @return the priority order of this sergeant.
@@ -125,6 +249,37 @@ public class Sergeant
 		return this.priorityOrder;
 	}
 	
+	/**
+	 * Sets the policy that implements the priority order of this Sgt.
+	 * @param policy_ The policy.
+	 */
+	public void setPolicy(SchedulingPolicy policy_)
+	{
+		this.policy = policy_;
+	}
+	
+	/**
+	 * Sets the timer wheel in which the leases of the shifts of this Sgt
+	 * expire, and the Mission Holder under whose lock they're handed.
+	 * @param leases_ The timer wheel of the COF.
+	 * @param holder_ The Mission Holder of the COF.
+	 */
+	public void setLeases(TimerWheel<MissionLease> leases_,
+						  MissionHolder holder_)
+	{
+		this.leases = leases_;
+		this.holder = holder_;
+	}
+	
+	/**
+	 * 
+	 * @return The policy that implements the priority order of this Sgt.
+	 */
+	public SchedulingPolicy getPolicy()
+	{
+		return this.policy;
+	}
+	
 	/**
 	 * 
 	 * @param skill A name of a skill.
@@ -132,10 +287,18 @@ public class Sergeant
 	 */
 	public boolean hasSkill(String skill)
 	{
-		for (String s : this.skills)
-			if (s.equals(skill))
-				return true;
-		return false;
+		int id = this.context.getSkills().lookup(skill.trim());
+		return (id >= 0) && (this.skills.get(id));
+	}
+	
+	/**
+	 * 
+	 * @param skillId The id of a skill.
+	 * @return True of this sergeant has this skill, false otherwise.
+	 */
+	public boolean hasSkill(int skillId)
+	{
+		return this.skills.get(skillId);
 	}
 	
 	/**
@@ -148,12 +311,192 @@ public class Sergeant
 	}
 	
 	/**
-	 * Gets the thread pool.
-	 * @return The ExecutorService.
+	 * 
+	 * @return The scheduler that executes the shifts of this sergeant.
+	 */
+	public SharedScheduler getScheduler()
+	{
+		return this.scheduler;
+	}
+	
+	/**
+	 * Sets the scheduler that executes the shifts of this sergeant.
+	 * @param scheduler_ The scheduler.
+	 */
+	public void setScheduler(SharedScheduler scheduler_)
+	{
+		this.scheduler = scheduler_;
+	}
+	
+	/**
+	 * Sets the bounds within which the PoolController may resize
+	 * this sergeant's concurrency.
+	 * @param min_ Minimal number of threads (at least 1).
+	 * @param max_ Maximal number of threads (at least `min_`).
+	 */
+	public void setThreadBounds(int min_, int max_)
+	{
+		synchronized (this) {
+			this.minThreads = Math.max(1, min_);
+			this.maxThreads = Math.max(this.minThreads, max_);
+		}
+		this.setConcurrency(this.concurrency);
+	}
+	
+	/**
+	 * 
+	 * @return Minimal number of threads this Sgt. may be shrunk to.
+	 */
+	public int getMinThreads()
+	{
+		return this.minThreads;
+	}
+	
+	/**
+	 * 
+	 * @return Maximal number of threads this Sgt. may be grown to.
+	 */
+	public int getMaxThreads()
+	{
+		return this.maxThreads;
+	}
+	
+	/**
+	 * 
+	 * @return The number of threads this Sgt. currently utilizes.
+	 */
+	public int getConcurrency()
+	{
+		return this.concurrency;
+	}
+	
+	/**
+	 * Sets the number of shifts this Sgt. may run at once. The number
+	 * is clamped to the bounds set by setThreadBounds.
+	 * @param n The desired number of threads.
+	 */
+	public void setConcurrency(int n)
+	{
+		synchronized (this) {
+			this.concurrency = Math.max(this.minThreads,
+										Math.min(this.maxThreads, n));
+		}
+		/* A raised quota may let queued shifts start */
+		if (this.scheduler != null)
+			this.scheduler.dispatch();
+	}
+	
+	/**
+	 * 
+	 * @return Number of shifts waiting in the queue of this Sgt.
+	 */
+	public int queueDepth()
+	{
+		return this.missionQueue.size();
+	}
+	
+	/**
+	 * Records the timing of a shift that has just ended.
+	 * @param blocked Nanoseconds spent waiting for warehouse items.
+	 * @param total Nanoseconds the shift took altogether.
+	 */
+	public void recordShift(long blocked, long total)
+	{
+		this.blockedNanos.addAndGet(blocked);
+		this.shiftNanos.addAndGet(total);
+		this.completedShifts.incrementAndGet();
+	}
+	
+	/**
+	 * 
+	 * @return Nanoseconds spent waiting for warehouse items so far.
+	 */
+	public long getBlockedNanos()
+	{
+		return this.blockedNanos.get();
+	}
+	
+	/**
+	 * 
+	 * @return Nanoseconds spent in shifts so far.
+	 */
+	public long getShiftNanos()
+	{
+		return this.shiftNanos.get();
+	}
+	
+	/**
+	 * 
+	 * @return Number of shifts that have ended so far.
+	 */
+	public long getCompletedShifts()
+	{
+		return this.completedShifts.get();
+	}
+	
+	/**
+	 * Queues a shift without blocking. Called by the scheduler.
+	 * @param shift The shift.
+	 * @return False if the queue is full.
+	 */
+	public boolean offerShift(Runnable shift)
+	{
+		return this.missionQueue.offer(shift);
+	}
+	
+	/**
+	 * Removes the next queued shift. Called by the scheduler.
+	 * @return The shift, or null if the queue is empty.
+	 */
+	public Runnable pollShift()
+	{
+		return this.missionQueue.poll();
+	}
+	
+	/**
+	 * 
+	 * @return True if a shift is queued and neither the concurrency
+	 * nor maxMissions quota of this Sgt. is used up.
+	 */
+	public boolean canStartShift()
+	{
+		return (!this.missionQueue.isEmpty())
+			       && (this.currMissions < this.concurrency)
+			       && (this.currMissions < this.maxMissions);
+	}
+	
+	/**
+	 * Counts a shift as running. Called by the scheduler.
+	 */
+	public void shiftStarted()
+	{
+		++this.currMissions;
+	}
+	
+	/**
+	 * Counts a shift as ended. Called by the scheduler.
+	 */
+	public void shiftEnded()
+	{
+		--this.currMissions;
+	}
+	
+	/**
+	 * 
+	 * @return The deficit counter used by the scheduler.
+	 */
+	public int getDeficit()
+	{
+		return this.deficit;
+	}
+	
+	/**
+	 * Sets the deficit counter used by the scheduler.
+	 * @param deficit_ The new value.
 	 */
-	public ExecutorService getPool()
+	public void setDeficit(int deficit_)
 	{
-		return this.pool;
+		this.deficit = deficit_;
 	}
 	
 	/**
@@ -0,0 +1,146 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+
+/**
+ * The description of a sergeant, from which a Sergeant can be built once
+ * it is known on which board it will serve (a Sergeant registers itself
+ * with its board when it's constructed).
+ */
+public class SergeantSpec
+{
+	private String 			  name;
+	private int 			  numOfThreads;
+	private int 			  maxMissions;
+	private int 			  workHours;
+	private ArrayList<String> skills;
+	private String 			  priorityOrder;
+	private int 			  minThreads;	/* -1 for the default bound */
+	private int 			  maxThreads;	/* -1 for the default bound */
+	private WorkerLink 		  link;			/* null for a local Sgt */
+
+	/**
+	 *
+	 * @param name_ The name of the Sgt.
+	 * @param numOfThreads_ The number of threads this Sgt utilizes.
+	 * @param maxMissions_ Max missions that can be assigned to him
+	 * at a given time.
+	 * @param workHours_ Number of hours he can work in a sequence.
+	 * @param skills_ List of skills, or null.
+	 * @param priorityOrder_ What kind of missions he prefers the best.
+	 */
+	public SergeantSpec(String name_, int numOfThreads_, int maxMissions_,
+						int workHours_, ArrayList<String> skills_,
+						String priorityOrder_)
+	{
+		this.name = name_;
+		this.numOfThreads = numOfThreads_;
+		this.maxMissions = maxMissions_;
+		this.workHours = workHours_;
+		this.skills = (skills_ == null) ? new ArrayList<String>(0) : skills_;
+		this.priorityOrder = priorityOrder_;
+		this.minThreads = -1;
+		this.maxThreads = -1;
+		this.link = null;
+	}
+
+	/**
+	 * Sets the bounds of the PoolController. A bound of -1 keeps the
+	 * default of the Sergeant.
+	 * @param min_ Minimal concurrency.
+	 * @param max_ Maximal concurrency.
+	 */
+	public void setThreadBounds(int min_, int max_)
+	{
+		this.minThreads = min_;
+		this.maxThreads = max_;
+	}
+
+	/**
+	 * Makes the Sgt a worker process, whose shifts are leased to it.
+	 * @param link_ The link to the worker.
+	 */
+	public void setLink(WorkerLink link_)
+	{
+		this.link = link_;
+	}
+
+	/**
+	 * Builds the sergeant.
+	 * @param board The board the sergeant will serve.
+	 * @param warehouse The warehouse.
+	 * @return The sergeant.
+	 */
+	public Sergeant build(Board board, Warehouse warehouse)
+	{
+		Sergeant sgt = new Sergeant(this.name, this.maxMissions, this.workHours,
+									this.skills, this.priorityOrder, board,
+									warehouse, this.numOfThreads,
+									warehouse.getContext());
+
+		if ((this.minThreads >= 0) || (this.maxThreads >= 0))
+			sgt.setThreadBounds(
+					(this.minThreads >= 0) ? this.minThreads : sgt.getMinThreads(),
+					(this.maxThreads >= 0) ? this.maxThreads : sgt.getMaxThreads());
+		sgt.setLink(this.link);
+		return sgt;
+	}
+
+	/**
+	 *
+	 * @return The name of the Sgt.
+	 */
+	public String getName()
+	{
+		return this.name;
+	}
+
+	/**
+	 *
+	 * @return The number of threads of the Sgt.
+	 */
+	public int getNumOfThreads()
+	{
+		return this.numOfThreads;
+	}
+
+	/**
+	 *
+	 * @return Max missions that can be assigned to the Sgt at a given time.
+	 */
+	public int getMaxMissions()
+	{
+		return this.maxMissions;
+	}
+
+	/**
+	 *
+	 * @return Number of hours the Sgt can work in a sequence.
+	 */
+	public int getWorkHours()
+	{
+		return this.workHours;
+	}
+
+	/**
+	 *
+	 * @return The skills of the Sgt.
+	 */
+	public ArrayList<String> getSkills()
+	{
+		return this.skills;
+	}
+
+	/**
+	 *
+	 * @return The priority order of the Sgt.
+	 */
+	public String getPriority()
+	{
+		return this.priorityOrder;
+	}
+}
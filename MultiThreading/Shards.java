@@ -0,0 +1,662 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The boards of the system, each with a Chief Of Staff, Mission Holder and
+ * sergeants of its own. Missions that depend on each other are always on
+ * the same board, so boards never wait for each other and are scheduled on
+ * separate threads. The warehouse is shared by all the boards.
+ *
+ * The connected components of the prerequisites graph are packed onto the
+ * boards by their hours of work (longest first, onto the least loaded
+ * board), and every sergeant goes to the board that needs its skills the
+ * most. A board that is left with a skill that none of its sergeants has
+ * is merged into a board that has such a sergeant, so sharding never
+ * leaves a mission that could have been completed stranded.
+ */
+public class Shards
+{
+	private ArrayList<Board> 		boards;
+	private ArrayList<ChiefOfStaff> chiefs;
+	private Warehouse 				warehouse;
+	private AtomicBoolean 			announced; /* All missions complete */
+	private ShiftClock 				clock;	   /* Shared by the boards */
+
+	/**
+	 * Constructs an empty set of shards.
+	 * @param warehouse_ The warehouse shared by the shards.
+	 */
+	public Shards(Warehouse warehouse_)
+	{
+		this.boards = new ArrayList<Board>(1);
+		this.chiefs = new ArrayList<ChiefOfStaff>(1);
+		this.warehouse = warehouse_;
+		this.announced = new AtomicBoolean(false);
+		this.clock = new ShiftClock();
+		warehouse_.getReplenisher().setShards(this);
+	}
+
+	/**
+	 *
+	 * @return The context of the simulation, which is the context of
+	 * the warehouse.
+	 */
+	public Context getContext()
+	{
+		return this.warehouse.getContext();
+	}
+
+	/**
+	 * Adds a shard.
+	 * @param board The board of the shard.
+	 * @param cof The Chief Of Staff of the board.
+	 */
+	public synchronized void add(Board board, ChiefOfStaff cof)
+	{
+		this.boards.add(board);
+		this.chiefs.add(cof);
+		board.setShards(this);
+		cof.setClock(this.clock);
+	}
+
+	/**
+	 *
+	 * @return The number of shards.
+	 */
+	public synchronized int size()
+	{
+		return this.boards.size();
+	}
+
+	/**
+	 *
+	 * @param i The index of a shard.
+	 * @return The board of the shard.
+	 */
+	public synchronized Board getBoard(int i)
+	{
+		return this.boards.get(i);
+	}
+
+	/**
+	 *
+	 * @param i The index of a shard.
+	 * @return The Chief Of Staff of the shard.
+	 */
+	public synchronized ChiefOfStaff getChief(int i)
+	{
+		return this.chiefs.get(i);
+	}
+
+	/**
+	 *
+	 * @return The warehouse.
+	 */
+	public Warehouse getWarehouse()
+	{
+		return this.warehouse;
+	}
+
+	/**
+	 * Splits missions and sergeants into at most `maxShards` shards.
+	 * @param missions Missions that haven't been added to a board yet,
+	 * whose prerequisites are among them.
+	 * @param specs The sergeants.
+	 * @param warehouse The warehouse.
+	 * @param maxShards The maximal number of shards.
+	 * @param store Where the missions of the boards are kept, as in Run.
+	 * @return The shards. Their Chiefs Of Staff haven't been started.
+	 */
+	public static Shards partition(ArrayList<Mission> missions,
+								   ArrayList<SergeantSpec> specs,
+								   Warehouse warehouse, int maxShards,
+								   String store)
+	{
+		ArrayList<Plan> plans = plan(missions, specs, maxShards,
+									 warehouse.getContext().getSkills());
+		Shards shards = new Shards(warehouse);
+
+		for (int i = 0; i < plans.size(); ++i) {
+			Plan p = plans.get(i);
+			int items = 0;
+			for (Mission m : p.missions)
+				items += m.numOfItems();
+			Board board = Run.createBoard(warehouse.getContext(),
+										  (plans.size() == 1) ? store
+										  : Run.shardStore(store, i),
+										  p.missions.size(), items);
+			ChiefOfStaff cof = new ChiefOfStaff(board, warehouse);
+			board.addChief(cof);
+			shards.add(board, cof);
+
+			ArrayList<Sergeant> sgts = new ArrayList<Sergeant>(p.specs.size());
+			for (SergeantSpec spec : p.specs)
+				sgts.add(spec.build(board, warehouse));
+			cof.addSgts(sgts);
+			board.addMissions(p.missions);
+		}
+		return shards;
+	}
+
+	/* Packs the components of the prerequisites graph and the sergeants
+	 * into at most `maxShards` plans, where `skills` gives the ids of the
+	 * skills */
+	private static ArrayList<Plan> plan(ArrayList<Mission> missions,
+										ArrayList<SergeantSpec> specs,
+										int maxShards, Interner skills)
+	{
+		int n = missions.size();
+		HashMap<Mission, Integer> index = new HashMap<Mission, Integer>();
+		int[] parent = new int[n];
+
+		for (int i = 0; i < n; ++i) {
+			index.put(missions.get(i), i);
+			parent[i] = i;
+		}
+		for (int i = 0; i < n; ++i)
+			for (Mission pre : missions.get(i).getStagedPreMissions()) {
+				Integer j = index.get(pre);
+				if (j != null)
+					parent[find(parent, i)] = find(parent, j);
+			}
+
+		/* Components, in the order of their first missions */
+		HashMap<Integer, Plan> byRoot = new HashMap<Integer, Plan>();
+		ArrayList<Plan> components = new ArrayList<Plan>(0);
+		for (int i = 0; i < n; ++i) {
+			int root = find(parent, i);
+			Plan c = byRoot.get(root);
+			if (c == null) {
+				c = new Plan(skills);
+				byRoot.put(root, c);
+				components.add(c);
+			}
+			c.addMission(missions.get(i));
+		}
+
+		int k = Math.max(1, Math.min(maxShards,
+									 Math.min(components.size(), specs.size())));
+		ArrayList<Plan> plans = new ArrayList<Plan>(k);
+		for (int i = 0; i < k; ++i)
+			plans.add(new Plan(skills));
+
+		/* Longest components first, each onto the least loaded plan */
+		Collections.sort(components, new Comparator<Plan>() {
+			public int compare(Plan a, Plan b) {
+				return Long.compare(b.hours, a.hours);
+			}
+		});
+		for (Plan c : components)
+			lightest(plans).merge(c);
+
+		/* Sergeants with more threads first, each where its skills
+		   are needed the most */
+		ArrayList<SergeantSpec> bySize = new ArrayList<SergeantSpec>(specs);
+		Collections.sort(bySize, new Comparator<SergeantSpec>() {
+			public int compare(SergeantSpec a, SergeantSpec b) {
+				return b.getNumOfThreads() - a.getNumOfThreads();
+			}
+		});
+		for (SergeantSpec spec : bySize) {
+			Plan best = null;
+			double bestScore = -1;
+			for (Plan p : plans) {
+				double score = p.score(spec);
+				if (score > bestScore) {
+					best = p;
+					bestScore = score;
+				}
+			}
+			best.addSpec(spec);
+		}
+
+		/* Merge plans that are left with a skill they can't work on */
+		boolean merged = true;
+		while ((merged) && (plans.size() > 1)) {
+			merged = false;
+			for (Plan p : plans) {
+				Plan target = null;
+				BitSet uncovered = p.uncovered();
+				for (int s = uncovered.nextSetBit(0); (s >= 0) && (target == null);
+						 s = uncovered.nextSetBit(s + 1))
+					for (Plan q : plans)
+						if ((q != p) && (q.covered.get(s))
+						        && ((target == null) || (q.hours < target.hours)))
+							target = q;
+				if (target != null) {
+					target.merge(p);
+					plans.remove(p);
+					merged = true;
+					break;
+				}
+			}
+		}
+		return plans;
+	}
+
+	/* Finds the root of `i`, halving the paths on the way */
+	private static int find(int[] parent, int i)
+	{
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+
+	/* Returns the plan with the least hours of work */
+	private static Plan lightest(ArrayList<Plan> plans)
+	{
+		Plan lightest = plans.get(0);
+		for (Plan p : plans)
+			if (p.hours < lightest.hours)
+				lightest = p;
+		return lightest;
+	}
+
+	/**
+	 * Starts the clock of the shifts, the analyzer of the waits at the
+	 * warehouse, its replenisher and the Chiefs Of Staff.
+	 */
+	public synchronized void start()
+	{
+		this.clock.start();
+		this.warehouse.getAnalyzer().start();
+		this.warehouse.getReplenisher().start();
+		for (ChiefOfStaff cof : this.chiefs)
+			cof.start();
+	}
+
+	/**
+	 * Wakes up all the Chiefs Of Staff.
+	 */
+	public synchronized void wakeUp()
+	{
+		for (ChiefOfStaff cof : this.chiefs)
+			cof.wakeUp();
+	}
+
+	/**
+	 * Gets a mission by its name from whichever board it is on.
+	 * @param missionName The name of the mission.
+	 * @return The mission, or null if there is no such mission.
+	 */
+	public Mission findMission(String missionName)
+	{
+		for (Board board : this.copyOfBoards()) {
+			Mission m = board.findMission(missionName);
+			if (m != null)
+				return m;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds missions to the boards. A mission goes to the board of its
+	 * prerequisites; a mission that has none goes to the board with the
+	 * least work left among those that have a sergeant with its skill.
+	 * A mission whose prerequisites are on different boards can't be
+	 * added. Every board that gets missions wakes its COF once.
+	 * @param missions The missions, whose prerequisites are on a board or
+	 * earlier in the list.
+	 * @return The number of missions that were added.
+	 */
+	public int addMissions(ArrayList<Mission> missions)
+	{
+		ArrayList<Board> boards_ = this.copyOfBoards();
+		ArrayList<ArrayList<Mission>> lists = new ArrayList<ArrayList<Mission>>(boards_.size());
+		HashMap<Mission, Integer> local = new HashMap<Mission, Integer>();
+		int added = 0;
+
+		for (int i = 0; i < boards_.size(); ++i)
+			lists.add(new ArrayList<Mission>(0));
+
+		for (Mission m : missions) {
+			int shard = -1;
+			boolean split = false;
+			for (Mission pre : m.getStagedPreMissions()) {
+				Integer preShard = local.get(pre);
+				if (preShard == null)
+					preShard = boards_.indexOf(pre.getBoard());
+				if ((preShard < 0) || ((shard >= 0) && (preShard != shard)))
+					split = true;
+				shard = preShard;
+			}
+			if (split) {
+				System.err.println("ERROR: Mission \"" + m.getName()
+								       + "\" depends on missions of different boards.");
+				continue;
+			}
+			if (shard < 0)
+				shard = this.boardFor(boards_, m.getSkillId());
+			local.put(m, shard);
+			lists.get(shard).add(m);
+			++added;
+		}
+
+		for (int i = 0; i < boards_.size(); ++i)
+			if (!lists.get(i).isEmpty())
+				boards_.get(i).addMissions(lists.get(i));
+		return added;
+	}
+
+	/* Returns the index of the board with the least work left among
+	 * those that have a sergeant with skill `skillId` */
+	private int boardFor(ArrayList<Board> boards_, int skillId)
+	{
+		int best = 0;
+		long bestHours = Long.MAX_VALUE;
+		boolean bestSkilled = false;
+
+		for (int i = 0; i < boards_.size(); ++i) {
+			boolean skilled = this.getChief(i).hasSkill(skillId);
+			long hours = boards_.get(i).hoursLeft();
+			if (((skilled) && (!bestSkilled))
+			        || ((skilled == bestSkilled) && (hours < bestHours))) {
+				best = i;
+				bestHours = hours;
+				bestSkilled = skilled;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Adds sergeants, each to the board that has the most work left
+	 * for its skills per thread. The COFs are not woken up.
+	 * @param specs The sergeants.
+	 * @return The sergeants that were added, in the order of the specs.
+	 */
+	public ArrayList<Sergeant> addSgts(ArrayList<SergeantSpec> specs)
+	{
+		ArrayList<Board> boards_ = this.copyOfBoards();
+		ArrayList<Sergeant> added = new ArrayList<Sergeant>(specs.size());
+
+		for (SergeantSpec spec : specs) {
+			int best = 0;
+			double bestScore = -1;
+			for (int i = 0; i < boards_.size(); ++i) {
+				long hours = 0;
+				for (String skill : spec.getSkills())
+					hours += boards_.get(i).hoursLeftFor(
+							this.warehouse.getContext().getSkills()
+									.intern(skill.trim()));
+				double score = ((double) hours) / (this.getChief(i).numOfThreads() + 1);
+				if (score > bestScore) {
+					best = i;
+					bestScore = score;
+				}
+			}
+			ArrayList<Sergeant> sgts = new ArrayList<Sergeant>(1);
+			sgts.add(spec.build(boards_.get(best), this.warehouse));
+			this.getChief(best).addSgts(sgts);
+			added.addAll(sgts);
+		}
+		return added;
+	}
+
+	/**
+	 * Called by a board whose missions are all complete.
+	 * @return True if this is the first time the missions of all the
+	 * boards are complete.
+	 */
+	public boolean boardComplete()
+	{
+		for (Board board : this.copyOfBoards())
+			if (board.hoursLeft() > 0)
+				return false;
+		return this.announced.compareAndSet(false, true);
+	}
+
+	/**
+	 * Terminates the Chiefs Of Staff.
+	 */
+	public synchronized void cancel()
+	{
+		for (ChiefOfStaff cof : this.chiefs)
+			cof.cancel();
+	}
+
+	/**
+	 * Terminates the sergeants of all the boards at once.
+	 * @return The time the shutdown took in milliseconds.
+	 */
+	public long shutDownSgts()
+	{
+		return this.terminate(false);
+	}
+
+	/**
+	 * Terminates the sergeants of all the boards after their queued
+	 * shifts have ended.
+	 * @return The time the shutdown took in milliseconds.
+	 */
+	public long drainSgts()
+	{
+		return this.terminate(true);
+	}
+
+	/* Terminates the boards in parallel, so that one board's shifts
+	 * don't hold up the others, and then stops the clock, the analyzer
+	 * and the replenisher */
+	private long terminate(final boolean drain)
+	{
+		long start = System.currentTimeMillis();
+		ArrayList<Thread> threads = new ArrayList<Thread>(0);
+
+		for (final ChiefOfStaff cof : this.copyOfChiefs()) {
+			Thread t = new Thread() {
+				public void run() {
+					if (drain)
+						cof.drainSgts();
+					else
+						cof.shutDownSgts();
+				}
+			};
+			t.start();
+			threads.add(t);
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		this.clock.cancel();
+		this.warehouse.getAnalyzer().cancel();
+		this.warehouse.getReplenisher().cancel();
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Appends a page of the complete missions of all the boards.
+	 * @param q The filter and the page.
+	 * @param out The buffer the report is appended to.
+	 */
+	public void renderCompleteMissions(Query q, StringBuilder out)
+	{
+		int total = 0;
+
+		out.append("--COMPLETE MISSIONS--\n\n");
+		for (Board board : this.copyOfBoards())
+			total += board.renderCompleteMissions(q, total, out);
+		q.renderTotal(out, total);
+	}
+
+	/**
+	 * Appends a page of the incomplete missions of all the boards.
+	 * @param q The filter and the page.
+	 * @param out The buffer the report is appended to.
+	 */
+	public void renderIncompleteMissions(Query q, StringBuilder out)
+	{
+		int total = 0;
+
+		out.append("--INCOMPLETE MISSIONS--\n\n");
+		for (Board board : this.copyOfBoards())
+			total += board.renderIncompleteMissions(q, total, out);
+		q.renderTotal(out, total);
+	}
+
+	/**
+	 * Appends a page of the sergeants of all the boards.
+	 * @param q The filter and the page.
+	 * @param out The buffer the report is appended to.
+	 */
+	public void renderSgts(Query q, StringBuilder out)
+	{
+		int total = 0;
+
+		out.append("--SERGEANTS--\n\n");
+		for (ChiefOfStaff cof : this.copyOfChiefs())
+			total += cof.renderSgts(q, total, out);
+		out.append('\n');
+		q.renderRange(out, total);
+	}
+
+	/**
+	 * Appends the number of missions in every status, the hours of
+	 * work left, and the hours of work left for every skill, summed
+	 * over the boards.
+	 * @param out The buffer the statistics are appended to.
+	 */
+	public void renderStats(StringBuilder out)
+	{
+		ArrayList<Board> boards_ = this.copyOfBoards();
+		long hours = 0;
+
+		out.append("--MISSIONS--\n\n");
+		for (Status status : Status.values()) {
+			int cnt = 0;
+			for (Board board : boards_)
+				cnt += board.countMissions(status);
+			out.append(status).append(":\t").append(cnt).append('\n');
+		}
+		for (Board board : boards_)
+			hours += board.hoursLeft();
+		out.append("Hours Left:\t").append(hours)
+		   .append("\n\nHours Left by Skill:\n");
+		Interner skills = this.warehouse.getContext().getSkills();
+		for (int i = 0; i < skills.size(); ++i) {
+			long skillHours = 0;
+			for (Board board : boards_)
+				skillHours += board.hoursLeftFor(i);
+			if (skillHours > 0)
+				out.append('\t').append(skills.name(i)).append(": ")
+				   .append(skillHours).append('\n');
+		}
+		if (boards_.size() > 1) {
+			out.append("\nHours Left by Board:\n");
+			for (int i = 0; i < boards_.size(); ++i)
+				out.append("\tBoard ").append(i).append(": ")
+				   .append(boards_.get(i).hoursLeft()).append('\n');
+		}
+		out.append('\n');
+	}
+
+	/* Copies the boards, so they can be used without holding the lock */
+	private synchronized ArrayList<Board> copyOfBoards()
+	{
+		return new ArrayList<Board>(this.boards);
+	}
+
+	/* Copies the Chiefs Of Staff */
+	private synchronized ArrayList<ChiefOfStaff> copyOfChiefs()
+	{
+		return new ArrayList<ChiefOfStaff>(this.chiefs);
+	}
+
+	/* Nested classes */
+
+	/*
+	 * The missions and sergeants that will make up a shard.
+	 */
+	static class Plan
+	{
+		ArrayList<Mission> 		missions;
+		ArrayList<SergeantSpec> specs;
+		long 					hours;
+		long[] 					skillHours; /* Indexed by skill id */
+		BitSet 					covered;	/* Skills of the sergeants */
+		int 					threads;
+		Interner 				skills;		/* Ids of the skills */
+
+		Plan(Interner skills_) {
+			this.missions = new ArrayList<Mission>(0);
+			this.specs = new ArrayList<SergeantSpec>(0);
+			this.hours = 0;
+			this.skillHours = new long[0];
+			this.covered = new BitSet();
+			this.threads = 0;
+			this.skills = skills_;
+		}
+
+		void addMission(Mission m) {
+			this.missions.add(m);
+			this.addHours(m.getSkillId(), m.timeLeft());
+		}
+
+		void addHours(int skill, long h) {
+			if (skill >= this.skillHours.length) {
+				long[] grown = new long[Math.max(skill + 1, 2*this.skillHours.length)];
+				System.arraycopy(this.skillHours, 0, grown, 0, this.skillHours.length);
+				this.skillHours = grown;
+			}
+			this.skillHours[skill] += h;
+			this.hours += h;
+		}
+
+		void addSpec(SergeantSpec spec) {
+			this.specs.add(spec);
+			this.threads += spec.getNumOfThreads();
+			for (String skill : spec.getSkills())
+				this.covered.set(this.skills.intern(skill.trim()));
+		}
+
+		void merge(Plan other) {
+			this.missions.addAll(other.missions);
+			for (int s = 0; s < other.skillHours.length; ++s)
+				if (other.skillHours[s] > 0)
+					this.addHours(s, other.skillHours[s]);
+			for (SergeantSpec spec : other.specs)
+				this.addSpec(spec);
+		}
+
+		/* Skills that some missions need and no sergeant has */
+		BitSet uncovered() {
+			BitSet skills = new BitSet();
+			for (int s = 0; s < this.skillHours.length; ++s)
+				if ((this.skillHours[s] > 0) && (!this.covered.get(s)))
+					skills.set(s);
+			return skills;
+		}
+
+		/* How much this plan needs `spec`: work that no sergeant of the
+		 * plan can do counts far more than work per thread */
+		double score(SergeantSpec spec) {
+			double uncoveredHours = 0;
+			double hoursForSkills = 0;
+			for (String skill : spec.getSkills()) {
+				int s = this.skills.intern(skill.trim());
+				if (s >= this.skillHours.length)
+					continue;
+				hoursForSkills += this.skillHours[s];
+				if (!this.covered.get(s))
+					uncoveredHours += this.skillHours[s];
+			}
+			return uncoveredHours * 1e6 + hoursForSkills / (this.threads + 1);
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single thread pool that executes the shifts of all the sergeants of
+ * a simulation, on all its boards. Every sergeant keeps its own queue of
+ * shifts, and the scheduler picks the next shift to run by deficit
+ * round-robin: on each visit a sergeant earns a quantum equal to its
+ * current concurrency, and running a shift costs its work hours. A
+ * sergeant never runs more shifts at once than its concurrency or its
+ * maxMissions.
+ *
+ * A thread of the pool only borrows the items of a shift, and never
+ * waits for them: a shift that waits in the line of an item gives its
+ * thread back, and is resumed once the warehouse hands it the units. The
+ * shift then works on the ShiftClock. Threads are thus only ever busy,
+ * and the pool has one per core.
+ */
+public class SharedScheduler
+{
+	private ThreadPoolExecutor 	pool;
+	private ArrayList<Sergeant> sergeants;
+	private int 				cursor;	  /* Index of the sergeant that is
+										     visited next */
+	private int 				workers;
+	private int 				busy;	  /* Number of threads in use */
+	private int 				inFlight; /* Number of shifts executing */
+	private HashSet<RunnableMission> working; /* Shifts on the clock */
+	private ShiftClock 			clock;
+	private boolean 			shutdown;
+	private boolean 			draining; /* Queued shifts still run, but
+										     no new ones are accepted */
+
+	/**
+	 * Constructs a new scheduler. Its threads are started as shifts come.
+	 * @param workers_ Number of threads (at least 1).
+	 */
+	public SharedScheduler(int workers_)
+	{
+		workers_ = Math.max(1, workers_);
+		this.pool = new ThreadPoolExecutor(workers_, workers_,
+										   0L, TimeUnit.MILLISECONDS,
+										   new LinkedBlockingQueue<Runnable>());
+		this.sergeants = new ArrayList<Sergeant>(0);
+		this.cursor = 0;
+		this.workers = workers_;
+		this.busy = 0;
+		this.inFlight = 0;
+		this.working = new HashSet<RunnableMission>();
+		this.clock = null;
+		this.shutdown = false;
+		this.draining = false;
+	}
+
+	/**
+	 * Registers a sergeant whose shifts will be executed by this scheduler.
+	 * @param sgt The sergeant.
+	 */
+	public synchronized void register(Sergeant sgt)
+	{
+		this.sergeants.add(sgt);
+		sgt.setScheduler(this);
+	}
+
+	/**
+	 * Sets the clock on which the shifts work.
+	 * @param clock_ The clock.
+	 */
+	public void setClock(ShiftClock clock_)
+	{
+		this.clock = clock_;
+	}
+
+	/**
+	 *
+	 * @return The clock on which the shifts work.
+	 */
+	public ShiftClock getClock()
+	{
+		return this.clock;
+	}
+
+	/**
+	 * Sets the number of worker threads.
+	 * @param n Number of threads (at least 1).
+	 */
+	public synchronized void setWorkers(int n)
+	{
+		n = Math.max(1, n);
+		/* Core size may never exceed max size, so the order matters */
+		if (n > this.pool.getMaximumPoolSize()) {
+			this.pool.setMaximumPoolSize(n);
+			this.pool.setCorePoolSize(n);
+		} else {
+			this.pool.setCorePoolSize(n);
+			this.pool.setMaximumPoolSize(n);
+		}
+		this.workers = n;
+		this.dispatch();
+	}
+
+	/**
+	 * Queues a shift of `sgt` for execution.
+	 * @param sgt The sergeant in command of the shift.
+	 * @param shift The shift.
+	 * @throws RejectedExecutionException If the scheduler has been shut
+	 * down or the queue of the sergeant is full.
+	 */
+	public synchronized void submit(Sergeant sgt, Runnable shift)
+	{
+		if ((this.shutdown) || (this.draining))
+			throw new RejectedExecutionException("Scheduler is shut down.");
+		if (!sgt.offerShift(shift))
+			throw new RejectedExecutionException("Queue of Sgt. "
+												 + sgt.getName() + " is full.");
+		this.dispatch();
+	}
+
+	/**
+	 * Hands queued shifts to idle worker threads.
+	 */
+	public synchronized void dispatch()
+	{
+		while ((!this.shutdown) && (this.busy < this.workers)) {
+			Sergeant sgt = this.nextSergeant();
+			if (sgt == null)
+				return;
+			Runnable shift = sgt.pollShift();
+			sgt.shiftStarted();
+			++this.busy;
+			++this.inFlight;
+			this.pool.execute(new Shift(shift));
+		}
+	}
+
+	/**
+	 * Executes the rest of a shift that has been dispatched already,
+	 * e.g. once the items it waited for are handed to it. It goes ahead
+	 * of the queued shifts, since it holds items.
+	 * @param task The rest of the shift.
+	 * @throws RejectedExecutionException If the pool has been shut down.
+	 */
+	public void resume(Runnable task)
+	{
+		synchronized (this) {
+			++this.busy;
+		}
+		try {
+			this.pool.execute(new Shift(task));
+		} catch (RejectedExecutionException e) {
+			this.threadReleased();
+			throw e;
+		}
+	}
+
+	/* Picks the sergeant whose shift should run next, or null if
+	 * no sergeant can run a shift right now */
+	private Sergeant nextSergeant()
+	{
+		boolean eligible = false;
+
+		for (Sergeant s : this.sergeants)
+			if (s.canStartShift())
+				eligible = true;
+		if (!eligible)
+			return null;
+
+		/* Some sergeant is eligible, so its deficit will eventually
+		   cover its cost */
+		for (;;) {
+			if (this.cursor >= this.sergeants.size())
+				this.cursor = 0;
+			Sergeant s = this.sergeants.get(this.cursor);
+			if (!s.canStartShift()) {
+				if (s.queueDepth() == 0)
+					s.setDeficit(0);
+				++this.cursor;
+				continue;
+			}
+			if (s.getDeficit() >= s.getWorkHours()) {
+				s.setDeficit(s.getDeficit() - s.getWorkHours());
+				return s;
+			}
+			s.setDeficit(s.getDeficit() + s.getConcurrency());
+			++this.cursor;
+		}
+	}
+
+	/* Called by a worker thread when it's done with a shift */
+	private synchronized void threadReleased()
+	{
+		--this.busy;
+		this.dispatch();
+	}
+
+	/**
+	 * Counts a shift as working on the clock, so that it's cut short if
+	 * the scheduler shuts down.
+	 * @param shift The shift.
+	 * @return False if the scheduler has shut down, in which case the
+	 * shift shouldn't work.
+	 */
+	public synchronized boolean working(RunnableMission shift)
+	{
+		if (this.shutdown)
+			return false;
+		this.working.add(shift);
+		return true;
+	}
+
+	/**
+	 * Called when a shift ends.
+	 * @param shift The shift.
+	 */
+	public synchronized void shiftEnded(RunnableMission shift)
+	{
+		this.working.remove(shift);
+		shift.getSergeant().shiftEnded();
+		--this.inFlight;
+		this.dispatch();
+		this.notifyAll(); /* Wake up awaitDrained */
+	}
+
+	/**
+	 * Disables new shifts from being submitted and dispatched, and cuts
+	 * the shifts that are working short.
+	 */
+	public void shutdown()
+	{
+		ArrayList<RunnableMission> cut;
+
+		synchronized (this) {
+			this.shutdown = true;
+			for (Sergeant s : this.sergeants)
+				s.clearQueue();
+			cut = new ArrayList<RunnableMission>(this.working);
+		}
+		for (RunnableMission shift : cut)
+			shift.cutShort();
+	}
+
+	/**
+	 * Disables new shifts from being submitted, while the queued
+	 * shifts keep being dispatched.
+	 */
+	public synchronized void drain()
+	{
+		this.draining = true;
+	}
+
+	/**
+	 * Waits until no shift is queued or executing.
+	 * @param millis Maximal time to wait in milliseconds.
+	 * @return True if all the shifts have ended, false on timeout.
+	 * @throws InterruptedException If the thread is interrupted while waiting.
+	 */
+	public synchronized boolean awaitDrained(long millis)
+			throws InterruptedException
+	{
+		long deadline = System.currentTimeMillis() + millis;
+
+		for (;;) {
+			boolean drained = (this.inFlight == 0);
+			for (Sergeant s : this.sergeants)
+				if (s.queueDepth() > 0)
+					drained = false;
+			if (drained)
+				return true;
+
+			long left = deadline - System.currentTimeMillis();
+			if (left <= 0)
+				return false;
+			this.wait(left);
+		}
+	}
+
+	/**
+	 * 
+	 * @return True if the scheduler has been shut down or is draining.
+	 */
+	public synchronized boolean isShutdown()
+	{
+		return (this.shutdown) || (this.draining);
+	}
+
+	/**
+	 * Gets the thread pool.
+	 * @return The ExecutorService.
+	 */
+	public ExecutorService getPool()
+	{
+		return this.pool;
+	}
+
+	/* Nested classes */
+
+	/*
+	 * A shift which gives its thread back to the scheduler once it has
+	 * started working.
+	 */
+	class Shift implements Runnable
+	{
+		private Runnable shift;
+
+		Shift(Runnable shift_) {
+			this.shift = shift_;
+		}
+
+		public void run() {
+			try {
+				this.shift.run();
+			} finally {
+				threadReleased();
+			}
+		}
+	}
+}
@@ -0,0 +1,81 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+
+/**
+ * Ends the shifts that are working. A shift that holds its items is
+ * scheduled in a timer wheel, and its thread goes back to the pool; this
+ * single thread ticks the wheel and ends the shifts whose hours are up,
+ * so any number of shifts can work at once on a handful of threads.
+ */
+public class ShiftClock extends Thread
+{
+	public static final int TICK_MILLIS = 20;
+	public static final int SLOTS = 1024;
+
+	private TimerWheel<RunnableMission> wheel;
+
+	/**
+	 * Constructs a clock that isn't ticking yet.
+	 */
+	public ShiftClock()
+	{
+		this.wheel = new TimerWheel<RunnableMission>(TICK_MILLIS, SLOTS);
+		this.setDaemon(true);
+	}
+
+	/**
+	 * Schedules the end of a shift.
+	 * @param shift The shift.
+	 * @param deadlineMillis The time on which the shift ends.
+	 * @return The timeout, which may be cancelled to end the shift early.
+	 */
+	public TimerWheel.Timeout<RunnableMission> schedule(RunnableMission shift,
+														long deadlineMillis)
+	{
+		return this.wheel.schedule(shift, deadlineMillis);
+	}
+
+	/**
+	 * Cancels the end of a shift.
+	 * @param timeout The timeout of the shift.
+	 * @return True if cancelled, false if the shift has ended already.
+	 */
+	public boolean cancel(TimerWheel.Timeout<RunnableMission> timeout)
+	{
+		return this.wheel.cancel(timeout);
+	}
+
+	/**
+	 * The routine of the clock.
+	 */
+	public void run()
+	{
+		ArrayList<RunnableMission> ended = new ArrayList<RunnableMission>(0);
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(TICK_MILLIS);
+				ended.clear();
+				this.wheel.expire(System.currentTimeMillis(), ended);
+				for (RunnableMission shift : ended)
+					shift.finish(shift.getHours());
+			}
+		} catch (InterruptedException e) {
+			/* Allow thread to exit */
+		}
+	}
+
+	/**
+	 * Stops the clock. Shifts that are still working are ended by their
+	 * schedulers.
+	 */
+	public void cancel()
+	{
+		interrupt();
+	}
+}
@@ -0,0 +1,522 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Function;
+
+/**
+ * A simulation that is embedded in another program. It's set up from
+ * objects in memory with a Builder, and runs without an Observer:
+ *
+ * 	Simulation sim = new Simulation.Builder("drill")
+ * 			.item("rifle", 3)
+ * 			.sergeant(new SergeantSpec("Bob", 2, 3, 1, skills, "shortestMission"))
+ * 			.mission("alpha", "shooting", 4, "rifle,2")
+ * 			.mission("beta", "shooting", 2, "rifle,1", "alpha")
+ * 			.onEvent(listener)
+ * 			.build();
+ * 	sim.start();
+ * 	sim.completion().get();
+ * 	sim.stop(false);
+ *
+ * Missions, sergeants and items may be submitted while it runs. Its
+ * events are published to Flow subscribers, and to listeners, which are
+ * called on the pool of its context, never on the threads of the shifts.
+ */
+public class Simulation
+{
+	private final Context 	 context;
+	private final Warehouse  warehouse;
+	private final Shards 	 shards;
+	private final CompletableFuture<Simulation> completion;
+	private boolean 		 started;	/* Guarded by this */
+	private boolean 		 stopped;	/* Guarded by this */
+
+	private Simulation(Context context_, Warehouse warehouse_, Shards shards_)
+	{
+		final Simulation self = this;
+
+		this.context = context_;
+		this.warehouse = warehouse_;
+		this.shards = shards_;
+		this.completion = context_.getCompletion().thenApply(
+				new Function<Context, Simulation>() {
+					public Simulation apply(Context c) {
+						return self;
+					}
+				});
+		this.started = false;
+		this.stopped = false;
+	}
+
+	/**
+	 * Starts the simulation, once. A simulation that has no work is
+	 * complete as soon as it starts.
+	 */
+	public synchronized void start()
+	{
+		if ((this.started) || (this.stopped))
+			return;
+		this.started = true;
+		this.shards.start();
+		if (this.shards.boardComplete())
+			this.context.allDone();
+	}
+
+	/**
+	 * Stops the simulation, once.
+	 * @param drain True if the queued shifts should run first, false
+	 * if they should be discarded.
+	 * @return The time the shutdown took in milliseconds.
+	 */
+	public long stop(boolean drain)
+	{
+		synchronized (this) {
+			if ((!this.started) || (this.stopped))
+				return 0;
+			this.stopped = true;
+		}
+		this.shards.cancel();
+		long millis = drain ? this.shards.drainSgts() : this.shards.shutDownSgts();
+		this.context.shutdown();
+		return millis;
+	}
+
+	/**
+	 * Submits missions. Their prerequisites must be on a board, or
+	 * earlier in the list.
+	 * @param missions The missions.
+	 * @return The number of missions that were added.
+	 */
+	public int submitMissions(ArrayList<Mission> missions)
+	{
+		return this.shards.addMissions(missions);
+	}
+
+	/**
+	 * Submits a mission.
+	 * @param name The name of the mission.
+	 * @param skill The skill it requires.
+	 * @param hours The hours it takes.
+	 * @param items Its items, as in "rifle,2,helmet,1", or null.
+	 * @param preNames The names of the missions it depends on, which must
+	 * be on a board.
+	 * @return False if the mission wasn't added, because its
+	 * prerequisites are on different boards.
+	 * @throws IllegalArgumentException If a prerequisite doesn't exist.
+	 */
+	public boolean submitMission(String name, String skill, int hours,
+								 String items, String... preNames)
+	{
+		Mission mission = new Mission(name, parseItems(items), skill, hours,
+									  this.context);
+		for (String preName : preNames) {
+			Mission pre = this.shards.findMission(preName);
+			if (pre == null)
+				throw new IllegalArgumentException("Mission \"" + preName
+												   + "\" doesn't exist.");
+			if (pre.getStatus() != Status.DONE)
+				mission.addPre(pre);
+		}
+		ArrayList<Mission> missions = new ArrayList<Mission>(1);
+		missions.add(mission);
+		return this.submitMissions(missions) == 1;
+	}
+
+	/**
+	 * Submits a sergeant, which joins the board that needs it the most.
+	 * @param spec The sergeant.
+	 */
+	public void submitSergeant(SergeantSpec spec)
+	{
+		ArrayList<SergeantSpec> specs = new ArrayList<SergeantSpec>(1);
+		specs.add(spec);
+		this.shards.addSgts(specs);
+		this.shards.wakeUp();
+	}
+
+	/**
+	 * Adds units of an item, or a new item, to the warehouse.
+	 * @param name The name of the item.
+	 * @param amount The units.
+	 */
+	public void addItem(String name, int amount)
+	{
+		this.warehouse.addItem(name, amount);
+		this.shards.wakeUp();
+	}
+
+	/**
+	 * Subscribes to the events of the simulation.
+	 * @param subscriber The subscriber.
+	 */
+	public void subscribe(Flow.Subscriber<? super Event> subscriber)
+	{
+		this.context.getEvents().subscribe(subscriber);
+	}
+
+	/**
+	 * Subscribes to the events of the simulation with a buffer and an
+	 * overflow policy of its own.
+	 * @param subscriber The subscriber.
+	 * @param bufferSize The events it may fall behind by.
+	 * @param overflow What happens once it falls further behind.
+	 */
+	public void subscribe(Flow.Subscriber<? super Event> subscriber,
+						  int bufferSize, EventPublisher.Overflow overflow)
+	{
+		this.context.getEvents().subscribe(subscriber, bufferSize, overflow);
+	}
+
+	/**
+	 * Calls a listener on the events of the simulation, as subscribe.
+	 * @param listener The listener.
+	 */
+	public void onEvent(Listener listener)
+	{
+		this.subscribe(new ListenerSubscriber(listener));
+	}
+
+	/**
+	 *
+	 * @return The publisher of the events of the simulation.
+	 */
+	public Flow.Publisher<Event> events()
+	{
+		return this.context.getEvents();
+	}
+
+	/**
+	 *
+	 * @return The future that is completed once all the missions are done.
+	 */
+	public CompletableFuture<Simulation> completion()
+	{
+		return this.completion;
+	}
+
+	/**
+	 * Appends the statistics of the missions, the items and the run.
+	 * @param out The buffer the statistics are appended to.
+	 */
+	public void renderStats(StringBuilder out)
+	{
+		this.shards.renderStats(out);
+		this.warehouse.renderStats(out);
+		this.context.renderStats(out);
+	}
+
+	/**
+	 *
+	 * @return The context of the simulation.
+	 */
+	public Context getContext()
+	{
+		return this.context;
+	}
+
+	/**
+	 *
+	 * @return The warehouse of the simulation.
+	 */
+	public Warehouse getWarehouse()
+	{
+		return this.warehouse;
+	}
+
+	/**
+	 *
+	 * @return The boards of the simulation.
+	 */
+	public Shards getShards()
+	{
+		return this.shards;
+	}
+
+	/* Parses `items`, as in "rifle,2,helmet,1", or gives null if it's
+	 * null */
+	private static ArrayList<Item> parseItems(String items)
+	{
+		return (items == null) ? null : Utils.stringToSortedItems(items, ",");
+	}
+
+	/* Nested classes */
+
+	/**
+	 * Is called on the events of a simulation.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called on an event, on the pool of the context.
+		 * @param event The event.
+		 */
+		public void onEvent(Event event);
+	}
+
+	/*
+	 * Subscribes a listener, which takes every event it's offered.
+	 */
+	static class ListenerSubscriber implements Flow.Subscriber<Event>
+	{
+		private final Listener listener;
+
+		ListenerSubscriber(Listener listener_) {
+			this.listener = listener_;
+		}
+
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+
+		public void onNext(Event event) {
+			this.listener.onEvent(event);
+		}
+
+		public void onError(Throwable throwable) {
+			System.err.println("ERROR: Event listener failed: "
+							       + throwable.getMessage());
+		}
+
+		public void onComplete() {
+		}
+	}
+
+	/**
+	 * Sets up a simulation.
+	 */
+	public static class Builder
+	{
+		private final String 			  name;
+		private int 					  boards;
+		private String 					  store;
+		private String 					  logFile;
+		private int 					  bufferSize;
+		private EventPublisher.Overflow   overflow;
+		private ArrayList<Mission> 		  missions;
+		private HashMap<String, Mission>  byName;
+		private ArrayList<SergeantSpec>   specs;
+		private ArrayList<Item> 		  items;
+		private ArrayList<Flow.Subscriber<? super Event>> subscribers;
+		private Context 				  context;	/* Made on first use */
+
+		/**
+		 * Starts setting up a simulation with one board on the heap, no
+		 * log file, and the event buffers of a Context.
+		 * @param name_ The name of the simulation.
+		 */
+		public Builder(String name_)
+		{
+			this.name = name_;
+			this.boards = 1;
+			this.store = "heap";
+			this.logFile = null;
+			this.bufferSize = Flow.defaultBufferSize();
+			this.overflow = EventPublisher.Overflow.DROP_NEWEST;
+			this.missions = new ArrayList<Mission>(0);
+			this.byName = new HashMap<String, Mission>();
+			this.specs = new ArrayList<SergeantSpec>(0);
+			this.items = new ArrayList<Item>(0);
+			this.subscribers = new ArrayList<Flow.Subscriber<? super Event>>(0);
+			this.context = null;
+		}
+
+		/**
+		 * @param boards_ The most boards to split the missions into.
+		 * @return This builder.
+		 */
+		public Builder boards(int boards_)
+		{
+			this.boards = Math.max(1, boards_);
+			return this;
+		}
+
+		/**
+		 * @param store_ Where the missions are kept: "heap", "offheap" or
+		 * "mmap:<file>".
+		 * @return This builder.
+		 */
+		public Builder store(String store_)
+		{
+			this.store = store_;
+			return this;
+		}
+
+		/**
+		 * @param logFile_ The path of the log file.
+		 * @return This builder.
+		 */
+		public Builder logTo(String logFile_)
+		{
+			this.logFile = logFile_;
+			return this;
+		}
+
+		/**
+		 * Must be called before the context is made.
+		 * @param bufferSize_ The events a subscriber may fall behind by.
+		 * @param overflow_ What happens to the events of a subscriber that
+		 * falls further behind.
+		 * @return This builder.
+		 */
+		public Builder events(int bufferSize_, EventPublisher.Overflow overflow_)
+		{
+			if (this.context != null)
+				throw new IllegalStateException(
+						"The events are set before the missions are made.");
+			this.bufferSize = bufferSize_;
+			this.overflow = overflow_;
+			return this;
+		}
+
+		/**
+		 * Gets the context of the simulation, which the missions given to
+		 * mission(Mission) must be made in. It's made on the first call,
+		 * after which the events can't be set.
+		 * @return The context.
+		 */
+		public Context getContext()
+		{
+			if (this.context == null)
+				this.context = new Context(this.name, this.bufferSize,
+										   this.overflow);
+			return this.context;
+		}
+
+		/**
+		 * @param mission A mission that was made in the context of this
+		 * builder, whose prerequisites were added before.
+		 * @return This builder.
+		 */
+		public Builder mission(Mission mission)
+		{
+			if (mission.getContext() != this.context)
+				throw new IllegalArgumentException("Mission \"" + mission.getName()
+												   + "\" was made in another context.");
+			this.missions.add(mission);
+			this.byName.put(mission.getName(), mission);
+			return this;
+		}
+
+		/**
+		 * @param missions_ Missions that were made in the context of this
+		 * builder, whose prerequisites were added before or are earlier in
+		 * the list.
+		 * @return This builder.
+		 */
+		public Builder missions(ArrayList<Mission> missions_)
+		{
+			for (Mission mission : missions_)
+				this.mission(mission);
+			return this;
+		}
+
+		/**
+		 * @param name_ The name of the mission.
+		 * @param skill The skill it requires.
+		 * @param hours The hours it takes.
+		 * @param items_ Its items, as in "rifle,2,helmet,1", or null.
+		 * @param preNames The names of the missions it depends on, which
+		 * were added before.
+		 * @return This builder.
+		 * @throws IllegalArgumentException If a prerequisite wasn't added.
+		 */
+		public Builder mission(String name_, String skill, int hours,
+							   String items_, String... preNames)
+		{
+			Mission mission = new Mission(name_, parseItems(items_), skill, hours,
+										  this.getContext());
+			for (String preName : preNames) {
+				Mission pre = this.byName.get(preName);
+				if (pre == null)
+					throw new IllegalArgumentException("Mission \"" + preName
+													   + "\" doesn't exist.");
+				mission.addPre(pre);
+			}
+			return this.mission(mission);
+		}
+
+		/**
+		 * @param spec A sergeant.
+		 * @return This builder.
+		 */
+		public Builder sergeant(SergeantSpec spec)
+		{
+			this.specs.add(spec);
+			return this;
+		}
+
+		/**
+		 * @param specs_ Sergeants.
+		 * @return This builder.
+		 */
+		public Builder sergeants(ArrayList<SergeantSpec> specs_)
+		{
+			this.specs.addAll(specs_);
+			return this;
+		}
+
+		/**
+		 * @param itemName The name of an item.
+		 * @param amount Its units in the warehouse.
+		 * @return This builder.
+		 */
+		public Builder item(String itemName, int amount)
+		{
+			this.items.add(new Item(itemName, amount));
+			return this;
+		}
+
+		/**
+		 * @param subscriber A subscriber to the events, subscribed before
+		 * the simulation starts, so that it misses none of them.
+		 * @return This builder.
+		 */
+		public Builder subscribe(Flow.Subscriber<? super Event> subscriber)
+		{
+			this.subscribers.add(subscriber);
+			return this;
+		}
+
+		/**
+		 * @param listener A listener to the events, as subscribe.
+		 * @return This builder.
+		 */
+		public Builder onEvent(Listener listener)
+		{
+			return this.subscribe(new ListenerSubscriber(listener));
+		}
+
+		/**
+		 * Builds the simulation. It isn't started.
+		 * @return The simulation.
+		 */
+		public Simulation build()
+		{
+			Context context = this.getContext();
+			if (this.logFile != null) {
+				try {
+					context.logTo(this.logFile);
+				} catch (IOException e) {
+					System.err.println("ERROR: Can't create log file.");
+				}
+			}
+			/* Before the sergeants join, so their events aren't missed */
+			for (Flow.Subscriber<? super Event> subscriber : this.subscribers)
+				context.getEvents().subscribe(subscriber);
+			Warehouse warehouse = new Warehouse(context);
+			Shards shards = Shards.partition(this.missions, this.specs, warehouse,
+											 this.boards, this.store);
+			for (Item item : this.items)
+				warehouse.addItem(item.getName(), item.getAmount());
+			return new Simulation(context, warehouse, shards);
+		}
+	}
+}
@@ -0,0 +1,614 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.PriorityQueue;
+
+/**
+ * A discrete-time model of a scenario. Time moves in whole hours, from
+ * one event to the next: the end of a shift, or a delivery of items. On
+ * every event, the shifts that end return their items and record their
+ * hours, the restocks that are due are delivered, and then every
+ * sergeant, in turn, is handed shifts of the missions it can work on, in
+ * its priority order, as long as all their items are in stock. A shift
+ * takes its items all at once, so nobody ever waits for items while
+ * holding others.
+ *
+ * The model is captured from a running system, and is never changed by a
+ * run, so any number of runs of it and of its variants may go at once.
+ */
+public class Simulator
+{
+	/* A run that goes on for this many events is stuck */
+	public static final int MAX_EVENTS = 1 << 20;
+
+	/* Missions, by index */
+	private final String[] 	names;
+	private final int[] 	hours;		/* Left, when captured */
+	private final int[] 	skills;
+	private final int[][] 	itemIds;
+	private final int[][] 	itemAmounts;
+	private final int[][] 	dependents;
+	private final int[] 	numOfPres;	/* Not done, when captured */
+	private final int[] 	criticalPaths;
+	/* Sergeants, by index */
+	private final String[] 	sgtNames;
+	private final int[] 	maxMissions;
+	private final int[] 	workHours;
+	private final BitSet[] 	sgtSkills;
+	private final String[] 	priorities;
+	private final int[][] 	orders;		/* Missions in priority order */
+	/* Items, by item id */
+	private final int[] 	stock;
+	private final Replenisher.Rule[] rules;
+	private final Interner 	items;		/* Ids of the item names */
+
+	private Simulator(String[] names_, int[] hours_, int[] skills_,
+					  int[][] itemIds_, int[][] itemAmounts_,
+					  int[][] dependents_, int[] numOfPres_,
+					  String[] sgtNames_, int[] maxMissions_, int[] workHours_,
+					  BitSet[] sgtSkills_, String[] priorities,
+					  int[] stock_, Replenisher.Rule[] rules_, Interner items_)
+	{
+		this.names = names_;
+		this.hours = hours_;
+		this.skills = skills_;
+		this.itemIds = itemIds_;
+		this.itemAmounts = itemAmounts_;
+		this.dependents = dependents_;
+		this.numOfPres = numOfPres_;
+		this.criticalPaths = new int[names_.length];
+		this.sgtNames = sgtNames_;
+		this.maxMissions = maxMissions_;
+		this.workHours = workHours_;
+		this.sgtSkills = sgtSkills_;
+		this.priorities = priorities;
+		this.stock = stock_;
+		this.rules = rules_;
+		this.items = items_;
+
+		this.computeCriticalPaths();
+		this.orders = new int[sgtNames_.length][];
+		for (int s = 0; s < sgtNames_.length; ++s)
+			this.orders[s] = this.order(priorities[s]);
+	}
+
+	/* A variant of `sim` with the stock `stock_` and the sergeants
+	 * `maxMissions_`, `workHours_` and `priorities_`; only the priority
+	 * orders that differ from those of `sim` are sorted again */
+	private Simulator(Simulator sim, int[] stock_, int[] maxMissions_,
+					  int[] workHours_, String[] priorities_)
+	{
+		this.names = sim.names;
+		this.hours = sim.hours;
+		this.skills = sim.skills;
+		this.itemIds = sim.itemIds;
+		this.itemAmounts = sim.itemAmounts;
+		this.dependents = sim.dependents;
+		this.numOfPres = sim.numOfPres;
+		this.criticalPaths = sim.criticalPaths;
+		this.sgtNames = sim.sgtNames;
+		this.maxMissions = maxMissions_;
+		this.workHours = workHours_;
+		this.sgtSkills = sim.sgtSkills;
+		this.priorities = priorities_;
+		this.orders = new int[this.sgtNames.length][];
+		for (int s = 0; s < this.sgtNames.length; ++s)
+			this.orders[s] = priorities_[s].equals(sim.priorities[s])
+					? sim.orders[s] : this.order(priorities_[s]);
+		this.stock = stock_;
+		this.rules = sim.rules;
+		this.items = sim.items;
+	}
+
+	/* A variant of `sim` with the stock `stock_` */
+	private Simulator(Simulator sim, int[] stock_)
+	{
+		this.names = sim.names;
+		this.hours = sim.hours;
+		this.skills = sim.skills;
+		this.itemIds = sim.itemIds;
+		this.itemAmounts = sim.itemAmounts;
+		this.dependents = sim.dependents;
+		this.numOfPres = sim.numOfPres;
+		this.criticalPaths = sim.criticalPaths;
+		this.sgtNames = sim.sgtNames;
+		this.maxMissions = sim.maxMissions;
+		this.workHours = sim.workHours;
+		this.sgtSkills = sim.sgtSkills;
+		this.priorities = sim.priorities;
+		this.orders = sim.orders;
+		this.stock = stock_;
+		this.rules = sim.rules;
+		this.items = sim.items;
+	}
+
+	/**
+	 * Captures the scenario of a running system: the missions that aren't
+	 * done with the hours they have left, the sergeants that serve, the
+	 * items with their full amounts, and the restock rules.
+	 * @param shards The boards of the system.
+	 * @return The model.
+	 */
+	public static Simulator capture(Shards shards)
+	{
+		Context context = shards.getWarehouse().getContext();
+		ArrayList<Mission> missions = new ArrayList<Mission>(0);
+		ArrayList<Sergeant> sgts = new ArrayList<Sergeant>(0);
+		ArrayList<int[]> preIds = new ArrayList<int[]>(0);
+		ArrayList<Integer> offsets = new ArrayList<Integer>(0);
+
+		for (int i = 0; i < shards.size(); ++i) {
+			Board board = shards.getBoard(i);
+			int offset = missions.size();
+			int n = board.numOfMissions();
+			for (int id = 0; id < n; ++id) {
+				missions.add(board.getMission(id));
+				preIds.add(board.getPreIds(id));
+				offsets.add(offset);
+			}
+			for (Sergeant sgt : shards.getChief(i).getSergeants())
+				if (!sgt.isRetired())
+					sgts.add(sgt);
+		}
+
+		/* Missions that are done are left out, and indices are given to
+		   the others */
+		int[] index = new int[missions.size()];
+		int n = 0;
+		for (int i = 0; i < missions.size(); ++i)
+			index[i] = (missions.get(i).getStatus() == Status.DONE) ? -1 : n++;
+
+		String[] names_ = new String[n];
+		int[] hours_ = new int[n];
+		int[] skills_ = new int[n];
+		int[][] itemIds_ = new int[n][];
+		int[][] itemAmounts_ = new int[n][];
+		int[] numOfPres_ = new int[n];
+		ArrayList<ArrayList<Integer>> deps = new ArrayList<ArrayList<Integer>>(n);
+		for (int m = 0; m < n; ++m)
+			deps.add(new ArrayList<Integer>(0));
+
+		for (int i = 0; i < missions.size(); ++i) {
+			int m = index[i];
+			if (m < 0)
+				continue;
+			Mission mission = missions.get(i);
+			names_[m] = mission.getName();
+			hours_[m] = Math.max(0, mission.timeLeft());
+			skills_[m] = mission.getSkillId();
+			itemIds_[m] = new int[mission.numOfItems()];
+			itemAmounts_[m] = new int[mission.numOfItems()];
+			for (int j = 0; j < mission.numOfItems(); ++j) {
+				itemIds_[m][j] = mission.getItemId(j);
+				itemAmounts_[m][j] = mission.getItemAmount(j);
+			}
+			for (int pre : preIds.get(i)) {
+				int p = index[offsets.get(i) + pre];
+				if (p >= 0) {
+					++numOfPres_[m];
+					deps.get(p).add(m);
+				}
+			}
+		}
+		int[][] dependents_ = new int[n][];
+		for (int m = 0; m < n; ++m) {
+			dependents_[m] = new int[deps.get(m).size()];
+			for (int j = 0; j < dependents_[m].length; ++j)
+				dependents_[m][j] = deps.get(m).get(j);
+		}
+
+		int k = sgts.size();
+		String[] sgtNames_ = new String[k];
+		int[] maxMissions_ = new int[k];
+		int[] workHours_ = new int[k];
+		BitSet[] sgtSkills_ = new BitSet[k];
+		String[] priorities = new String[k];
+		for (int s = 0; s < k; ++s) {
+			Sergeant sgt = sgts.get(s);
+			sgtNames_[s] = sgt.getName();
+			maxMissions_[s] = sgt.getMaxMissions();
+			workHours_[s] = Math.max(1, sgt.getWorkHours());
+			sgtSkills_[s] = new BitSet();
+			for (String skill : sgt.getSkills())
+				sgtSkills_[s].set(context.getSkills().lookup(skill));
+			priorities[s] = sgt.getPriority();
+		}
+
+		int[] stock_ = new int[context.getItems().size()];
+		for (Item item : shards.getWarehouse().getStock())
+			stock_[item.getId()] = item.getAmount();
+		ArrayList<Replenisher.Rule> rules_ =
+				shards.getWarehouse().getReplenisher().getRules();
+
+		return new Simulator(names_, hours_, skills_, itemIds_, itemAmounts_,
+							 dependents_, numOfPres_, sgtNames_, maxMissions_,
+							 workHours_, sgtSkills_, priorities, stock_,
+							 rules_.toArray(new Replenisher.Rule[0]),
+							 context.getItems());
+	}
+
+	/**
+	 *
+	 * @param itemId The id of an item.
+	 * @param extra The units to add.
+	 * @return A model that has `extra` more units of the item than this
+	 * one.
+	 */
+	public Simulator withExtra(int itemId, int extra)
+	{
+		int[] stock_ = Arrays.copyOf(this.stock,
+									 Math.max(this.stock.length, itemId + 1));
+		stock_[itemId] += extra;
+		return new Simulator(this, stock_);
+	}
+
+	/**
+	 * Makes a variant in which a sergeant, or all of them, serve with
+	 * another maxMissions, workHours or priority.
+	 * @param sgtName The name of the sergeant, or "*" for all of them.
+	 * @param param maxMissions, workHours or priority.
+	 * @param value The value of the parameter.
+	 * @return The variant, or null if the sergeant, the parameter or the
+	 * value is invalid.
+	 */
+	public Simulator withSergeant(String sgtName, String param, String value)
+	{
+		int[] maxMissions_ = Arrays.copyOf(this.maxMissions, this.maxMissions.length);
+		int[] workHours_ = Arrays.copyOf(this.workHours, this.workHours.length);
+		String[] priorities_ = Arrays.copyOf(this.priorities, this.priorities.length);
+		boolean found = false;
+
+		for (int s = 0; s < this.sgtNames.length; ++s) {
+			if ((!sgtName.equals("*")) && (!this.sgtNames[s].equals(sgtName)))
+				continue;
+			found = true;
+			try {
+				if (param.equals("maxMissions"))
+					maxMissions_[s] = Integer.parseInt(value);
+				else if (param.equals("workHours"))
+					workHours_[s] = Integer.parseInt(value);
+				else if ((param.equals("priority"))
+						     && (SortedPolicy.create(value) != null))
+					priorities_[s] = value;
+				else
+					return null;
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if ((maxMissions_[s] < 1) || (workHours_[s] < 1))
+				return null;
+		}
+		if (!found)
+			return null;
+		return new Simulator(this, this.stock, maxMissions_, workHours_, priorities_);
+	}
+
+	/**
+	 *
+	 * @return The ids of the items that are in stock.
+	 */
+	public ArrayList<Integer> getItemIds()
+	{
+		ArrayList<Integer> ids = new ArrayList<Integer>(0);
+		for (int i = 0; i < this.stock.length; ++i)
+			if (this.stock[i] > 0)
+				ids.add(i);
+		return ids;
+	}
+
+	/**
+	 *
+	 * @param itemId The id of an item.
+	 * @return The units of the item in stock.
+	 */
+	public int getStock(int itemId)
+	{
+		return (itemId < this.stock.length) ? this.stock[itemId] : 0;
+	}
+
+	/**
+	 *
+	 * @param itemId The id of an item.
+	 * @return The name of the item.
+	 */
+	public String getItemName(int itemId)
+	{
+		return this.items.name(itemId);
+	}
+
+	/**
+	 *
+	 * @return The number of missions that aren't done.
+	 */
+	public int numOfMissions()
+	{
+		return this.names.length;
+	}
+
+	/**
+	 * Runs the model until all the missions are done, or no more of them
+	 * can ever be.
+	 * @return The result of the run.
+	 */
+	public Result run()
+	{
+		int n = this.names.length;
+		int[] left = Arrays.copyOf(this.hours, n);
+		int[] counter = Arrays.copyOf(this.hours, n);	/* Not handed out */
+		int[] pres = Arrays.copyOf(this.numOfPres, n);
+		int[] owner = new int[n];		/* Sgt. of the outstanding shifts */
+		int[] outstanding = new int[n];
+		int[] busy = new int[this.sgtNames.length];
+		int[] onHand = Arrays.copyOf(this.stock, this.items.size());
+		long[] due = new long[this.rules.length];	/* -1 if none is due */
+		int[] ruleItems = new int[this.rules.length];
+		PriorityQueue<Shift> working = new PriorityQueue<Shift>();
+		Result result = new Result();
+
+		Arrays.fill(owner, -1);
+		for (int r = 0; r < this.rules.length; ++r) {
+			ruleItems[r] = this.items.lookup(this.rules[r].item);
+			due[r] = (this.rules[r].period > 0) ? this.rules[r].period : -1;
+		}
+		for (int m = 0; m < n; ++m) {
+			if (left[m] == 0) {
+				/* Worked off already, waits only to be recorded */
+				++result.done;
+				for (int d : this.dependents[m])
+					--pres[d];
+			}
+		}
+
+		long t = 0;
+		for (int events = 0; events < MAX_EVENTS; ++events) {
+			/* Shifts that end now */
+			while ((!working.isEmpty()) && (working.peek().end <= t)) {
+				Shift shift = working.poll();
+				int m = shift.mission;
+				for (int j = 0; j < this.itemIds[m].length; ++j)
+					onHand[this.itemIds[m][j]] += this.itemAmounts[m][j];
+				--busy[shift.sgt];
+				if (--outstanding[m] == 0)
+					owner[m] = -1;
+				left[m] -= shift.hours;
+				if (left[m] == 0) {
+					++result.done;
+					result.makespan = t;
+					for (int d : this.dependents[m])
+						--pres[d];
+				}
+			}
+			/* Deliveries that are due */
+			for (int r = 0; r < this.rules.length; ++r) {
+				if ((due[r] < 0) || (due[r] > t) || (ruleItems[r] < 0))
+					continue;
+				onHand[ruleItems[r]] += this.rules[r].amount;
+				result.restocked += this.rules[r].amount;
+				due[r] = (this.rules[r].period > 0) ? t + this.rules[r].period : -1;
+			}
+			if (result.done == n)
+				break;
+
+			/* Hand out shifts */
+			for (int s = 0; s < this.sgtNames.length; ++s) {
+				for (int m : this.orders[s]) {
+					if (busy[s] >= this.maxMissions[s])
+						break;
+					while ((busy[s] < this.maxMissions[s]) && (pres[m] == 0)
+						       && (counter[m] > 0)
+						       && ((owner[m] < 0) || (owner[m] == s))
+						       && (this.sgtSkills[s].get(this.skills[m]))
+						       && (this.inStock(m, onHand))) {
+						int h = Math.min(this.workHours[s], counter[m]);
+						for (int j = 0; j < this.itemIds[m].length; ++j)
+							onHand[this.itemIds[m][j]] -= this.itemAmounts[m][j];
+						counter[m] -= h;
+						owner[m] = s;
+						++outstanding[m];
+						++busy[s];
+						result.shiftHours += h;
+						working.add(new Shift(m, s, h, t + h));
+					}
+				}
+			}
+			/* Orders of the threshold rules */
+			for (int r = 0; r < this.rules.length; ++r) {
+				if ((this.rules[r].period == 0) && (due[r] < 0)
+					    && (ruleItems[r] >= 0)
+					    && (onHand[ruleItems[r]] <= this.rules[r].threshold))
+					due[r] = t + Math.max(1, this.rules[r].lead);
+			}
+
+			/* The next event */
+			long next = working.isEmpty() ? Long.MAX_VALUE : working.peek().end;
+			boolean ordered = false;
+			for (int r = 0; r < this.rules.length; ++r) {
+				if (due[r] >= 0) {
+					next = Math.min(next, due[r]);
+					ordered |= (this.rules[r].period == 0);
+				}
+			}
+			/* With nothing working and nothing ordered, only scheduled
+			   deliveries are left, which help only if they bring enough
+			   items for some mission */
+			if ((next == Long.MAX_VALUE)
+				    || ((working.isEmpty()) && (!ordered) && (!this.mayRestock(pres, counter))))
+				break;
+			t = next;
+		}
+		result.stuck = n - result.done;
+		return result;
+	}
+
+	/* Returns true if all the items of mission `m` are in `onHand` */
+	private boolean inStock(int m, int[] onHand)
+	{
+		for (int j = 0; j < this.itemIds[m].length; ++j)
+			if (onHand[this.itemIds[m][j]] < this.itemAmounts[m][j])
+				return false;
+		return true;
+	}
+
+	/* Returns true if some mission that is ready to be worked on, and
+	 * that some Sgt. can work on, needs an item that is restocked on a
+	 * schedule */
+	private boolean mayRestock(int[] pres, int[] counter)
+	{
+		for (int m = 0; m < this.names.length; ++m) {
+			if ((pres[m] != 0) || (counter[m] <= 0))
+				continue;
+			boolean skilled = false;
+			for (BitSet s : this.sgtSkills)
+				skilled |= s.get(this.skills[m]);
+			if (!skilled)
+				continue;
+			for (int j = 0; j < this.itemIds[m].length; ++j)
+				for (Replenisher.Rule rule : this.rules)
+					if ((rule.period > 0) && (this.items.lookup(rule.item)
+											      == this.itemIds[m][j]))
+						return true;
+		}
+		return false;
+	}
+
+	/* Computes the critical path of every mission: its hours plus the
+	 * longest critical path of its dependents. The missions are sorted
+	 * topologically first, and taken from the last, so that a mission
+	 * comes after all its dependents without recursing down long chains */
+	private void computeCriticalPaths()
+	{
+		int n = this.names.length;
+		int[] pending = Arrays.copyOf(this.numOfPres, n);
+		int[] order = new int[n];
+		int size = 0;
+
+		for (int m = 0; m < n; ++m)
+			if (pending[m] == 0)
+				order[size++] = m;
+		for (int i = 0; i < size; ++i)
+			for (int d : this.dependents[order[i]])
+				if (--pending[d] == 0)
+					order[size++] = d;
+
+		for (int i = size - 1; i >= 0; --i) {
+			int m = order[i];
+			int longest = 0;
+			for (int d : this.dependents[m])
+				longest = Math.max(longest, this.criticalPaths[d]);
+			this.criticalPaths[m] = this.hours[m] + longest;
+		}
+	}
+
+	/* Returns the missions in the priority order `priority`; missions
+	 * with equal keys keep their order */
+	private int[] order(String priority)
+	{
+		int n = this.names.length;
+		long[] keys = new long[n];
+		int[] order_ = new int[n];
+
+		for (int m = 0; m < n; ++m) {
+			long key;
+			if (priority.equals("shortestMission"))
+				key = this.hours[m];
+			else if (priority.equals("longestMission"))
+				key = -this.hours[m];
+			else if (priority.equals("minItems"))
+				key = this.itemIds[m].length;
+			else if (priority.equals("maxItems"))
+				key = -this.itemIds[m].length;
+			else if (priority.equals("criticalPath"))
+				key = -this.criticalPaths[m];
+			else
+				key = 0;
+			/* The index breaks ties */
+			keys[m] = (key << 32) | m;
+		}
+		Arrays.sort(keys);
+		for (int m = 0; m < n; ++m)
+			order_[m] = (int) (keys[m] & 0xFFFFFFFFL);
+		return order_;
+	}
+
+	/* Nested classes */
+
+	/*
+	 * A shift that works in the model.
+	 */
+	static class Shift implements Comparable<Shift>
+	{
+		final int 	mission;
+		final int 	sgt;
+		final int 	hours;
+		final long 	end;
+
+		Shift(int mission_, int sgt_, int hours_, long end_) {
+			this.mission = mission_;
+			this.sgt = sgt_;
+			this.hours = hours_;
+			this.end = end_;
+		}
+
+		public int compareTo(Shift shift) {
+			return Long.compare(this.end, shift.end);
+		}
+	}
+
+	/**
+	 * The result of a run of the model.
+	 */
+	public static class Result
+	{
+		long 	makespan;	/* Hours until the last mission was done */
+		int 	done;
+		int 	stuck;		/* Missions that could never be done */
+		long 	shiftHours;
+		long 	restocked;	/* Units delivered */
+
+		/**
+		 *
+		 * @return The hours until the last mission was done.
+		 */
+		public long getMakespan() {
+			return this.makespan;
+		}
+
+		/**
+		 *
+		 * @return The missions that were done.
+		 */
+		public int getDone() {
+			return this.done;
+		}
+
+		/**
+		 *
+		 * @return The missions that could never be done.
+		 */
+		public int getStuck() {
+			return this.stuck;
+		}
+
+		/**
+		 *
+		 * @return The units that were delivered by restocks.
+		 */
+		public long getRestocked() {
+			return this.restocked;
+		}
+
+		/**
+		 *
+		 * @return Missions done per hour.
+		 */
+		public double getThroughput() {
+			return (this.makespan == 0) ? this.done : (double) this.done / this.makespan;
+		}
+	}
+}
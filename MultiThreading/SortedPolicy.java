@@ -0,0 +1,227 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A scheduling policy which keeps the missions in a list sorted by
+ * a comparator, the most preferred mission first.
+ */
+public class SortedPolicy implements SchedulingPolicy
+{
+	private final String 				name;
+	protected final Comparator<Mission> comparator;
+	/* Kept sorted at all times */
+	protected ArrayList<Mission> 		missions;
+	
+	/**
+	 * Constructs a new policy with no missions.
+	 * @param name_ The name of the priority order.
+	 * @param comparator_ Orders the missions, the most preferred first.
+	 */
+	public SortedPolicy(String name_, Comparator<Mission> comparator_)
+	{
+		this.name = name_;
+		this.comparator = comparator_;
+		this.missions = new ArrayList<Mission>(0);
+	}
+	
+	public String getName()
+	{
+		return this.name;
+	}
+	
+	public void add(Mission m)
+	{
+		/* Insert after the missions with an equal key, so that
+		   missions with equal keys are offered in arrival order */
+		this.missions.add(this.upperBound(m), m);
+	}
+	
+	public void remove(Mission m)
+	{
+		int i = this.indexOf(m);
+		if (i >= 0)
+			this.missions.remove(i);
+		else
+			this.missions.remove(m);
+	}
+	
+	public void refresh()
+	{
+	}
+	
+	public Mission nextFor(Sergeant sgt, Mission after)
+	{
+		int i = 0;
+		
+		if (after != null) {
+			i = this.indexOf(after);
+			/* `after` may have been removed meanwhile */
+			i = (i >= 0) ? i + 1 : this.upperBound(after);
+		}
+		for ( ; i < this.missions.size(); ++i) {
+			Mission m = this.missions.get(i);
+			if (!m.canBeHanded())
+				continue;
+			if ((m.getSgt() != null) && (m.getSgt() != sgt))
+				continue;
+			if (sgt.hasSkill(m.getSkillId()))
+				return m;
+		}
+		return null;
+	}
+	
+	/* Returns the index of `m` in the list, or -1 if it isn't there */
+	private int indexOf(Mission m)
+	{
+		int i = Collections.binarySearch(this.missions, m, this.comparator);
+		if (i < 0)
+			return -1;
+		
+		/* Look for `m` among the missions with an equal key */
+		for (int j = i; (j >= 0)
+				&& (this.comparator.compare(this.missions.get(j), m) == 0); --j)
+			if (this.missions.get(j).equals(m))
+				return j;
+		for (int j = i + 1; (j < this.missions.size())
+				&& (this.comparator.compare(this.missions.get(j), m) == 0); ++j)
+			if (this.missions.get(j).equals(m))
+				return j;
+		return -1;
+	}
+	
+	/* Returns the index of the first mission whose key is greater than
+	 * the key of `m` */
+	private int upperBound(Mission m)
+	{
+		int low = 0;
+		int high = this.missions.size();
+		
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (this.comparator.compare(this.missions.get(mid), m) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+	
+	/**
+	 * Creates the policy of a priority order.
+	 * @param name The name of the priority order (shortestMission,
+	 * longestMission, minItems, maxItems, criticalPath).
+	 * @return A new policy, or null if there is no such priority order.
+	 */
+	public static SchedulingPolicy create(String name)
+	{
+		if (name.equals("shortestMission"))
+			return new SortedPolicy(name, new LengthComparator());
+		else if (name.equals("longestMission"))
+			return new SortedPolicy(name,
+					Collections.reverseOrder(new LengthComparator()));
+		else if (name.equals("minItems"))
+			return new SortedPolicy(name, new ItemsComparator());
+		else if (name.equals("maxItems"))
+			return new SortedPolicy(name,
+					Collections.reverseOrder(new ItemsComparator()));
+		else if (name.equals("criticalPath"))
+			return new CriticalPathPolicy(name);
+		
+		return null;
+	}
+}
+
+/*
+ * Offers the missions that head the longest chains of work first.
+ * Critical paths change while the missions are pending, under the lock
+ * of the Board rather than of the Mission Holder, so the list is sorted
+ * by the critical paths as they were when the missions were added, and
+ * searched by them too. Before every pass, under the lock of the Mission
+ * Holder, the keys are read again and the list is re-sorted. It is
+ * nearly sorted already, which makes this cheap.
+ */
+class CriticalPathPolicy extends SortedPolicy
+{
+	private final HashMap<Mission, Integer> keys;	/* Guarded by the
+													   Mission Holder */
+	
+	public CriticalPathPolicy(String name_)
+	{
+		this(name_, new HashMap<Mission, Integer>());
+	}
+	
+	private CriticalPathPolicy(String name_, HashMap<Mission, Integer> keys_)
+	{
+		super(name_, Collections.reverseOrder(new KeyComparator(keys_)));
+		this.keys = keys_;
+	}
+	
+	public void add(Mission m)
+	{
+		this.keys.put(m, m.getCriticalPath());
+		super.add(m);
+	}
+	
+	public void remove(Mission m)
+	{
+		super.remove(m);
+		this.keys.remove(m);
+	}
+	
+	public void refresh()
+	{
+		for (Mission m : this.missions)
+			this.keys.put(m, m.getCriticalPath());
+		Collections.sort(this.missions, this.comparator);
+	}
+}
+
+/*
+ * Compares the critical paths that missions had when they were last
+ * read, or their current ones if they weren't read.
+ */
+class KeyComparator implements Comparator<Mission>
+{
+	private final HashMap<Mission, Integer> keys;
+	
+	public KeyComparator(HashMap<Mission, Integer> keys_)
+	{
+		this.keys = keys_;
+	}
+	
+	public int compare(Mission m, Mission n)
+	{
+		return this.keyOf(m) - this.keyOf(n);
+	}
+	
+	/* Returns the key of `m` */
+	private int keyOf(Mission m)
+	{
+		Integer key = this.keys.get(m);
+		return (key == null) ? m.getCriticalPath() : key;
+	}
+}
+
+class LengthComparator implements Comparator<Mission>
+{
+	public int compare(Mission m, Mission n)
+	{
+		return m.getInitTime() - n.getInitTime();
+	}
+}
+
+class ItemsComparator implements Comparator<Mission>
+{
+	public int compare(Mission m, Mission n)
+	{
+		return m.numOfItems() - n.numOfItems();
+	}
+}
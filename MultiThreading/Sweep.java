@@ -0,0 +1,202 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A what-if sweep over the configurations of the sergeants. Every
+ * dimension gives a sergeant (or "*" for all of them) a parameter and the
+ * values to try, as in
+ *
+ * 	Bob:maxMissions=1,2,4 *:priority=shortestMission,criticalPath
+ *
+ * and every combination of the values is a variant of the scenario. The
+ * variants are run in simulated time by the Simulator, on a fork-join
+ * pool, and are compared in a table, the shortest makespan first.
+ */
+public class Sweep
+{
+	/* Variants that are run on one thread, without splitting further */
+	private static final int SEQUENTIAL_VARIANTS = 2;
+
+	private final Simulator 		 base;
+	private final ArrayList<String>  labels;
+	private final ArrayList<Simulator> variants;
+	private Simulator.Result[] 		 results;
+
+	private Sweep(Simulator base_)
+	{
+		this.base = base_;
+		this.labels = new ArrayList<String>(0);
+		this.variants = new ArrayList<Simulator>(0);
+		this.results = null;
+	}
+
+	/**
+	 * Parses the dimensions of a sweep, and makes its variants.
+	 * @param base The model of the scenario.
+	 * @param words The dimensions, each of the form
+	 * <sergeant>:<parameter>=<value>,<value>,...
+	 * @param first The index of the first dimension in `words`.
+	 * @return The sweep, or null if a dimension is invalid.
+	 */
+	public static Sweep parse(Simulator base, String[] words, int first)
+	{
+		ArrayList<String[]> dims = new ArrayList<String[]>(0);	/* Sgt, param */
+		ArrayList<String[]> values = new ArrayList<String[]>(0);
+
+		for (int i = first; i < words.length; ++i) {
+			String word = words[i].trim();
+			if (word.equals(""))
+				continue;
+			int colon = word.indexOf(':');
+			int eq = word.indexOf('=');
+			if ((colon <= 0) || (eq < colon)) {
+				System.err.println("ERROR: \"" + word + "\" is not of the form "
+								       + "<sergeant>:<parameter>=<value>,...");
+				return null;
+			}
+			dims.add(new String[] { word.substring(0, colon),
+									word.substring(colon + 1, eq) });
+			values.add(word.substring(eq + 1).split(","));
+		}
+
+		Sweep sweep = new Sweep(base);
+		int[] digits = new int[dims.size()];
+		/* Count through the combinations of the values */
+		for (;;) {
+			Simulator sim = base;
+			StringBuilder label = new StringBuilder();
+			for (int d = 0; d < digits.length; ++d) {
+				String sgtName = dims.get(d)[0];
+				String param = dims.get(d)[1];
+				String value = values.get(d)[digits[d]];
+				sim = sim.withSergeant(sgtName, param, value);
+				if (sim == null) {
+					System.err.println("ERROR: \"" + sgtName + ":" + param
+									       + "=" + value + "\" is invalid.");
+					return null;
+				}
+				if (d > 0)
+					label.append(' ');
+				label.append(sgtName).append(':').append(param)
+				     .append('=').append(value);
+			}
+			sweep.labels.add((digits.length == 0) ? "as is" : label.toString());
+			sweep.variants.add(sim);
+
+			int d = 0;
+			while ((d < digits.length) && (++digits[d] == values.get(d).length))
+				digits[d++] = 0;
+			if (d == digits.length)
+				break;
+		}
+		return sweep;
+	}
+
+	/**
+	 * Runs the variants.
+	 * @param pool The pool they run on.
+	 */
+	public void run(ForkJoinPool pool)
+	{
+		this.results = runAll(pool, this.variants.toArray(new Simulator[0]));
+	}
+
+	/**
+	 * Runs models in parallel.
+	 * @param pool The pool they run on.
+	 * @param sims The models.
+	 * @return The results, in the order of the models.
+	 */
+	public static Simulator.Result[] runAll(ForkJoinPool pool, Simulator[] sims)
+	{
+		Simulator.Result[] results_ = new Simulator.Result[sims.length];
+		pool.invoke(new Runs(sims, results_, 0, sims.length));
+		return results_;
+	}
+
+	/**
+	 *
+	 * @return The number of variants.
+	 */
+	public int numOfVariants()
+	{
+		return this.variants.size();
+	}
+
+	/**
+	 * Appends a table of the variants, the shortest makespan first, and
+	 * the fewest missions never done before that.
+	 * @param out The buffer the table is appended to.
+	 */
+	public void render(StringBuilder out)
+	{
+		Integer[] rank = new Integer[this.results.length];
+		for (int i = 0; i < rank.length; ++i)
+			rank[i] = i;
+		final Simulator.Result[] results_ = this.results;
+		Arrays.sort(rank, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				Simulator.Result x = results_[a];
+				Simulator.Result y = results_[b];
+				if (x.getStuck() != y.getStuck())
+					return x.getStuck() - y.getStuck();
+				return Long.compare(x.getMakespan(), y.getMakespan());
+			}
+		});
+
+		out.append("--SWEEP--\n\n")
+		   .append("Missions:\t").append(this.base.numOfMissions())
+		   .append("\nVariants:\t").append(rank.length)
+		   .append("\n\nMakespan\tMissions/hour\tNever done\tVariant\n");
+		for (int i : rank) {
+			Simulator.Result r = this.results[i];
+			out.append(r.getMakespan()).append("\t\t")
+			   .append(String.format("%.3f", r.getThroughput())).append("\t\t")
+			   .append(r.getStuck()).append("\t\t")
+			   .append(this.labels.get(i)).append('\n');
+		}
+		out.append('\n');
+	}
+
+	/* Nested classes */
+
+	/*
+	 * Runs the models of a range, splitting it in halves until it's small.
+	 */
+	static class Runs extends RecursiveAction
+	{
+		private static final long 		 serialVersionUID = 1L;
+
+		private final Simulator[] 		 sims;
+		private final Simulator.Result[] results;
+		private final int 				 from;
+		private final int 				 to;
+
+		Runs(Simulator[] sims_, Simulator.Result[] results_, int from_, int to_) {
+			this.sims = sims_;
+			this.results = results_;
+			this.from = from_;
+			this.to = to_;
+		}
+
+		protected void compute() {
+			if (this.to - this.from <= SEQUENTIAL_VARIANTS) {
+				for (int i = this.from; i < this.to; ++i)
+					this.results[i] = this.sims[i].run();
+				return;
+			}
+			int mid = (this.from + this.to) >>> 1;
+			invokeAll(new Runs(this.sims, this.results, this.from, mid),
+					  new Runs(this.sims, this.results, mid, this.to));
+		}
+	}
+}
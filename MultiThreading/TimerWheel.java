@@ -0,0 +1,193 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+
+/**
+ * A hashed timing wheel. Time is divided into ticks, and a timeout is
+ * kept in the slot of the tick of its deadline (modulo the number of
+ * slots), so scheduling and cancelling take O(1), and expiring visits
+ * only the slots of the ticks that have passed. A timeout that is more
+ * than one turn of the wheel away stays in its slot until its turn comes.
+ * @param <T> The type of the tasks whose timeouts are kept.
+ */
+public class TimerWheel<T>
+{
+	private final long 					tickMillis;
+	private final ArrayList<Timeout<T>> slots;	/* Sentinels of circular lists */
+	private final int 					mask;
+	private final long 					startMillis;
+	private long 						tick;	/* The next tick to expire */
+	private int 						size;
+	private volatile Runnable 			onFirst;
+
+	/**
+	 * Constructs an empty wheel.
+	 * @param tickMillis_ The length of a tick.
+	 * @param numOfSlots The number of slots, rounded up to a power of two.
+	 */
+	public TimerWheel(long tickMillis_, int numOfSlots)
+	{
+		int n = 1;
+		while (n < numOfSlots)
+			n <<= 1;
+		this.tickMillis = tickMillis_;
+		this.slots = new ArrayList<Timeout<T>>(n);
+		for (int i = 0; i < n; ++i)
+			this.slots.add(new Timeout<T>(null, -1));
+		this.mask = n - 1;
+		this.startMillis = System.currentTimeMillis();
+		this.tick = 0;
+		this.size = 0;
+		this.onFirst = null;
+	}
+
+	/**
+	 * Sets a task that is run whenever a timeout is scheduled in an empty
+	 * wheel, e.g. to wake up a thread that only expires the wheel while
+	 * it isn't empty. It's run by the thread that schedules, outside the
+	 * lock of the wheel.
+	 * @param onFirst_ The task, or null.
+	 */
+	public void setOnFirst(Runnable onFirst_)
+	{
+		this.onFirst = onFirst_;
+	}
+
+	/**
+	 * Schedules a timeout.
+	 * @param task The task that expires.
+	 * @param deadlineMillis The time (as in System.currentTimeMillis) on
+	 * which the task expires. It expires on the first tick that ends after
+	 * the deadline.
+	 * @return The timeout, which may be cancelled.
+	 */
+	public Timeout<T> schedule(T task, long deadlineMillis)
+	{
+		Timeout<T> timeout;
+		boolean first;
+
+		synchronized (this) {
+			long t = (deadlineMillis - this.startMillis + this.tickMillis - 1)
+					 / this.tickMillis;
+			timeout = new Timeout<T>(task, Math.max(t, this.tick));
+			Timeout<T> head = this.slots.get((int) (timeout.deadline & this.mask));
+
+			timeout.prev = head.prev;
+			timeout.next = head;
+			head.prev.next = timeout;
+			head.prev = timeout;
+			first = (this.size++ == 0);
+		}
+		Runnable onFirst_ = this.onFirst;
+		if ((first) && (onFirst_ != null))
+			onFirst_.run();
+		return timeout;
+	}
+
+	/**
+	 * Cancels a timeout.
+	 * @param timeout The timeout.
+	 * @return True if the timeout was cancelled, false if it had expired
+	 * or was cancelled already.
+	 */
+	public synchronized boolean cancel(Timeout<T> timeout)
+	{
+		if (timeout.next == null)
+			return false;
+		this.unlink(timeout);
+		return true;
+	}
+
+	/**
+	 * Expires the timeouts whose deadlines have passed.
+	 * @param nowMillis The current time.
+	 * @param expired The list the tasks of the expired timeouts are
+	 * appended to.
+	 */
+	public synchronized void expire(long nowMillis, ArrayList<T> expired)
+	{
+		long target = (nowMillis - this.startMillis) / this.tickMillis;
+
+		if (this.size == 0) {
+			this.tick = Math.max(this.tick, target + 1);
+			return;
+		}
+		/* A slot is visited at most once, even if the wheel has fallen
+		   more than one turn behind */
+		long end = Math.min(target, this.tick + this.mask);
+		for (long t = this.tick; t <= end; ++t) {
+			Timeout<T> head = this.slots.get((int) (t & this.mask));
+			Timeout<T> timeout = head.next;
+			while (timeout != head) {
+				Timeout<T> next = timeout.next;
+				if (timeout.deadline <= target) {
+					this.unlink(timeout);
+					expired.add(timeout.task);
+				}
+				timeout = next;
+			}
+		}
+		this.tick = Math.max(this.tick, target + 1);
+	}
+
+	/**
+	 *
+	 * @return True if no timeout is scheduled.
+	 */
+	public synchronized boolean isEmpty()
+	{
+		return this.size == 0;
+	}
+
+	/**
+	 *
+	 * @return The length of a tick.
+	 */
+	public long getTickMillis()
+	{
+		return this.tickMillis;
+	}
+
+	/* Removes `timeout` from its slot */
+	private void unlink(Timeout<T> timeout)
+	{
+		timeout.prev.next = timeout.next;
+		timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+		--this.size;
+	}
+
+	/* Nested classes */
+
+	/**
+	 * A scheduled task. Its links are guarded by the wheel.
+	 * @param <T> The type of the task.
+	 */
+	public static class Timeout<T>
+	{
+		private final T 	task;
+		private final long 	deadline;	/* In ticks */
+		private Timeout<T> 	prev;
+		private Timeout<T> 	next;		/* null once expired or cancelled */
+
+		Timeout(T task_, long deadline_) {
+			this.task = task_;
+			this.deadline = deadline_;
+			this.prev = this;
+			this.next = this;
+		}
+
+		/**
+		 *
+		 * @return The task.
+		 */
+		public T getTask() {
+			return this.task;
+		}
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+/**
+ * Splits a command line into comma separated fields of whitespace
+ * separated tokens, in a single pass and without regular expressions.
+ */
+public class Tokenizer
+{
+	private String 	line;
+	private int 	pos;
+
+	/**
+	 * Constructs a tokenizer that is at the first field of `line_`.
+	 * @param line_ The command line.
+	 */
+	public Tokenizer(String line_)
+	{
+		this.line = line_;
+		this.pos = 0;
+	}
+
+	/**
+	 * Gets the next token of the current field.
+	 * @return The token, or null if the field has no more tokens.
+	 */
+	public String next()
+	{
+		int len = this.line.length();
+
+		while ((this.pos < len) && (Character.isWhitespace(this.line.charAt(this.pos))))
+			++this.pos;
+		if ((this.pos >= len) || (this.line.charAt(this.pos) == ','))
+			return null;
+
+		int start = this.pos;
+		while ((this.pos < len)
+		           && (this.line.charAt(this.pos) != ',')
+		           && (!Character.isWhitespace(this.line.charAt(this.pos))))
+			++this.pos;
+		return this.line.substring(start, this.pos);
+	}
+
+	/**
+	 * Gets the next token of the current field as an int.
+	 * @return The number.
+	 * @throws NumberFormatException If the field has no more tokens or
+	 * the token is not a number.
+	 */
+	public int nextInt()
+	{
+		String token = this.next();
+		if (token == null)
+			throw new NumberFormatException("A number is missing.");
+		return Integer.parseInt(token);
+	}
+
+	/**
+	 * Skips the rest of the current field.
+	 * @return True if there is another field, false at the end of the line.
+	 */
+	public boolean nextField()
+	{
+		int comma = this.line.indexOf(',', this.pos);
+		if (comma < 0) {
+			this.pos = this.line.length();
+			return false;
+		}
+		this.pos = comma + 1;
+		return true;
+	}
+}
@@ -69,10 +69,13 @@ public class Utils
 		return items;
 	}
 	
-	/* Adds item to list while keeping the list ordered according
+	/**
+	 * Adds item to list while keeping the list ordered according
 	 * to the natural order of Item (Recall that Item implements Comparable).
+	 * @param list A list of items in their natural order.
+	 * @param item The item to be added.
 	 */
-	private static void addInOrder(ArrayList<Item> list, Item item)
+	public static void addInOrder(ArrayList<Item> list, Item item)
 	{
 		if (list.isEmpty()) {
 			list.add(item);
@@ -0,0 +1,268 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Watches the shifts that wait for items at the warehouse. A shift holds
+ * the items of its mission that it has borrowed while it waits for the
+ * next one, so shifts can wait for each other in a cycle. Every period
+ * the analyzer reduces the wait-for graph: the items that working shifts
+ * hold will be returned, so a waiting shift whose remaining items can be
+ * covered by those, and which isn't stuck behind a stuck shift in the
+ * line of an item, will proceed and return what it holds too. The shifts
+ * that are left are deadlocked. A shift that could be served right now
+ * but has waited long behind the head of a line is head-of-line blocked.
+ *
+ * Both are counted and logged. With the PREEMPT policy, the youngest
+ * shift of a deadlock is preempted: it returns its items and its mission
+ * is offered again.
+ */
+public class WaitAnalyzer extends Thread
+{
+	public static final int PERIOD_MILLIS = 200;
+	/* A shift that could be served but waits this long is blocked */
+	public static final int BLOCKED_MILLIS = 1000;
+
+	public static final String REPORT = "report";
+	public static final String PREEMPT = "preempt";
+
+	private Warehouse 		 warehouse;
+	private Context 		 context;
+	private volatile String  policy;
+	private HashSet<Warehouse.Borrower> suspects; /* Deadlocked on the
+													 previous period */
+	private HashSet<Warehouse.Borrower> reported;
+	private AtomicLong 		 deadlocks;
+	private AtomicLong 		 blocked;
+	private AtomicLong 		 preempted;
+
+	/**
+	 * Constructs an analyzer that only reports.
+	 * @param warehouse_ The warehouse.
+	 */
+	public WaitAnalyzer(Warehouse warehouse_)
+	{
+		this.warehouse = warehouse_;
+		this.context = warehouse_.getContext();
+		this.policy = REPORT;
+		this.suspects = new HashSet<Warehouse.Borrower>();
+		this.reported = new HashSet<Warehouse.Borrower>();
+		this.deadlocks = new AtomicLong(0);
+		this.blocked = new AtomicLong(0);
+		this.preempted = new AtomicLong(0);
+		this.setDaemon(true);
+	}
+
+	/**
+	 * Sets how deadlocks are resolved.
+	 * @param policy_ REPORT or PREEMPT.
+	 * @return False if the policy is invalid.
+	 */
+	public boolean setPolicy(String policy_)
+	{
+		if ((!policy_.equals(REPORT)) && (!policy_.equals(PREEMPT)))
+			return false;
+		this.policy = policy_;
+		return true;
+	}
+
+	/**
+	 * The routine of the analyzer.
+	 */
+	public void run()
+	{
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				Thread.sleep(PERIOD_MILLIS);
+				this.analyze();
+			}
+		} catch (InterruptedException e) {
+			/* Allow thread to exit */
+		}
+	}
+
+	/**
+	 * Stops the analyzer.
+	 */
+	public void cancel()
+	{
+		interrupt();
+	}
+
+	/* Finds the deadlocked and the blocked shifts. Package-private, so
+	 * that the tests can run the periods themselves */
+	void analyze()
+	{
+		ArrayList<Warehouse.Borrower> waiting = this.warehouse.getBorrowers();
+		if (waiting.isEmpty()) {
+			this.suspects.clear();
+			this.reported.clear();
+			return;
+		}
+
+		/* The units each item will have once the working shifts return
+		   theirs: all but those that waiting shifts hold */
+		HashMap<Warehouse.StockItem, Integer> work =
+				new HashMap<Warehouse.StockItem, Integer>();
+		for (Warehouse.Borrower b : waiting) {
+			for (int i = 0; i < b.mission.numOfItems(); ++i) {
+				Warehouse.StockItem item = this.warehouse.findItem(b.mission.getItemId(i));
+				if ((item != null) && (!work.containsKey(item)))
+					work.put(item, item.getInitAmount());
+			}
+		}
+		for (Warehouse.Borrower b : waiting)
+			this.credit(work, b, -1);
+
+		/* Reduce the graph */
+		HashSet<Warehouse.Borrower> stuck = new HashSet<Warehouse.Borrower>(waiting);
+		boolean reduced = true;
+		while (reduced) {
+			reduced = false;
+			for (Warehouse.Borrower b : waiting) {
+				if ((stuck.contains(b)) && (this.canProceed(b, work, stuck))) {
+					stuck.remove(b);
+					this.credit(work, b, 1);
+					reduced = true;
+				}
+			}
+		}
+
+		this.findBlocked(waiting);
+		this.resolve(stuck);
+	}
+
+	/* Adds `sign` times the units that `b` holds to `work` */
+	private void credit(HashMap<Warehouse.StockItem, Integer> work,
+						Warehouse.Borrower b, int sign)
+	{
+		int held = b.waitingFor;
+		for (int i = 0; i < held; ++i) {
+			Warehouse.StockItem item = this.warehouse.findItem(b.mission.getItemId(i));
+			Integer units = (item == null) ? null : work.get(item);
+			if (units != null)
+				work.put(item, units + sign * b.mission.getItemAmount(i));
+		}
+	}
+
+	/* Returns true if the remaining items of `b` are covered by `work`,
+	 * and, unless the warehouse backfills, no stuck shift is ahead of it
+	 * in the line of its item */
+	private boolean canProceed(Warehouse.Borrower b,
+							   HashMap<Warehouse.StockItem, Integer> work,
+							   HashSet<Warehouse.Borrower> stuck)
+	{
+		int next = b.waitingFor;
+		for (int i = next; i < b.mission.numOfItems(); ++i) {
+			Warehouse.StockItem item = this.warehouse.findItem(b.mission.getItemId(i));
+			Integer units = (item == null) ? null : work.get(item);
+			if ((units != null) && (units < b.mission.getItemAmount(i)))
+				return false;
+		}
+		if ((next >= b.mission.numOfItems()) || (this.warehouse.isBackfilling()))
+			return true;
+		Warehouse.StockItem item = this.warehouse.findItem(b.mission.getItemId(next));
+		if (item == null)
+			return true;
+		for (Warehouse.Borrower ahead : item.getWaiters()) {
+			if (ahead == b)
+				break;
+			if (stuck.contains(ahead))
+				return false;
+		}
+		return true;
+	}
+
+	/* Counts the shifts that could be served right now, but have been
+	 * waiting long behind the head of the line */
+	private void findBlocked(ArrayList<Warehouse.Borrower> waiting)
+	{
+		long now = System.currentTimeMillis();
+
+		for (Warehouse.Borrower b : waiting) {
+			int next = b.waitingFor;
+			if ((b.reportedBlocked) || (next >= b.mission.numOfItems())
+				    || (now - b.waitingSince < BLOCKED_MILLIS))
+				continue;
+			Warehouse.StockItem item = this.warehouse.findItem(b.mission.getItemId(next));
+			if (item == null)
+				continue;
+			Warehouse.Borrower[] line = item.getWaiters();
+			if ((line.length > 0) && (line[0] != b)
+				    && (item.getCurrAmount() >= b.mission.getItemAmount(next))) {
+				b.reportedBlocked = true;
+				this.blocked.incrementAndGet();
+				this.context.log("Sgt. " + b.sgtName + ": Mission "
+								    + b.mission.getName() + " is BLOCKED behind the"
+								    + " head of the line of " + item.getName() + ".");
+			}
+		}
+	}
+
+	/* Reports a deadlock that has lasted two periods, and preempts its
+	 * youngest shift if the policy says so */
+	private void resolve(HashSet<Warehouse.Borrower> stuck)
+	{
+		HashSet<Warehouse.Borrower> confirmed = new HashSet<Warehouse.Borrower>();
+		for (Warehouse.Borrower b : stuck)
+			if (this.suspects.contains(b))
+				confirmed.add(b);
+		this.suspects = stuck;
+		this.reported.retainAll(stuck);
+		if (confirmed.isEmpty())
+			return;
+
+		if (!this.reported.containsAll(confirmed)) {
+			this.reported.addAll(confirmed);
+			this.deadlocks.incrementAndGet();
+			StringBuilder msg = new StringBuilder("DEADLOCK among");
+			for (Warehouse.Borrower b : confirmed)
+				msg.append(" Sgt. ").append(b.sgtName).append(" (")
+				   .append(b.mission.getName()).append(')');
+			this.context.log(msg.toString());
+		}
+		if (!this.policy.equals(PREEMPT))
+			return;
+
+		Warehouse.Borrower youngest = null;
+		for (Warehouse.Borrower b : confirmed)
+			if ((youngest == null) || (b.started > youngest.started))
+				youngest = b;
+		if (youngest.preempt()) {
+			this.preempted.incrementAndGet();
+			this.suspects.remove(youngest);
+			this.context.log("Sgt. " + youngest.sgtName + ": Mission "
+							    + youngest.mission.getName() + " PREEMPTED.");
+		}
+	}
+
+	/**
+	 *
+	 * @return The number of deadlocks that were found.
+	 */
+	public long getDeadlocks()
+	{
+		return this.deadlocks.get();
+	}
+
+	/**
+	 * Appends the numbers of deadlocks, blocked shifts and preemptions.
+	 * @param out The buffer the statistics are appended to.
+	 */
+	public void renderStats(StringBuilder out)
+	{
+		out.append("--WAITS--\n\n")
+		   .append("Policy:\t").append(this.policy)
+		   .append("\nDeadlocks:\t").append(this.deadlocks.get())
+		   .append("\nHead-of-line blocks:\t").append(this.blocked.get())
+		   .append("\nPreempted shifts:\t").append(this.preempted.get())
+		   .append("\n\n");
+	}
+}
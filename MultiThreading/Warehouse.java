@@ -4,55 +4,342 @@
 
 
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * The items of the simulation, which the shifts borrow and return.
+ * Borrowing never blocks a thread: a shift that can't take the units of
+ * an item waits in the line of the item, and its thread goes back to the
+ * pool. Once units come back, the item hands them to the shifts in its
+ * line that may take them, and each of these is dispatched again, to
+ * borrow the rest of its items.
+ */
 public class Warehouse
 {
+	public static final String FIFO = "fifo";
+	public static final String BACKFILL = "backfill";
+	
+	/* What happens to a shift that asks for the units of an item */
+	private static final int TAKEN = 0;		/* It took them */
+	private static final int WAITING = 1;	/* It waits in line for them */
+	private static final int REFUSED = 2;	/* It was preempted */
+	
 	private ArrayList<StockItem> items;
+	private StockItem[] 		 byId;	/* Indexed by item id */
+	/* Ledger ids are given to the sergeants when they register */
+	private ArrayList<String> 						 ledgerNames;
+	private HashMap<String, Integer> 				 ledgerIds;
+	/* Units of all items that every Sgt. holds, by ledger id */
+	private volatile AtomicInteger[] 				 holdings;
+	/* Shifts that are borrowing their items */
+	private ConcurrentHashMap<Borrower, Boolean> 	 borrowers;
+	private WaitAnalyzer 							 analyzer;
+	private Replenisher 							 replenisher;
+	private final Context 							 context;
+	private volatile boolean 						 backfill;
+	private AtomicLong 								 backfills; /* Borrows
+										   that went ahead of a waiting line */
+	private volatile boolean 						 closed; /* No shift
+										   may wait in line anymore */
 	
 	/**
 	 * Constructs a new Warehouse with no items.
+	 * @param context_ The context of the simulation.
 	 */
-	public Warehouse()
+	public Warehouse(Context context_)
 	{
+		this.context = context_;
 		this.items = new ArrayList<StockItem>(0);
+		this.byId = new StockItem[0];
+		this.ledgerNames = new ArrayList<String>(0);
+		this.ledgerIds = new HashMap<String, Integer>();
+		this.holdings = new AtomicInteger[0];
+		this.borrowers = new ConcurrentHashMap<Borrower, Boolean>();
+		this.analyzer = new WaitAnalyzer(this);
+		this.replenisher = new Replenisher(this);
+		this.backfill = false;
+		this.backfills = new AtomicLong(0);
+		this.closed = false;
+	}
+	
+	/**
+	 * Sets how the units of an item are allocated to the shifts waiting
+	 * for it. With FIFO, only the first in line may take units once it has
+	 * to wait. With BACKFILL, the first in line gets a reservation for the
+	 * time at which enough units will have been returned, going by the
+	 * hours of the shifts that hold them, and any other shift may take
+	 * units right away if it returns them before that time, or if it only
+	 * takes units that the first in line won't need then.
+	 * @param allocation FIFO or BACKFILL.
+	 * @return False if the allocation is invalid.
+	 */
+	public boolean setAllocation(String allocation)
+	{
+		if (allocation.equals(FIFO))
+			this.backfill = false;
+		else if (allocation.equals(BACKFILL))
+			this.backfill = true;
+		else
+			return false;
+		return true;
 	}
 	
 	/**
 	 * 
-	 * @param items_ A list of the items to borrow and their amounts.
-	 * @param sgtName The name of the Sgt that wants to borrow these items.
+	 * @return True if the items are allocated with BACKFILL.
+	 */
+	public boolean isBackfilling()
+	{
+		return this.backfill;
+	}
+	
+	/**
+	 * Gives a sergeant its slot in the ledgers of the items. A sergeant
+	 * that has the name of a registered one gets the same slot.
+	 * @param sgtName The name of the sergeant.
+	 * @return The ledger id of the sergeant.
 	 */
-	public void borrowItems(final ArrayList<Item> items_, String sgtName)
+	public synchronized int registerSergeant(String sgtName)
 	{
-		for (Item sgtItem : items_) {
-			StockItem stockItem = findItem(sgtItem.getName());
+		Integer id = this.ledgerIds.get(sgtName);
+		if (id != null)
+			return id;
+		
+		id = this.ledgerNames.size();
+		this.ledgerNames.add(sgtName);
+		this.ledgerIds.put(sgtName, id);
+		AtomicInteger[] grown = new AtomicInteger[id + 1];
+		System.arraycopy(this.holdings, 0, grown, 0, id);
+		grown[id] = new AtomicInteger(0);
+		this.holdings = grown;
+		return id;
+	}
+	
+	/**
+	 * Starts borrowing the items of a shift, for the hours of the shift,
+	 * after which they're expected back. The thread never waits: once the
+	 * shift holds all its items, its itemsBorrowed is called, and if it's
+	 * preempted while waiting in line, its borrowFailed is called with
+	 * the items it took returned. Either is called by this thread, or by
+	 * a thread of the pool to which the shift is dispatched again.
+	 * @param shift The shift.
+	 */
+	public void borrowItems(RunnableMission shift)
+	{
+		Borrower b = new Borrower(shift);
+		
+		this.borrowers.put(b, Boolean.TRUE);
+		this.proceed(b);
+	}
+	
+	/* Borrows the items of `b` from the one it waits for on, until it
+	 * holds them all, or has to wait in the line of one */
+	private void proceed(Borrower b)
+	{
+		Mission mission = b.mission;
+		
+		for ( ; b.waitingFor < mission.numOfItems(); b.waitFor(b.waitingFor + 1)) {
+			StockItem stockItem = findItem(mission.getItemId(b.waitingFor));
 			if (stockItem == null) {
-				System.err.println("ERROR: Item \"" + sgtItem.getName()
-								       + "\" doesn't exist in the warehouse.");
+				printMissing(mission.getItemId(b.waitingFor));
+				break;
+			}
+			int outcome = stockItem.borrow(b);
+			if (outcome == WAITING)
+				return; /* Dispatched again once the units are handed */
+			if (outcome == REFUSED) {
+				this.abort(b);
 				return;
 			}
-			stockItem.borrow(sgtName, sgtItem.getAmount());
 		}
+		if (b.finish()) {
+			this.abort(b);
+			return;
+		}
+		this.borrowers.remove(b);
+		Sergeant sgt = b.shift.getSergeant();
+		if (this.context.hasSubscribers())
+			for (int j = 0; j < b.waitingFor; ++j)
+				this.context.publish(Event.itemBorrowed(mission, sgt,
+						this.context.getItems().name(mission.getItemId(j)),
+						mission.getItemAmount(j)));
+		b.shift.itemsBorrowed();
 	}
+	
+	/* Returns the items that the preempted `b` holds, and ends its shift */
+	private void abort(Borrower b)
+	{
+		int ledgerId = b.shift.getSergeant().getLedgerId();
 		
+		for (int j = 0; j < b.waitingFor; ++j)
+			findItem(b.mission.getItemId(j))
+					.giveBack(ledgerId, b.mission.getItemAmount(j));
+		this.borrowers.remove(b);
+		b.shift.borrowFailed();
+	}
+	
+	/* Dispatches the shifts that were handed the units they waited for
+	 * again, to borrow the rest of their items. Called by the thread that
+	 * handed the units, outside the lock of the item */
+	private void resume(ArrayList<Borrower> handed)
+	{
+		for (final Borrower b : handed) {
+			b.waitFor(b.waitingFor + 1);
+			final Warehouse self = this;
+			Runnable task = new Runnable() {
+				public void run() {
+					self.proceed(b);
+				}
+			};
+			try {
+				b.shift.getSergeant().getScheduler().resume(task);
+			} catch (RejectedExecutionException e) {
+				/* The pool is shutting down */
+				task.run();
+			}
+		}
+	}
+	
+	/**
+	 * Preempts all the shifts that are borrowing their items, and lets no
+	 * shift wait in line from now on. Called when the sergeants are shut
+	 * down.
+	 */
+	public void cancelBorrows()
+	{
+		this.closed = true;
+		for (Borrower b : this.borrowers.keySet())
+			b.preempt();
+	}
+	
 	/**
 	 * 
-	 * @param items_ A list of the items to return and their amounts.
-	 * @param sgtName The name of the Sgt that wants to return these items.
+	 * @param mission The mission whose items should be returned.
+	 * @param sgt The Sgt that wants to return these items.
 	 */
-	public void returnItems(final ArrayList<Item> items_, String sgtName)
+	public void returnItems(final Mission mission, Sergeant sgt)
 	{
-		for (Item sgtItem : items_) {
-			StockItem stockItem = findItem(sgtItem.getName());
+		for (int i = 0; i < mission.numOfItems(); ++i) {
+			StockItem stockItem = findItem(mission.getItemId(i));
 			if (stockItem == null) {
-				System.err.println("ERROR: Item \"" + sgtItem.getName()
-								       + "\" doesn't exist in the warehouse.");
+				printMissing(mission.getItemId(i));
 				return;
 			}
-			stockItem.giveBack(sgtName, sgtItem.getAmount());
+			stockItem.giveBack(sgt.getLedgerId(), mission.getItemAmount(i));
+			if (this.context.hasSubscribers())
+				this.context.publish(Event.itemReturned(mission, sgt,
+						stockItem.getName(), mission.getItemAmount(i)));
+		}
+	}
+	
+	/**
+	 * Sets items aside for a shift that has been queued but hasn't
+	 * borrowed them yet.
+	 * @param mission The mission whose items should be reserved.
+	 */
+	public void reserveItems(final Mission mission)
+	{
+		for (int i = 0; i < mission.numOfItems(); ++i) {
+			StockItem stockItem = findItem(mission.getItemId(i));
+			if (stockItem != null)
+				stockItem.reserve(mission.getItemAmount(i));
+		}
+	}
+	
+	/**
+	 * Cancels a reservation made by reserveItems.
+	 * @param mission The mission whose items were reserved.
+	 */
+	public void releaseItems(final Mission mission)
+	{
+		for (int i = 0; i < mission.numOfItems(); ++i) {
+			StockItem stockItem = findItem(mission.getItemId(i));
+			if (stockItem != null)
+				stockItem.reserve((-1)*mission.getItemAmount(i));
+		}
+	}
+	
+	/**
+	 * 
+	 * @return The shifts that are borrowing their items right now.
+	 */
+	public ArrayList<Borrower> getBorrowers()
+	{
+		return new ArrayList<Borrower>(this.borrowers.keySet());
+	}
+	
+	/**
+	 * 
+	 * @return The analyzer of the waits for the items of this warehouse.
+	 */
+	public WaitAnalyzer getAnalyzer()
+	{
+		return this.analyzer;
+	}
+	
+	/**
+	 * 
+	 * @return The context of the simulation.
+	 */
+	public Context getContext()
+	{
+		return this.context;
+	}
+	
+	/**
+	 * 
+	 * @return The replenisher that restocks the items of this warehouse.
+	 */
+	public Replenisher getReplenisher()
+	{
+		return this.replenisher;
+	}
+	
+	/* Prints an error about an item that isn't in the warehouse */
+	private void printMissing(int itemId)
+	{
+		System.err.println("ERROR: Item \"" + this.context.getItems().name(itemId)
+						       + "\" doesn't exist in the warehouse.");
+	}
+	
+	/**
+	 * 
+	 * @return A snapshot of the items that are neither borrowed
+	 * nor reserved.
+	 */
+	public synchronized AvailabilityView availability()
+	{
+		AvailabilityView view = new AvailabilityView(this.context.getItems().size());
+		
+		for (StockItem item : this.items) {
+			synchronized (item) {
+				int free = item.getCurrAmount() - item.getReserved();
+				view.put(item.getId(), free,
+						 free < item.getInitAmount());
+			}
 		}
+		return view;
+	}
+	
+	/**
+	 * 
+	 * @return The items of the warehouse with their initial amounts.
+	 */
+	public synchronized ArrayList<Item> getStock()
+	{
+		ArrayList<Item> stock = new ArrayList<Item>(this.items.size());
+		for (StockItem item : this.items)
+			stock.add(new Item(item.getName(), item.getInitAmount(),
+							   item.getId()));
+		return stock;
 	}
 	
 	/**
@@ -60,23 +347,32 @@ public class Warehouse
 	 * @param name The name of the item that will be added.
 	 * @param amount The amount of that item.
 	 */
-	public void addItem(String name, int amount)
+	public synchronized void addItem(String name, int amount)
 	{
-		StockItem item = findItem(name);
-		if (item == null)
-			this.items.add(new StockItem(name, amount));
-		else 
+		int id = this.context.getItems().intern(name);
+		StockItem item = findItem(id);
+		if (item == null) {
+			item = new StockItem(name, amount, id);
+			if (item.getId() >= this.byId.length) {
+				StockItem[] grown = new StockItem[Math.max(item.getId() + 1,
+														   2*this.byId.length)];
+				System.arraycopy(this.byId, 0, grown, 0, this.byId.length);
+				this.byId = grown;
+			}
+			this.items.add(item);
+			this.byId[item.getId()] = item;
+		} else { 
 			item.addToAmount(amount);
+		}
 	}
 	
-	/* Gets item name and returns the corresponding item in the warehouse */
-	private StockItem findItem(String itemName)
+	/* Gets item id and returns the corresponding item in the warehouse */
+	StockItem findItem(int itemId)
 	{	
-		for (StockItem item : this.items)
-			if (item.getName().equals(itemName))
-				return item;
-		
-		return null;
+		StockItem[] arr = this.byId;
+		if (itemId >= arr.length)
+			return null;
+		return arr[itemId];
 	}
 	
 	/**
@@ -85,28 +381,119 @@ public class Warehouse
 	 */
 	public void printWarehouse()
 	{
-		if (this.items == null) {
-			System.out.println("Warehouse is empty.\n");
-			return;
-		}
+		StringBuilder out = new StringBuilder();
+		this.renderWarehouse(new Query(), out);
+		System.out.print(out);
+	}
+	
+	/**
+	 * Appends a page of the items in the warehouse, and for absent items
+	 * the sergeants that hold them and the amounts. With a Sgt. filter,
+	 * only the items that this Sgt. holds are shown.
+	 * @param q The filter and the page.
+	 * @param out The buffer the report is appended to.
+	 */
+	public synchronized void renderWarehouse(Query q, StringBuilder out)
+	{
+		int cnt = 0;
+		Integer sgtId = (q.getSgt() == null) ? null : this.ledgerIds.get(q.getSgt());
 		
 		for (StockItem item : this.items) {
-			int initAmount = item.getInitAmount();
-			int currAmount = item.getCurrAmount();
-			System.out.println ("Item " + item.getName() + ":\n"
-								    + "\tInitial Amount: " + initAmount + "\n"
-								    + "\tCurrent Amount: " + currAmount);
-			if (initAmount > currAmount) {
-				System.out.println("\tHoldings:");
-				for (BorrowedTo b : item.borrows)
-					System.out.println("\t\tSgt. " + b.getSgtName()
-									       + ": " + b.getAmount() + " units.");
+			/* Every item is rendered as it is at a single moment */
+			synchronized (item) {
+				if ((q.getSgt() != null)
+					    && ((sgtId == null) || (item.heldBy(sgtId) == 0)))
+					continue;
+				if (q.inPage(cnt)) {
+					int initAmount = item.getInitAmount();
+					int currAmount = item.getCurrAmount();
+					out.append("Item ").append(item.getName())
+					   .append(":\n\tInitial Amount: ").append(initAmount)
+					   .append("\n\tCurrent Amount: ").append(currAmount)
+					   .append('\n');
+					if (initAmount > currAmount) {
+						out.append("\tHoldings:\n");
+						for (int i = 0; i < item.numOfHolders; ++i) {
+							int id = item.holders[i];
+							out.append("\t\tSgt. ").append(this.ledgerNames.get(id))
+							   .append(": ").append(item.held[id])
+							   .append(" units.\n");
+						}
+					}
+					out.append('\n');
+				}
+				++cnt;
+			}
+		}
+		q.renderRange(out, cnt);
+	}
+	
+	
+	/**
+	 * Appends, for every item, how much of it is borrowed and reserved,
+	 * and for every Sgt. the units of items it holds.
+	 * @param out The buffer the statistics are appended to.
+	 */
+	public synchronized void renderStats(StringBuilder out)
+	{
+		out.append("--ITEMS--\n\n")
+		   .append("Allocation:\t").append(this.backfill ? BACKFILL : FIFO)
+		   .append(", ").append(this.backfills.get()).append(" backfilled\n");
+		for (StockItem item : this.items) {
+			synchronized (item) {
+				int initAmount = item.getInitAmount();
+				int borrowed = initAmount - item.getCurrAmount();
+				out.append(item.getName()).append(":\t").append(borrowed)
+				   .append(" of ").append(initAmount).append(" borrowed (")
+				   .append((initAmount == 0) ? 0 : (100*borrowed / initAmount))
+				   .append("%), ").append(item.getReserved())
+				   .append(" reserved\n");
 			}
-			System.out.println();
 		}
+		out.append("\nHoldings:\n");
+		AtomicInteger[] units = this.holdings;
+		for (int id = 0; id < units.length; ++id) {
+			if (units[id].get() != 0)
+				out.append("\tSgt. ").append(this.ledgerNames.get(id)).append(": ")
+				   .append(units[id].get()).append(" units.\n");
+		}
+		out.append('\n');
+		this.replenisher.renderStats(out);
+		this.analyzer.renderStats(out);
+	}
+	
+	/* Adds `amount` units to the holdings of the Sgt. whose ledger id
+	 * is `sgtId` */
+	private void addHolding(int sgtId, int amount)
+	{
+		this.holdings[sgtId].addAndGet(amount);
 	}
 	
 	
+	/* Returns true if lending `amount` of the `free` units at `now` for
+	 * `millis` milliseconds doesn't delay a first in line that wants
+	 * `wanted` units, while `loans` are out: the units are returned before
+	 * enough units for it will have been, or it won't need them */
+	static boolean mayBackfill(int wanted, int free, ArrayList<Loan> loans,
+							   long now, int amount, long millis)
+	{
+		if (wanted <= free)
+			return amount <= free - wanted;
+		
+		ArrayList<Loan> due = new ArrayList<Loan>(loans);
+		Collections.sort(due);
+		for (Loan loan : due) {
+			free += loan.amount;
+			if (free >= wanted) {
+				/* `loan.due` is the reservation of the first in line,
+				   and `free - wanted` units are left over then */
+				return (now + millis <= loan.due) || (amount <= free - wanted);
+			}
+		}
+		/* Returns alone will never satisfy it */
+		return true;
+	}
+	
 	/* Nested classes */
 	
 	/*
@@ -115,17 +502,28 @@ public class Warehouse
 	class StockItem extends Item
 	{
 		private int currAmount;
-		/* List of sergeants that hold this type of
-		   item, and how many of it they hold */
-		private ArrayList<BorrowedTo> borrows;
-		private ArrayBlockingQueue<Thread> queue;
+		private int reserved; /* Set aside for queued shifts */
+		/* The ledger: the units every Sgt. holds, by ledger id, and the
+		   ids of the Sgts. that hold any, packed at the front of `holders`
+		   in no particular order */
+		private int[] held;
+		private int[] holders;
+		private int[] slots;	/* Index in `holders` by ledger id, or -1 */
+		private int   numOfHolders;
+		private ArrayDeque<Borrower> queue;	/* Grows with the line */
+		private ArrayList<Loan> loans; /* Units out, and when they're due */
 		
-		public StockItem(String name_, int amount_)
+		public StockItem(String name_, int amount_, int id_)
 		{
-			super(name_, amount_);
+			super(name_, amount_, id_);
 			this.currAmount = amount_;
-			this.borrows = new ArrayList<BorrowedTo>(0);
-			this.queue = new ArrayBlockingQueue<Thread>(ChiefOfStaff.maxThreads);
+			this.reserved = 0;
+			this.held = new int[0];
+			this.holders = new int[0];
+			this.slots = new int[0];
+			this.numOfHolders = 0;
+			this.queue = new ArrayDeque<Borrower>();
+			this.loans = new ArrayList<Loan>(0);
 		}
 		
 		public String getName() {
@@ -140,84 +538,289 @@ public class Warehouse
 			return this.currAmount;
 		}
 		
-		public synchronized BorrowedTo findSgt(String sgtName) {
-			for (BorrowedTo item : this.borrows)
-				if (item.getSgtName().equals(sgtName))
-					return item;
-			
-			return null;
+		public synchronized int getReserved() {
+			return this.reserved;
+		}
+		
+		public synchronized void reserve(int amount_) {
+			this.reserved += amount_;
+		}
+		
+		/* The units that the Sgt. of ledger id `sgtId` holds */
+		public synchronized int heldBy(int sgtId) {
+			return (sgtId < this.held.length) ? this.held[sgtId] : 0;
 		}
 		
-		public synchronized void borrow(String sgtName, int amount)
+		/* The shifts waiting for this item, first in line first */
+		public synchronized Borrower[] getWaiters() {
+			return this.queue.toArray(new Borrower[0]);
+		}
+		
+		/* Takes the units that `b` waits for, if they can be taken right
+		 * away, or puts `b` in line for them */
+		synchronized int borrow(Borrower b)
 		{
-			if (amount > this.currAmount) {
-				try {
-					this.queue.put(Thread.currentThread());
-				} catch (InterruptedException e) {}
+			int amount = b.wanted();
 			
-				do {
-					try {
-						this.wait();
-					} catch (InterruptedException e) {}
-				} while ((amount > this.currAmount)
-					       || (this.queue.peek() != Thread.currentThread()));
-				
-				this.queue.remove();
+			if ((amount > this.currAmount)
+				    || ((backfill) && (!this.queue.isEmpty())
+				        && (!this.mayBackfill(amount, b.millis)))) {
+				if ((closed) || (!b.park(this)))
+					return REFUSED;
+				this.queue.add(b);
+				return WAITING;
 			}
-			
+			this.take(b, amount);
+			return TAKEN;
+		}
+		
+		/* Lends `amount` units to `b` */
+		private void take(Borrower b, int amount)
+		{
+			int sgtId = b.shift.getSergeant().getLedgerId();
 			this.currAmount -= amount;
-			updateBorrows(sgtName, amount);
-			
-			
+			this.loans.add(new Loan(sgtId, amount,
+									System.currentTimeMillis() + b.millis));
+			updateBorrows(sgtId, amount);
+		}
+		
+		/* Hands units to the shifts in line that may take them now: the
+		 * first in line, and with BACKFILL any other that doesn't delay
+		 * it. The shifts that are handed units leave the line, and are
+		 * appended to `handed` */
+		private void hand(ArrayList<Borrower> handed)
+		{
+			Borrower first;
+			while (((first = this.queue.peek()) != null)
+				       && (first.wanted() <= this.currAmount)) {
+				this.queue.poll();
+				first.unpark();
+				this.take(first, first.wanted());
+				handed.add(first);
+			}
+			if ((!backfill) || (first == null))
+				return;
+			Iterator<Borrower> it = this.queue.iterator();
+			it.next(); /* The first in line */
+			while (it.hasNext()) {
+				Borrower b = it.next();
+				int amount = b.wanted();
+				if ((amount <= this.currAmount)
+					    && (this.mayBackfill(amount, b.millis))) {
+					it.remove();
+					b.unpark();
+					this.take(b, amount);
+					backfills.incrementAndGet();
+					handed.add(b);
+				}
+			}
 		}
-		public synchronized void giveBack(String sgtName, int amount)
+		
+		/* Takes `b` out of the line. Returns false if it isn't in line,
+		 * i.e. it has been handed its units */
+		boolean leave(Borrower b)
 		{
-			this.currAmount += amount;
-			updateBorrows(sgtName, (-1)*amount);
-			this.notifyAll();
+			ArrayList<Borrower> handed = new ArrayList<Borrower>(0);
+			boolean left;
+			synchronized (this) {
+				left = this.queue.remove(b);
+				if (left) {
+					b.unpark();
+					/* The next one may be able to proceed */
+					this.hand(handed);
+				}
+			}
+			resume(handed);
+			return left;
+		}
+		
+		/* Returns true if taking `amount` units for `millis` milliseconds
+		 * doesn't delay the first in line */
+		private boolean mayBackfill(int amount, long millis)
+		{
+			Borrower first = this.queue.peek();
+			if (first == null)
+				return true;
+			return Warehouse.mayBackfill(first.wanted(), this.currAmount,
+										 this.loans, System.currentTimeMillis(),
+										 amount, millis);
+		}
+		
+		public void giveBack(int sgtId, int amount)
+		{
+			ArrayList<Borrower> handed = new ArrayList<Borrower>(0);
+			synchronized (this) {
+				this.currAmount += amount;
+				this.repay(sgtId, amount);
+				updateBorrows(sgtId, (-1)*amount);
+				this.hand(handed);
+			}
+			resume(handed);
+		}
+		
+		/* Forgets the loan of `amount` units to the Sgt. of ledger id
+		 * `sgtId` that is due the earliest */
+		private void repay(int sgtId, int amount)
+		{
+			Loan first = null;
+			for (Loan loan : this.loans)
+				if ((loan.amount == amount) && (loan.sgtId == sgtId)
+					    && ((first == null) || (loan.due < first.due)))
+					first = loan;
+			if (first != null)
+				this.loans.remove(first);
+		}
+		
+		/* Adds `amount` units to the ledger entry of the Sgt. of ledger id
+		 * `sgtId`. A Sgt. joins the holders when it starts holding units,
+		 * and leaves them, by swapping the last holder into its place, when
+		 * it holds none */
+		public synchronized void updateBorrows(int sgtId, int amount)
+		{
+			addHolding(sgtId, amount);
+			if (sgtId >= this.held.length)
+				this.growLedger(sgtId + 1);
 			
+			int before = this.held[sgtId];
+			this.held[sgtId] += amount;
+			if ((before == 0) && (this.held[sgtId] != 0)) {
+				this.slots[sgtId] = this.numOfHolders;
+				this.holders[this.numOfHolders++] = sgtId;
+			} else if ((before != 0) && (this.held[sgtId] == 0)) {
+				int last = this.holders[--this.numOfHolders];
+				this.holders[this.slots[sgtId]] = last;
+				this.slots[last] = this.slots[sgtId];
+				this.slots[sgtId] = -1;
+			}
 		}
 		
-		public synchronized void updateBorrows(String sgtName, int amount)
+		/* Makes room in the ledger for ledger ids below `size` */
+		private void growLedger(int size)
 		{
-			BorrowedTo item = this.findSgt(sgtName);
-			if (item == null)
-				this.borrows.add(new BorrowedTo(sgtName, amount));
-			else
-				item.changeAmount(amount);
+			size = Math.max(size, 2 * this.held.length);
+			int[] held_ = new int[size];
+			int[] holders_ = new int[size];
+			int[] slots_ = new int[size];
+			System.arraycopy(this.held, 0, held_, 0, this.held.length);
+			System.arraycopy(this.holders, 0, holders_, 0, this.numOfHolders);
+			System.arraycopy(this.slots, 0, slots_, 0, this.slots.length);
+			for (int i = this.slots.length; i < size; ++i)
+				slots_[i] = -1;
+			this.held = held_;
+			this.holders = holders_;
+			this.slots = slots_;
 		}
 		
-		public synchronized void addToAmount(int amount_)
+		public void addToAmount(int amount_)
 		{
-			this.amount += amount_;
-			this.currAmount += amount_;
-			this.notifyAll();
+			ArrayList<Borrower> handed = new ArrayList<Borrower>(0);
+			synchronized (this) {
+				this.amount += amount_;
+				this.currAmount += amount_;
+				this.hand(handed);
+			}
+			resume(handed);
 		}
 	}
 	
 	/*
-	 * Represents an entry in an item's borrow list.
+	 * A shift that is borrowing the items of its mission, one after the
+	 * other; it holds the items before `waitingFor` and waits for that
+	 * one. Read by the WaitAnalyzer.
 	 */
-	class BorrowedTo
+	class Borrower
 	{
-		String sgtName;
-		int amount;
+		final RunnableMission shift;
+		final Mission 	mission;
+		final String 	sgtName;
+		final long 		millis;		/* The items are due back after */
+		final long 		started;
+		volatile int 	waitingFor;
+		volatile long 	waitingSince;
+		volatile boolean reportedBlocked; /* Head-of-line blocking counted */
+		private StockItem line;		/* In whose line it waits, or null.
+									   Guarded by this */
+		private boolean done;		/* Guarded by this */
+		private boolean preempted;	/* Guarded by this */
 		
-		BorrowedTo(String sgtName_, int amount_) {
-			this.sgtName = sgtName_;
-			this.amount = amount_;
+		Borrower(RunnableMission shift_) {
+			this.shift = shift_;
+			this.mission = shift_.getMission();
+			this.sgtName = shift_.getSergeant().getName();
+			this.millis = shift_.getHours() * 1000L;
+			this.started = System.nanoTime();
+			this.waitingFor = 0;
+			this.waitingSince = System.currentTimeMillis();
+			this.reportedBlocked = false;
+			this.line = null;
+			this.done = false;
+			this.preempted = false;
 		}
 		
-		String getSgtName() {
-			return this.sgtName;
+		void waitFor(int i) {
+			this.waitingFor = i;
+			this.waitingSince = System.currentTimeMillis();
 		}
 		
-		void changeAmount(int amount_) {
-			this.amount += amount_; 
+		/* The units of the item it waits for */
+		int wanted() {
+			return this.mission.getItemAmount(this.waitingFor);
 		}
 		
-		int getAmount() {
-			return this.amount;
+		/* Records that it waits in the line of `item`, under the lock of
+		 * the item. Returns false if it was preempted meanwhile */
+		synchronized boolean park(StockItem item) {
+			if (this.preempted)
+				return false;
+			this.line = item;
+			return true;
+		}
+		
+		/* Records that it has left the line, under the lock of the item */
+		synchronized void unpark() {
+			this.line = null;
+		}
+		
+		/* Returns true if the shift was preempted meanwhile */
+		synchronized boolean finish() {
+			this.done = true;
+			return this.preempted;
+		}
+		
+		/* Preempts the shift, unless it has got all its items. A shift
+		 * that waits in line is taken out of it and ends right away; any
+		 * other ends once it asks for its next item */
+		boolean preempt() {
+			StockItem item;
+			synchronized (this) {
+				if ((this.done) || (this.preempted))
+					return false;
+				this.preempted = true;
+				item = this.line;
+			}
+			if ((item != null) && (item.leave(this)))
+				abort(this);
+			return true;
+		}
+	}
+	
+	/*
+	 * Units of an item that are out, and the time they're due back.
+	 */
+	class Loan implements Comparable<Loan>
+	{
+		final int 	sgtId;
+		final int 	amount;
+		final long 	due;
+		
+		Loan(int sgtId_, int amount_, long due_) {
+			this.sgtId = sgtId_;
+			this.amount = amount_;
+			this.due = due_;
+		}
+		
+		public int compareTo(Loan loan) {
+			return Long.compare(this.due, loan.due);
 		}
 	}
 }
\ No newline at end of file
@@ -0,0 +1,164 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A worker process: a sergeant that runs in a JVM of its own and works
+ * the shifts that a Coordinator leases to it, on a pool of its own. The
+ * hours it has worked are reported in batches, and when there is nothing
+ * to report it sends heartbeats.
+ */
+public class Worker
+{
+	private static final int WAIT_TIME_MULTIPILICAND = 1000;
+
+	private SergeantSpec 						spec;
+	private Socket 								socket;
+	private DataInputStream 					in;
+	private DataOutputStream 					out;
+	private ExecutorService 					pool;
+	private ConcurrentHashMap<Long, Future<?>> 	shifts;
+	private LinkedBlockingQueue<long[]> 		done;	/* {lease id, hours} */
+
+	/**
+	 * Constructs a worker.
+	 * @param spec_ The sergeant of the worker.
+	 */
+	public Worker(SergeantSpec spec_)
+	{
+		this.spec = spec_;
+		this.pool = Executors.newFixedThreadPool(Math.max(1, spec_.getNumOfThreads()));
+		this.shifts = new ConcurrentHashMap<Long, Future<?>>();
+		this.done = new LinkedBlockingQueue<long[]>();
+	}
+
+	/**
+	 * Connects to a coordinator and works until it disconnects.
+	 * @param host The host of the coordinator.
+	 * @param port The port of the coordinator.
+	 * @throws IOException If the coordinator can't be reached.
+	 */
+	public void work(String host, int port) throws IOException
+	{
+		this.socket = new Socket(host, port);
+		this.socket.setTcpNoDelay(true);
+		this.in = new DataInputStream(new BufferedInputStream(this.socket.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
+
+		ArrayList<String> skills = this.spec.getSkills();
+		this.out.writeByte(Coordinator.HELLO);
+		this.out.writeUTF(this.spec.getName());
+		this.out.writeInt(this.spec.getNumOfThreads());
+		this.out.writeInt(this.spec.getMaxMissions());
+		this.out.writeInt(this.spec.getWorkHours());
+		this.out.writeUTF(this.spec.getPriority());
+		this.out.writeInt(skills.size());
+		for (String skill : skills)
+			this.out.writeUTF(skill.trim());
+		this.out.flush();
+
+		Thread reporter = new Thread() {
+			public void run() {
+				report();
+			}
+		};
+		reporter.setDaemon(true);
+		reporter.start();
+
+		try {
+			for (;;) {
+				byte type = this.in.readByte();
+				if (type == Coordinator.LEASES) {
+					int count = this.in.readInt();
+					for (int i = 0; i < count; ++i) {
+						long leaseId = this.in.readLong();
+						this.in.readInt(); /* The mission id */
+						this.start(leaseId, this.in.readInt());
+					}
+				} else if (type == Coordinator.CANCEL) {
+					Future<?> shift = this.shifts.remove(this.in.readLong());
+					if (shift != null)
+						shift.cancel(true);
+				} else {
+					throw new IOException("Unknown message " + type + ".");
+				}
+			}
+		} catch (EOFException e) {
+			System.out.println("Coordinator has disconnected.");
+		} finally {
+			this.pool.shutdownNow();
+			reporter.interrupt();
+			this.socket.close();
+		}
+	}
+
+	/* Starts working a lease */
+	private void start(final long leaseId, final int hours)
+	{
+		FutureTask<Object> shift = new FutureTask<Object>(new Runnable() {
+			public void run() {
+				try {
+					Thread.sleep(hours * (long) WAIT_TIME_MULTIPILICAND);
+				} catch (InterruptedException e) {
+					return; /* Cancelled by the coordinator */
+				}
+				if (shifts.remove(leaseId) != null)
+					done.offer(new long[] { leaseId, hours });
+			}
+		}, null);
+		/* Registered before it runs, so that a shift that ends at once
+		   finds itself, and a cancellation finds it */
+		this.shifts.put(leaseId, shift);
+		this.pool.execute(shift);
+	}
+
+	/* The routine of the reporter: sends the leases that have been
+	 * worked as one message, or a heartbeat if there are none */
+	private void report()
+	{
+		ArrayList<long[]> batch = new ArrayList<long[]>(0);
+
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				batch.clear();
+				long[] first = this.done.poll(Coordinator.HEARTBEAT_MILLIS,
+											  TimeUnit.MILLISECONDS);
+				if (first != null) {
+					batch.add(first);
+					this.done.drainTo(batch);
+					this.out.writeByte(Coordinator.DONE);
+					this.out.writeInt(batch.size());
+					for (long[] d : batch) {
+						this.out.writeLong(d[0]);
+						this.out.writeInt((int) d[1]);
+					}
+				} else {
+					this.out.writeByte(Coordinator.HEARTBEAT);
+				}
+				this.out.flush();
+			}
+		} catch (InterruptedException e) {
+			/* Allow thread to exit */
+		} catch (IOException e) {
+			/* The coordinator is gone; the reader will notice */
+		}
+	}
+}
@@ -0,0 +1,287 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The coordinator's end of the connection to a worker process. This
+ * thread reads the messages of the worker; a second thread writes the
+ * leases, batching all the leases that were made while it was writing
+ * into a single message. A worker that closes the connection or misses
+ * its heartbeats is dead: its sergeant retires, and its leases fail so
+ * that their missions are offered again.
+ */
+public class WorkerLink extends Thread
+{
+	private Socket 							socket;
+	private DataInputStream 				in;
+	private DataOutputStream 				out;
+	private Shards 							shards;
+	private Coordinator 					coordinator;
+	private Context 						context;
+	private Sergeant 						sgt;
+	private HashMap<Long, Lease> 			leases; /* Guarded by this */
+	private long 							nextLeaseId;
+	private LinkedBlockingQueue<Lease> 		outbox;
+	private volatile boolean 				alive;
+
+	/**
+	 * Constructs a link over a connected socket.
+	 * @param socket_ The socket of the worker.
+	 * @param shards_ The boards, one of which the worker will serve.
+	 * @param coordinator_ The coordinator, which is told when the link
+	 * closes.
+	 * @throws IOException If the streams of the socket can't be opened.
+	 */
+	public WorkerLink(Socket socket_, Shards shards_, Coordinator coordinator_)
+			throws IOException
+	{
+		this.socket = socket_;
+		this.socket.setTcpNoDelay(true);
+		this.socket.setSoTimeout(Coordinator.HEARTBEAT_TIMEOUT_MILLIS);
+		this.in = new DataInputStream(new BufferedInputStream(socket_.getInputStream()));
+		this.out = new DataOutputStream(new BufferedOutputStream(socket_.getOutputStream()));
+		this.shards = shards_;
+		this.coordinator = coordinator_;
+		this.context = shards_.getContext();
+		this.sgt = null;
+		this.leases = new HashMap<Long, Lease>();
+		this.nextLeaseId = 0;
+		this.outbox = new LinkedBlockingQueue<Lease>();
+		this.alive = true;
+		this.setDaemon(true);
+	}
+
+	/**
+	 * The routine of the link: registers the worker as a sergeant, and
+	 * then reads its messages until it dies.
+	 */
+	public void run()
+	{
+		try {
+			if (this.in.readByte() != Coordinator.HELLO)
+				throw new IOException("Worker didn't say hello.");
+			SergeantSpec spec = this.readHello();
+			spec.setLink(this);
+
+			Thread writer = new Thread() {
+				public void run() {
+					writeLeases();
+				}
+			};
+			writer.setDaemon(true);
+			writer.start();
+
+			ArrayList<SergeantSpec> specs = new ArrayList<SergeantSpec>(1);
+			specs.add(spec);
+			this.sgt = this.shards.addSgts(specs).get(0);
+			this.shards.wakeUp();
+			this.context.log("Worker " + spec.getName() + " joined from "
+							    + this.socket.getRemoteSocketAddress() + ".");
+
+			for (;;) {
+				byte type = this.in.readByte();
+				if (type == Coordinator.DONE) {
+					int count = this.in.readInt();
+					for (int i = 0; i < count; ++i)
+						this.done(this.in.readLong(), this.in.readInt());
+				} else if (type != Coordinator.HEARTBEAT) {
+					throw new IOException("Unknown message " + type + ".");
+				}
+			}
+		} catch (SocketTimeoutException e) {
+			this.context.log("Worker " + this.nameOfSgt() + " missed its heartbeats.");
+		} catch (IOException e) {
+			this.context.log("Worker " + this.nameOfSgt() + " disconnected.");
+		} finally {
+			this.close();
+		}
+	}
+
+	/* Reads the rest of a HELLO message */
+	private SergeantSpec readHello() throws IOException
+	{
+		String name = this.in.readUTF();
+		int numOfThreads = this.in.readInt();
+		int maxMissions = this.in.readInt();
+		int workHours = this.in.readInt();
+		String priorityOrder = this.in.readUTF();
+		int numOfSkills = this.in.readInt();
+		ArrayList<String> skills = new ArrayList<String>(numOfSkills);
+		for (int i = 0; i < numOfSkills; ++i)
+			skills.add(this.in.readUTF());
+		return new SergeantSpec(name, numOfThreads, maxMissions, workHours,
+								skills, priorityOrder);
+	}
+
+	/* Returns the name of the worker's sergeant, for the log */
+	private String nameOfSgt()
+	{
+		return (this.sgt == null) ? "?" : this.sgt.getName();
+	}
+
+	/**
+	 * Leases a shift to the worker. The shift is finished once the worker
+	 * reports that it has worked it, or with -1 hours if the worker dies.
+	 * @param mission The mission.
+	 * @param hours The hours of the shift.
+	 * @param shift The shift.
+	 * @return The lease, or null if the worker is dead already.
+	 */
+	public Lease lease(Mission mission, int hours, RunnableMission shift)
+	{
+		Lease lease;
+
+		synchronized (this) {
+			if (!this.alive)
+				return null;
+			lease = new Lease(this.nextLeaseId++, mission.getId(), hours, shift);
+			this.leases.put(lease.id, lease);
+		}
+		this.outbox.offer(lease);
+		return lease;
+	}
+
+	/**
+	 * Forgets a lease, and tells the worker to stop working on it.
+	 * @param lease The lease.
+	 */
+	public void cancel(Lease lease)
+	{
+		synchronized (this) {
+			if (this.leases.remove(lease.id) == null)
+				return;
+		}
+		if (!lease.cancelled.compareAndSet(false, true))
+			return;
+		/* A lease of its own, so that the writer never mistakes the
+		   lease itself, if it's still queued, for its cancellation */
+		this.outbox.offer(new Lease(lease.id, lease.missionId, 0, null, true));
+	}
+
+	/* Called when the worker reports that it has worked a lease */
+	private void done(long leaseId, int hours)
+	{
+		Lease lease;
+		synchronized (this) {
+			lease = this.leases.remove(leaseId);
+		}
+		if (lease == null)
+			return; /* Cancelled already */
+		lease.shift.finish(hours);
+	}
+
+	/* The routine of the writer: writes all the leases that are waiting
+	 * as one message, then the cancellations. Leases that were cancelled
+	 * while they waited aren't written */
+	private void writeLeases()
+	{
+		ArrayList<Lease> batch = new ArrayList<Lease>(0);
+		ArrayList<Lease> leases_ = new ArrayList<Lease>(0);
+
+		try {
+			while (this.alive) {
+				batch.clear();
+				leases_.clear();
+				batch.add(this.outbox.take());
+				if (!this.alive)
+					break;
+				this.outbox.drainTo(batch);
+
+				for (Lease l : batch)
+					if ((!l.cancel) && (!l.cancelled.get()))
+						leases_.add(l);
+				if (!leases_.isEmpty()) {
+					this.out.writeByte(Coordinator.LEASES);
+					this.out.writeInt(leases_.size());
+					for (Lease l : leases_) {
+						this.out.writeLong(l.id);
+						this.out.writeInt(l.missionId);
+						this.out.writeInt(l.hours);
+					}
+				}
+				for (Lease l : batch) {
+					if (!l.cancel)
+						continue;
+					this.out.writeByte(Coordinator.CANCEL);
+					this.out.writeLong(l.id);
+				}
+				this.out.flush();
+			}
+		} catch (InterruptedException e) {
+			/* Allow thread to exit */
+		} catch (IOException e) {
+			this.close();
+		}
+	}
+
+	/**
+	 * Disconnects the worker. Its sergeant retires and its leases fail.
+	 */
+	public void close()
+	{
+		ArrayList<Lease> failed;
+
+		synchronized (this) {
+			if (!this.alive)
+				return;
+			this.alive = false;
+			failed = new ArrayList<Lease>(this.leases.values());
+			this.leases.clear();
+		}
+		this.coordinator.linkClosed(this);
+		if (this.sgt != null)
+			this.sgt.retire();
+		for (Lease lease : failed)
+			lease.shift.finish(-1);
+		this.outbox.offer(new Lease(-1, -1, 0, null)); /* Wakes up the writer */
+		try {
+			this.socket.close();
+		} catch (IOException e) {
+			/* Nothing left to do */
+		}
+	}
+
+	/* Nested classes */
+
+	/*
+	 * A shift that has been leased to the worker.
+	 */
+	static class Lease
+	{
+		final long 			  id;
+		final int 			  missionId;
+		final int 			  hours;
+		final RunnableMission shift;
+		final boolean 		  cancel;	/* True if this is the cancellation
+										   of lease `id` */
+		final AtomicBoolean   cancelled;	/* Set once, by cancel */
+
+		Lease(long id_, int missionId_, int hours_, RunnableMission shift_) {
+			this(id_, missionId_, hours_, shift_, false);
+		}
+
+		Lease(long id_, int missionId_, int hours_, RunnableMission shift_,
+			  boolean cancel_) {
+			this.id = id_;
+			this.missionId = missionId_;
+			this.hours = hours_;
+			this.shift = shift_;
+			this.cancel = cancel_;
+			this.cancelled = new AtomicBoolean(false);
+		}
+	}
+}
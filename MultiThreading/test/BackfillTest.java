@@ -0,0 +1,102 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Tests of the BACKFILL allocation: a shift that is let to take units
+ * ahead of the first in line never delays the time at which the first in
+ * line can be served, going by the loans that are out.
+ */
+public class BackfillTest
+{
+	public static final long NOW = 1000000;
+
+	public static void main(String args[])
+	{
+		Warehouse warehouse = new Warehouse(new Context("test"));
+		testExamples(warehouse);
+		testReservation(warehouse, new Random(42));
+		warehouse.getContext().shutdown();
+		Check.passed("BackfillTest");
+	}
+
+	/* The first in line wants 3 units, 1 is free and 2 are due in a
+	 * second */
+	private static void testExamples(Warehouse warehouse)
+	{
+		ArrayList<Warehouse.Loan> loans = new ArrayList<Warehouse.Loan>();
+		loans.add(warehouse.new Loan(0, 2, NOW + 1000));
+
+		Check.that(Warehouse.mayBackfill(3, 1, loans, NOW, 1, 500),
+				   "A unit that is back in time wasn't backfilled.");
+		Check.that(Warehouse.mayBackfill(3, 1, loans, NOW, 1, 1000),
+				   "A unit that is back on time wasn't backfilled.");
+		Check.that(!Warehouse.mayBackfill(3, 1, loans, NOW, 1, 2000),
+				   "A unit that is back late was backfilled.");
+		Check.that(!Warehouse.mayBackfill(1, 1, loans, NOW, 1, 10),
+				   "The unit the first in line takes now was backfilled.");
+		Check.that(Warehouse.mayBackfill(1, 2, loans, NOW, 1, 5000),
+				   "A unit the first in line doesn't need wasn't backfilled.");
+	}
+
+	/* Whenever a shift may backfill, the first in line is served no later
+	 * than without it */
+	private static void testReservation(Warehouse warehouse, Random random)
+	{
+		int allowed = 0;
+		int refused = 0;
+
+		for (int i = 0; i < 100000; ++i) {
+			ArrayList<Warehouse.Loan> loans = new ArrayList<Warehouse.Loan>();
+			int numOfLoans = random.nextInt(5);
+			for (int j = 0; j < numOfLoans; ++j)
+				loans.add(warehouse.new Loan(0, 1 + random.nextInt(3),
+											 NOW + random.nextInt(2000) - 200));
+			int free = random.nextInt(4);
+			int wanted = 1 + random.nextInt(6);
+			int amount = 1 + random.nextInt(3);
+			long millis = random.nextInt(2000);
+			if (amount > free)
+				continue; /* It would have to wait in line */
+
+			if (!Warehouse.mayBackfill(wanted, free, loans, NOW, amount, millis)) {
+				++refused;
+				continue;
+			}
+			++allowed;
+			long before = reservation(wanted, free, loans);
+			ArrayList<Warehouse.Loan> after = new ArrayList<Warehouse.Loan>(loans);
+			after.add(warehouse.new Loan(0, amount, NOW + millis));
+			Check.that(reservation(wanted, free - amount, after) <= before,
+					   "Backfilling " + amount + " of " + free + " units for "
+					   + millis + " ms delays a first in line that wants "
+					   + wanted + ", with " + loans.size() + " loans out.");
+		}
+		Check.that((allowed > 0) && (refused > 0),
+				   "Backfilled " + allowed + " times and refused " + refused
+				   + " times.");
+	}
+
+	/* The time at which `wanted` units are in stock, if `free` are now and
+	 * the loans are returned when they're due, or Long.MAX_VALUE if never */
+	private static long reservation(int wanted, int free,
+									ArrayList<Warehouse.Loan> loans)
+	{
+		if (free >= wanted)
+			return NOW;
+		ArrayList<Warehouse.Loan> due = new ArrayList<Warehouse.Loan>(loans);
+		Collections.sort(due);
+		for (Warehouse.Loan loan : due) {
+			free += loan.amount;
+			if (free >= wanted)
+				return Math.max(NOW, loan.due);
+		}
+		return Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+/**
+ * The checks of the tests. The tests have no framework: every test is a
+ * class with a main method, which is run from the MultiThreading
+ * directory with
+ * 	javac -d out *.java test/*.java
+ * 	java -cp out TimerWheelTest
+ * and which exits with status 1 on the first check that fails.
+ */
+public class Check
+{
+	/**
+	 * Fails the test unless `condition` holds.
+	 * @param condition The condition.
+	 * @param msg What is wrong if it doesn't hold.
+	 */
+	public static void that(boolean condition, String msg)
+	{
+		if (!condition) {
+			System.err.println("ERROR: " + msg);
+			System.exit(1);
+		}
+	}
+	
+	/**
+	 * Fails the test unless two numbers are equal.
+	 * @param expected The expected number.
+	 * @param actual The actual number.
+	 * @param msg What the number is.
+	 */
+	public static void equal(long expected, long actual, String msg)
+	{
+		that(expected == actual,
+			 msg + ": expected " + expected + ", but was " + actual + ".");
+	}
+	
+	/**
+	 * Reports that a test has passed.
+	 * @param test The name of the test.
+	 */
+	public static void passed(String test)
+	{
+		System.out.println(test + ": OK");
+	}
+}
@@ -0,0 +1,146 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests of the EventPublisher: publishing never waits for a subscriber
+ * that is slow, and once its buffer is full, DROP_NEWEST keeps the events
+ * it had, DROP_OLDEST keeps the newest ones, and DISCONNECT ends the
+ * subscription with onError.
+ */
+public class EventPublisherTest
+{
+	public static final int CAPACITY = 4;
+	public static final int EVENTS = 10; /* Published while it's slow */
+	public static final long WAIT_SECS = 5;
+
+	public static void main(String args[]) throws InterruptedException
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		Context context = new Context("test");
+
+		SlowSubscriber newest = run(executor, context,
+									EventPublisher.Overflow.DROP_NEWEST,
+									EVENTS - CAPACITY);
+		Check.that(newest.received.toString().equals("[e0, e1, e2, e3, e4]"),
+				   "DROP_NEWEST delivered " + newest.received + ".");
+		Check.that(newest.completed, "DROP_NEWEST didn't complete.");
+
+		SlowSubscriber oldest = run(executor, context,
+									EventPublisher.Overflow.DROP_OLDEST,
+									EVENTS - CAPACITY);
+		Check.that(oldest.received.toString().equals("[e0, e7, e8, e9, e10]"),
+				   "DROP_OLDEST delivered " + oldest.received + ".");
+		Check.that(oldest.completed, "DROP_OLDEST didn't complete.");
+
+		SlowSubscriber disconnected = run(executor, context,
+										  EventPublisher.Overflow.DISCONNECT, 1);
+		Check.that(disconnected.received.toString().equals("[e0]"),
+				   "DISCONNECT delivered " + disconnected.received + ".");
+		Check.that(disconnected.error instanceof IllegalStateException,
+				   "DISCONNECT ended with " + disconnected.error + ".");
+
+		executor.shutdown();
+		context.shutdown();
+		Check.passed("EventPublisherTest");
+	}
+
+	/* Publishes an event that the subscriber takes and then holds on to,
+	 * and EVENTS more meanwhile, then lets it take the rest and closes
+	 * the publisher. Checks that `dropped` events are lost */
+	private static SlowSubscriber run(ExecutorService executor, Context context,
+									  EventPublisher.Overflow overflow,
+									  int dropped)
+			throws InterruptedException
+	{
+		EventPublisher publisher = new EventPublisher(executor, CAPACITY, overflow);
+		SlowSubscriber subscriber = new SlowSubscriber();
+
+		publisher.subscribe(subscriber);
+		await(subscriber.subscribed, overflow + " wasn't subscribed.");
+		publisher.publish(event(0, context));
+		await(subscriber.holding, overflow + " didn't get the first event.");
+
+		/* Never waits, although the subscriber doesn't take any */
+		for (int i = 1; i <= EVENTS; ++i)
+			publisher.publish(event(i, context));
+		Check.equal(dropped, publisher.getDropped(), overflow + " dropped events");
+
+		subscriber.release.countDown();
+		publisher.close();
+		await(subscriber.done, overflow + " didn't end.");
+		Check.equal(EVENTS + 1, publisher.getPublished(), "Published events");
+		return subscriber;
+	}
+
+	/* Waits for a latch, and fails the test if it takes too long */
+	private static void await(CountDownLatch latch, String msg)
+			throws InterruptedException
+	{
+		Check.that(latch.await(WAIT_SECS, TimeUnit.SECONDS), msg);
+	}
+
+	/* An event of a mission called e`i` */
+	private static Event event(int i, Context context)
+	{
+		return Event.missionReady(new Mission("e" + i, null, "signals", 1, context));
+	}
+
+	/* Nested classes */
+
+	/*
+	 * A subscriber that holds on to the first event until it's released,
+	 * and then takes all the rest.
+	 */
+	static class SlowSubscriber implements Flow.Subscriber<Event>
+	{
+		final CountDownLatch 	subscribed = new CountDownLatch(1);
+		final CountDownLatch 	holding = new CountDownLatch(1);
+		final CountDownLatch 	release = new CountDownLatch(1);
+		final CountDownLatch 	done = new CountDownLatch(1);
+		final ArrayList<String> received = new ArrayList<String>();
+		volatile boolean 		completed = false;
+		volatile Throwable 		error = null;
+		private Flow.Subscription subscription;
+
+		public void onSubscribe(Flow.Subscription subscription_) {
+			this.subscription = subscription_;
+			this.subscription.request(1);
+			this.subscribed.countDown();
+		}
+
+		public void onNext(Event event) {
+			synchronized (this.received) {
+				this.received.add(event.getMission());
+			}
+			if (this.holding.getCount() == 0)
+				return;
+			this.holding.countDown();
+			try {
+				this.release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			this.subscription.request(Long.MAX_VALUE);
+		}
+
+		public void onError(Throwable throwable) {
+			this.error = throwable;
+			this.done.countDown();
+		}
+
+		public void onComplete() {
+			this.completed = true;
+			this.done.countDown();
+		}
+	}
+}
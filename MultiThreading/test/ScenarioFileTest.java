@@ -0,0 +1,106 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Tests of the ScenarioFile: a scenario that is converted from the
+ * .properties files, opened and loaded into a board is the scenario that
+ * the files describe, and the simulation never changes the file.
+ */
+public class ScenarioFileTest
+{
+	public static void main(String args[]) throws IOException
+	{
+		File dir = Files.createTempDirectory("scenario").toFile();
+		try {
+			testRoundTrip(dir);
+		} finally {
+			for (File f : dir.listFiles())
+				f.delete();
+			dir.delete();
+		}
+		Check.passed("ScenarioFileTest");
+	}
+
+	/* Converts, opens, loads and verifies a scenario, then changes the
+	 * board and checks that the file stays as it was */
+	private static void testRoundTrip(File dir) throws IOException
+	{
+		String missions = write(dir, "missions.properties",
+				"numberOfMissions = 3\n"
+				+ "m0Name = alpha\nm0Skill = shooting\nm0Time = 4\n"
+				+ "m0PreRequisites =\nm0Items = rifle,2\n"
+				+ "m1Name = beta\nm1Skill = driving\nm1Time = 2\n"
+				+ "m1PreRequisites = alpha\nm1Items = jeep,1,rifle,1\n"
+				+ "m2Name = gamma\nm2Skill = shooting\nm2Time = 1\n"
+				+ "m2PreRequisites = alpha,beta\nm2Items =\n");
+		String sergeants = write(dir, "sergeants.properties",
+				"numberOfSergeants = 1\n"
+				+ "s0Name = Bob\ns0NumOfThreads = 2\ns0MaxMissions = 3\n"
+				+ "s0WorkHours = 1\ns0PriorityOrder = shortestMission\n"
+				+ "s0Skills = shooting,driving\n");
+		String warehouse = write(dir, "warehouse.properties",
+				"numberOfItems = 2\nitem0Name = rifle\nitem0Amount = 3\n"
+				+ "item1Name = jeep\nitem1Amount = 1\n");
+		String path = new File(dir, "scenario.bin").getPath();
+
+		ScenarioFile.convert(missions, sergeants, warehouse, path);
+		byte[] before = Files.readAllBytes(new File(path).toPath());
+		Check.that(new File(path).setReadOnly(), "Can't make the file read-only.");
+
+		ScenarioFile scenario = ScenarioFile.open(path);
+		Context context = new Context("test");
+		Warehouse stock = new Warehouse(context);
+		Board board = new Board(context, scenario.getColumns(context));
+		ChiefOfStaff cof = new ChiefOfStaff(board, stock);
+		board.addChief(cof);
+		scenario.loadInto(board, cof, stock);
+
+		Check.equal(0, scenario.verify(board), "Cells that differ");
+		Check.equal(3, board.numOfMissions(), "Missions");
+		Check.that(scenario.missionName(1).equals("beta"),
+				   "Mission 1 is " + scenario.missionName(1) + ", not beta.");
+		Check.that(Arrays.equals(new int[] { 0, 1 }, board.getPreIds(2)),
+				   "The prerequisites of gamma are "
+				   + Arrays.toString(board.getPreIds(2)) + ".");
+		Check.equal(7, board.hoursLeft(), "Hours left");
+		Check.equal(1, cof.getSergeants().size(), "Sergeants");
+		ArrayList<Item> items = stock.getStock();
+		Check.equal(2, items.size(), "Items");
+		Check.that(items.get(0).getName().equals("rifle")
+				       && (items.get(0).getAmount() == 3),
+				   "The first item is " + items.get(0).getName() + ".");
+
+		/* The board works on a copy of the rows, never on the file */
+		board.updateMissionTime(board.findMission("alpha"), 1);
+		Check.equal(6, board.hoursLeft(), "Hours left after an hour of alpha");
+		Check.that(scenario.verify(board) > 0,
+				   "The mapping has the time left of the board.");
+		Check.that(Arrays.equals(before, Files.readAllBytes(new File(path).toPath())),
+				   "The scenario file has changed.");
+		context.shutdown();
+	}
+
+	/* Writes a file in `dir` and returns its path */
+	private static String write(File dir, String name, String text)
+			throws IOException
+	{
+		File f = new File(dir, name);
+		FileWriter out = new FileWriter(f);
+		try {
+			out.write(text);
+		} finally {
+			out.close();
+		}
+		return f.getPath();
+	}
+}
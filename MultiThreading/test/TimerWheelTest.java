@@ -0,0 +1,145 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tests of the TimerWheel: a timeout never expires before its deadline,
+ * and expires within a tick after it, also when it's more than one turn
+ * of the wheel away or the wheel has fallen behind; and a timeout that is
+ * cancelled while another thread expires the wheel is either cancelled
+ * or expired, never both and never neither.
+ */
+public class TimerWheelTest
+{
+	public static final int TICK_MILLIS = 10;
+	public static final int SLOTS = 8;
+
+	public static void main(String args[]) throws InterruptedException
+	{
+		testExpiry(new Random(42));
+		testCancel();
+		testCancelRace();
+		testOnFirst();
+		Check.passed("TimerWheelTest");
+	}
+
+	/* Schedules timeouts up to five turns of the wheel away, and expires
+	 * the wheel in steps of up to three ticks, and now and then of more
+	 * than a turn */
+	private static void testExpiry(Random random)
+	{
+		TimerWheel<Long> wheel = new TimerWheel<Long>(TICK_MILLIS, SLOTS);
+		long base = System.currentTimeMillis();
+		long span = 5L * SLOTS * TICK_MILLIS;
+		ArrayList<Long> pending = new ArrayList<Long>();
+
+		for (int i = 0; i < 1000; ++i) {
+			long deadline = base + (long) random.nextInt((int) span);
+			wheel.schedule(deadline, deadline);
+			pending.add(deadline);
+		}
+
+		ArrayList<Long> expired = new ArrayList<Long>();
+		for (long now = base; !pending.isEmpty(); ) {
+			now += (random.nextInt(10) == 0)
+					? SLOTS * TICK_MILLIS + random.nextInt(SLOTS * TICK_MILLIS)
+					: random.nextInt(3 * TICK_MILLIS);
+			expired.clear();
+			wheel.expire(now, expired);
+			for (Long deadline : expired) {
+				Check.that(deadline <= now, "A timeout due at " + deadline
+										    + " expired at " + now + ".");
+				Check.that(pending.remove(deadline), "A timeout expired twice.");
+			}
+			for (Long deadline : pending)
+				Check.that(deadline + TICK_MILLIS > now, "A timeout due at "
+						   + deadline + " didn't expire at " + now + ".");
+		}
+		Check.that(wheel.isEmpty(), "The wheel isn't empty.");
+	}
+
+	/* A timeout is cancelled once, and not once it has expired */
+	private static void testCancel()
+	{
+		TimerWheel<String> wheel = new TimerWheel<String>(TICK_MILLIS, SLOTS);
+		long base = System.currentTimeMillis();
+		TimerWheel.Timeout<String> a = wheel.schedule("a", base);
+		TimerWheel.Timeout<String> b = wheel.schedule("b", base);
+
+		Check.that(wheel.cancel(a), "A scheduled timeout wasn't cancelled.");
+		Check.that(!wheel.cancel(a), "A timeout was cancelled twice.");
+
+		ArrayList<String> expired = new ArrayList<String>();
+		wheel.expire(base + TICK_MILLIS, expired);
+		Check.that((expired.size() == 1) && (expired.get(0).equals("b")),
+				   "Expired " + expired + " instead of [b].");
+		Check.that(!wheel.cancel(b), "An expired timeout was cancelled.");
+		Check.that(wheel.isEmpty(), "The wheel isn't empty.");
+	}
+
+	/* Cancels timeouts while another thread expires them */
+	private static void testCancelRace() throws InterruptedException
+	{
+		final int n = 20000;
+		final TimerWheel<Integer> wheel = new TimerWheel<Integer>(1, SLOTS);
+		final AtomicInteger[] outcomes = new AtomicInteger[n];
+		final ArrayList<TimerWheel.Timeout<Integer>> timeouts =
+				new ArrayList<TimerWheel.Timeout<Integer>>(n);
+		long base = System.currentTimeMillis();
+
+		for (int i = 0; i < n; ++i) {
+			outcomes[i] = new AtomicInteger(0);
+			timeouts.add(wheel.schedule(i, base + (i % 50)));
+		}
+
+		Thread expirer = new Thread() {
+			public void run() {
+				ArrayList<Integer> expired = new ArrayList<Integer>();
+				while (!wheel.isEmpty()) {
+					expired.clear();
+					wheel.expire(System.currentTimeMillis(), expired);
+					for (Integer i : expired)
+						outcomes[i].incrementAndGet();
+				}
+			}
+		};
+		expirer.start();
+		for (int i = 0; i < n; i += 2)
+			if (wheel.cancel(timeouts.get(i)))
+				outcomes[i].incrementAndGet();
+		for (int i = 1; i < n; i += 2)
+			if (wheel.cancel(timeouts.get(i)))
+				outcomes[i].incrementAndGet();
+		expirer.join();
+
+		for (int i = 0; i < n; ++i)
+			Check.equal(1, outcomes[i].get(),
+						"Times timeout " + i + " was cancelled or expired");
+	}
+
+	/* The task on the first timeout is run only when the wheel was empty */
+	private static void testOnFirst()
+	{
+		TimerWheel<String> wheel = new TimerWheel<String>(TICK_MILLIS, SLOTS);
+		final AtomicInteger firsts = new AtomicInteger(0);
+		wheel.setOnFirst(new Runnable() {
+			public void run() {
+				firsts.incrementAndGet();
+			}
+		});
+		long base = System.currentTimeMillis();
+
+		wheel.schedule("a", base);
+		wheel.schedule("b", base + SLOTS * TICK_MILLIS);
+		Check.equal(1, firsts.get(), "Runs of the first timeout task");
+		wheel.expire(base + 2 * SLOTS * TICK_MILLIS, new ArrayList<String>());
+		wheel.schedule("c", base);
+		Check.equal(2, firsts.get(), "Runs of the first timeout task");
+	}
+}
@@ -0,0 +1,116 @@
+/*
+ * Authors: Ori Popowski & Dmitry Kravchenko
+ */
+
+
+
+import java.util.ArrayList;
+
+/**
+ * Tests of the WaitAnalyzer: shifts that wait for each other in a cycle
+ * are a deadlock only once they have been found in it on two periods in
+ * a row, and the deadlock is counted once; a shift that waits for the
+ * units of a working shift is never in a deadlock. The tests run the
+ * periods of the analyzer themselves, and never start its thread.
+ */
+public class WaitAnalyzerTest
+{
+	public static final long SETTLE_MILLIS = 5000;
+
+	private static Context 	 context;
+	private static Warehouse warehouse;
+	private static Board 	 board;
+	private static Sergeant  sgt;
+
+	public static void main(String args[]) throws InterruptedException
+	{
+		testWaitForWorkingShift();
+		testCycle();
+		Check.passed("WaitAnalyzerTest");
+	}
+
+	/* A shift holds the map, and another one waits for it */
+	private static void testWaitForWorkingShift()
+	{
+		setUp();
+		Warehouse.StockItem map = item("map");
+		map.borrow(warehouse.new Borrower(shift("w", "map")));
+		warehouse.borrowItems(shift("b", "map", "radio"));
+		Check.equal(1, map.getWaiters().length, "Shifts waiting for the map");
+
+		WaitAnalyzer analyzer = warehouse.getAnalyzer();
+		for (int period = 0; period < 3; ++period)
+			analyzer.analyze();
+		Check.equal(0, analyzer.getDeadlocks(),
+					"Deadlocks of a shift that waits for a working one");
+		context.shutdown();
+	}
+
+	/* Shift a holds the radio and waits for the map, which shift b holds
+	 * while it waits for the radio */
+	private static void testCycle() throws InterruptedException
+	{
+		setUp();
+		Warehouse.StockItem map = item("map");
+		Warehouse.StockItem radio = item("radio");
+
+		/* b gets in line for the map first, then a takes the radio and
+		   gets in line behind b. Once the map is back, b takes it and
+		   waits for the radio */
+		Warehouse.Borrower worker = warehouse.new Borrower(shift("w", "map"));
+		map.borrow(worker);
+		warehouse.borrowItems(shift("b", "map", "radio"));
+		warehouse.borrowItems(shift("a", "radio", "map"));
+		map.giveBack(sgt.getLedgerId(), 1);
+		long deadline = System.currentTimeMillis() + SETTLE_MILLIS;
+		while ((radio.getWaiters().length == 0)
+			       && (System.currentTimeMillis() < deadline))
+			Thread.sleep(10);
+		Check.equal(1, radio.getWaiters().length, "Shifts waiting for the radio");
+		Check.equal(1, map.getWaiters().length, "Shifts waiting for the map");
+
+		WaitAnalyzer analyzer = warehouse.getAnalyzer();
+		analyzer.analyze();
+		Check.equal(0, analyzer.getDeadlocks(), "Deadlocks after one period");
+		analyzer.analyze();
+		Check.equal(1, analyzer.getDeadlocks(), "Deadlocks after two periods");
+		analyzer.analyze();
+		Check.equal(1, analyzer.getDeadlocks(), "Deadlocks after three periods");
+		context.shutdown();
+	}
+
+	/* Makes a warehouse with one radio and one map, and a Sgt. whose
+	 * shifts borrow them */
+	private static void setUp()
+	{
+		context = new Context("test");
+		warehouse = new Warehouse(context);
+		warehouse.addItem("radio", 1);
+		warehouse.addItem("map", 1);
+		board = new Board(context);
+		ArrayList<String> skills = new ArrayList<String>(1);
+		skills.add("signals");
+		sgt = new Sergeant("Bob", 3, 1, skills, "shortestMission", board,
+						   warehouse, 3, context);
+		sgt.setScheduler(context.getScheduler());
+	}
+
+	/* Makes a shift of a mission that needs one unit of every item in
+	 * `items`, in that order */
+	private static RunnableMission shift(String name, String... items)
+	{
+		ArrayList<Item> list = new ArrayList<Item>(items.length);
+		for (String item : items)
+			list.add(new Item(item, 1));
+		Mission mission = new Mission(name, list, "signals", 1, context);
+		MissionLease lease = new MissionLease(mission, sgt,
+				new TimerWheel<MissionLease>(100, 8), new MissionHolder());
+		return new RunnableMission(lease, sgt, board, warehouse, context);
+	}
+
+	/* The item of the warehouse that is called `name` */
+	private static Warehouse.StockItem item(String name)
+	{
+		return warehouse.findItem(context.getItems().lookup(name));
+	}
+}